@@ -29,6 +29,8 @@ android {
         versionCode = 1000010
         versionName = currentVersion.name
         check(versionCode == currentVersionCode)
+
+        testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
     }
 
     flavorDimensions += "version"
@@ -77,6 +79,12 @@ android {
             excludes += listOf("META-INF/LICENSE", "META-INF/NOTICE", "META-INF/java.properties")
         }
     }
+    testOptions {
+        unitTests {
+            // android.util.Log and friends just return default values in JVM tests
+            isReturnDefaultValues = true
+        }
+    }
     lint {
         abortOnError = true
         warning += listOf("ImpliedQuantity", "Instantiatable", "MissingQuantity", "MissingTranslation")
@@ -177,4 +185,12 @@ dependencies {
     ksp(libs.glide.ksp)
 
     implementation(libs.jaudiotagger)
+
+    testImplementation(libs.junit)
+    testImplementation(libs.kotlinx.coroutines.test)
+    testImplementation(libs.okhttp.mockwebserver)
+
+    androidTestImplementation(libs.androidx.test.ext.junit)
+    androidTestImplementation(libs.androidx.test.runner)
+    androidTestImplementation(libs.kotlinx.coroutines.test)
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.lyrics
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import java.io.File
+
+@RunWith(AndroidJUnit4::class)
+class LyricsSidecarIndexTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val indexFile: File
+        get() = File(folder.root, "cache/sidecars.idx")
+
+    private fun TestScope.newIndex() = LyricsSidecarIndex(indexFile, this)
+
+    private fun musicDir(vararg fileNames: String): File {
+        val dir = folder.newFolder("music")
+        for (fileName in fileNames) {
+            File(dir, fileName).createNewFile()
+        }
+        return dir
+    }
+
+    private fun LyricsSidecarIndex.find(dir: File, songName: String, title: String) =
+        findLyricsFiles(File(dir, songName), title).map { it.name }
+
+    @Test
+    fun returnsExactMatchesOnly() = runTest {
+        val dir = musicDir("Song.lrc", "My Title.txt", "Song (live).lrc", "Other.lrc", "Song.mp3")
+        val index = newIndex()
+        assertEquals(listOf("Song.lrc", "My Title.txt"), index.find(dir, "Song.mp3", "My Title"))
+        assertEquals(listOf("Song.lrc"), index.find(dir, "Song.mp3", "Unknown"))
+        assertEquals(listOf("My Title.txt"), index.find(dir, "Track 01.mp3", "my title"))
+    }
+
+    @Test
+    fun fallsBackToFuzzyMatches() = runTest {
+        val dir = musicDir("01 - Song (live).lrc", "Other.lrc", "Song.mp3")
+        val index = newIndex()
+        assertEquals(listOf("01 - Song (live).lrc"), index.find(dir, "Song.mp3", "Unknown"))
+        assertEquals(listOf("01 - Song (live).lrc"), index.find(dir, "Track.mp3", "song (LIVE)"))
+        assertEquals(emptyList<String>(), index.find(dir, "Track.mp3", "Unknown"))
+    }
+
+    @Test
+    fun ignoresEmptyTitle() = runTest {
+        val dir = musicDir("Song.lrc", "Other.lrc", "Another.txt")
+        val index = newIndex()
+        assertEquals(listOf("Song.lrc"), index.find(dir, "Song.mp3", ""))
+        // An empty title is contained in every name, it must not match them all
+        assertEquals(emptyList<String>(), index.find(dir, "Track.mp3", ""))
+    }
+
+    @Test
+    fun listsDirectoryAgainWhenModified() = runTest {
+        val dir = musicDir("Other.lrc")
+        dir.setLastModified(1_000_000L)
+        val index = newIndex()
+        assertEquals(emptyList<String>(), index.find(dir, "Song.mp3", "Title"))
+
+        // Not seen until the modification time of the directory changes
+        File(dir, "Song.lrc").createNewFile()
+        dir.setLastModified(1_000_000L)
+        assertEquals(emptyList<String>(), index.find(dir, "Song.mp3", "Title"))
+
+        dir.setLastModified(2_000_000L)
+        assertEquals(listOf("Song.lrc"), index.find(dir, "Song.mp3", "Title"))
+    }
+
+    @Test
+    fun keepsIndexBetweenInstances() = runTest {
+        val dir = musicDir("Song.lrc")
+        dir.setLastModified(1_000_000L)
+        assertEquals(listOf("Song.lrc"), newIndex().find(dir, "Song.mp3", "Title"))
+        advanceUntilIdle()
+        assertTrue(indexFile.isFile)
+
+        // Hidden from a listing, so only the saved index can still know about it
+        File(dir, "Song.lrc").renameTo(File(dir, "Renamed.lrc"))
+        dir.setLastModified(1_000_000L)
+        assertEquals(listOf("Song.lrc"), newIndex().find(dir, "Song.mp3", "Title"))
+    }
+
+    @Test
+    fun savesOnceForManyDirectories() = runTest {
+        val index = newIndex()
+        repeat(20) {
+            val dir = folder.newFolder("dir$it")
+            File(dir, "Song.lrc").createNewFile()
+            index.find(dir, "Song.mp3", "Title")
+        }
+        assertTrue(!indexFile.exists())
+        advanceUntilIdle()
+        assertTrue(indexFile.isFile)
+    }
+
+    @Test
+    fun discardsCorruptIndex() = runTest {
+        indexFile.parentFile!!.mkdirs()
+        // Right header, then a directory claiming an absurd number of files
+        indexFile.writeBytes(byteArrayOf(
+            0x4C, 0x53, 0x49, 0x31, 0, 0, 0, 1, 0, 0, 0, 1,
+            0, 1, 'x'.code.toByte(), 0, 0, 0, 0, 0, 0, 0, 1, 0x7F, -1, -1, -1
+        ))
+        val dir = musicDir("Song.lrc")
+        assertEquals(listOf("Song.lrc"), newIndex().find(dir, "Song.mp3", "Title"))
+        advanceUntilIdle()
+        assertEquals(listOf("Song.lrc"), newIndex().find(dir, "Song.mp3", "Title"))
+    }
+}
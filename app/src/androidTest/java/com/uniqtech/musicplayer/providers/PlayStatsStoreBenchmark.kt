@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.providers
+
+import android.util.Log
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.database.PlayCountEntity
+import com.uniqtech.musicplayer.repository.LibraryStore
+import com.uniqtech.musicplayer.repository.RealSongRepository
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares how long it takes to rank "Top tracks" with each [PlayStatsStore.ScoreMode]
+ * over a synthetic table of [ROW_COUNT] played songs, scored by the store from their
+ * weekly play counts. The timings are printed to the log under the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class PlayStatsStoreBenchmark {
+
+    private lateinit var database: BoomingDatabase
+    private lateinit var store: PlayStatsStore
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        database = Room.inMemoryDatabaseBuilder(context, BoomingDatabase::class.java).build()
+        val songRepository = RealSongRepository(database.inclExclDao(), LibraryStore(context, database))
+        store = PlayStatsStore(context, database, songRepository)
+
+        val random = Random(42)
+        val now = System.currentTimeMillis()
+        val week = (now / ONE_WEEK_IN_MS).toInt()
+        database.runInTransaction {
+            database.playCountDao().upsertSongsInPlayCount(List(ROW_COUNT) { i ->
+                val weekCounts = IntArray(random.nextInt(1, 53)) { random.nextInt(0, 5) }
+                PlayCountEntity(
+                    id = i + 1L,
+                    data = "/storage/emulated/0/Music/$i.mp3",
+                    title = "Song $i",
+                    trackNumber = 1,
+                    year = 2000,
+                    size = 0,
+                    duration = 180_000,
+                    dateAdded = 0,
+                    dateModified = 0,
+                    albumId = i / 10L,
+                    albumName = "Album ${i / 10}",
+                    artistId = i / 100L,
+                    artistName = "Artist ${i / 100}",
+                    albumArtistName = null,
+                    genreName = null,
+                    timePlayed = now - random.nextLong(0, ONE_WEEK_IN_MS * 52),
+                    playCount = weekCounts.sum() + 1,
+                    skipCount = 0,
+                    weekIndex = week,
+                    weekCounts = weekCounts.joinToString(","),
+                    decayScore = 0.0,
+                    scoreUpdated = 0
+                )
+            })
+        }
+        // Unscored play counts get their decay score from the store itself, like the
+        // ones already played before it existed, so they're ranked by real scores
+        store.flush()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun rankTopTracks() {
+        for (scoreMode in PlayStatsStore.ScoreMode.entries) {
+            // The first run also warms up the statements and the cursor window
+            assertEquals(LIMIT, store.topPlayedIds(LIMIT, scoreMode).size)
+            val nanos = LongArray(RUNS) {
+                measureNanoTime { store.topPlayedIds(LIMIT, scoreMode) }
+            }
+            Log.i(TAG, "$scoreMode: median ${nanos.sorted()[RUNS / 2] / 1_000_000} ms over $ROW_COUNT rows")
+        }
+    }
+
+    companion object {
+        private const val TAG = "PlayStatsStoreBenchmark"
+
+        private const val ROW_COUNT = 100_000
+        private const val LIMIT = 100
+        private const val RUNS = 5
+
+        private const val ONE_WEEK_IN_MS = 1000L * 60 * 60 * 24 * 7
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service.queue
+
+import android.content.Context
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.repository.LibraryDelta
+import com.uniqtech.musicplayer.service.MusicService
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+/**
+ * Measures how long the [SmartPlayingQueue] operations that used to go through the
+ * whole queue once per song take over a sequential queue of [QUEUE_SIZE] songs. Every
+ * run starts from a freshly opened queue, whose opening isn't measured. The timings are
+ * printed to the log under the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class SmartPlayingQueueBenchmark {
+
+    private val songs = List(QUEUE_SIZE) { song(it.toLong()) }
+    private val random = Random(42)
+
+    private lateinit var scope: CoroutineScope
+    private lateinit var queue: SmartPlayingQueue
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        scope = CoroutineScope(Job())
+        // The service is only called back when the current song is removed, which
+        // none of the runs does
+        queue = SmartPlayingQueue(
+            MusicService(),
+            context.getSharedPreferences(TAG, Context.MODE_PRIVATE),
+            scope,
+            isSequentialQueue = true
+        )
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun playNext() {
+        val added = List(ADDED_SONGS) { song(QUEUE_SIZE + it.toLong()) }
+        val nanos = measure {
+            added.forEach { queue.playNext(it) }
+        }
+        assertEquals(added.last().id, queue.playingQueue[POSITION + ADDED_SONGS].id)
+        report("playNext", nanos)
+    }
+
+    @Test
+    fun removeSongs() {
+        val removed = List(REMOVED_SONGS) { random.nextInt(POSITION + 1, QUEUE_SIZE) }.distinct()
+        val nanos = measure {
+            queue.removeSongs(removed.map { queue.playingQueue[it] })
+        }
+        assertEquals(QUEUE_SIZE - removed.size, queue.playingQueue.size)
+        assertEquals(POSITION, queue.position)
+        report("removeSongs", nanos)
+    }
+
+    @Test
+    fun applyLibraryDelta() {
+        val indices = List(REMOVED_SONGS) { random.nextInt(POSITION + 1, QUEUE_SIZE) }.distinct()
+        val delta = LibraryDelta(
+            added = emptyList(),
+            updated = indices.take(indices.size / 2).map { song(it.toLong(), title = "Updated $it") },
+            removedIds = indices.drop(indices.size / 2).mapTo(HashSet()) { it.toLong() }
+        )
+        val nanos = measure {
+            queue.applyLibraryDelta(delta)
+        }
+        assertEquals(QUEUE_SIZE - delta.removedIds.size, queue.playingQueue.size)
+        assertEquals(POSITION, queue.position)
+        report("applyLibraryDelta", nanos)
+    }
+
+    /**
+     * Runs [block] over a freshly opened queue [RUNS] times, after a first run that
+     * warms up the JIT.
+     *
+     * @return The median of the measured runs, in nanoseconds
+     */
+    private inline fun measure(block: () -> Unit): Long {
+        val nanos = LongArray(RUNS + 1) {
+            queue.open(songs, POSITION) { queue.position = it }
+            measureNanoTime(block)
+        }
+        return nanos.drop(1).sorted()[RUNS / 2]
+    }
+
+    private fun report(name: String, nanos: Long) {
+        Log.i(TAG, "$name: median ${nanos / 1000} us over $QUEUE_SIZE songs")
+    }
+
+    private fun song(id: Long, title: String = "Song $id") = Song(
+        id = id,
+        data = "/storage/emulated/0/Music/$id.mp3",
+        title = title,
+        trackNumber = 1,
+        year = 2000,
+        size = 0,
+        duration = 180_000,
+        dateAdded = 0,
+        dateModified = 0,
+        albumId = id / 10,
+        albumName = "Album ${id / 10}",
+        artistId = id / 100,
+        artistName = "Artist ${id / 100}",
+        albumArtistName = null,
+        genreName = null
+    )
+
+    companion object {
+        private const val TAG = "SmartPlayingQueueBenchmark"
+
+        private const val QUEUE_SIZE = 10_000
+        private const val POSITION = 100
+        private const val ADDED_SONGS = 2_000
+        private const val REMOVED_SONGS = 1_000
+        private const val RUNS = 7
+    }
+}
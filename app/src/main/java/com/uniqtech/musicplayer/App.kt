@@ -30,10 +30,12 @@ import com.bumptech.glide.Glide
 import com.uniqtech.musicplayer.activities.ErrorActivity
 import com.uniqtech.musicplayer.activities.MainActivity
 import com.uniqtech.musicplayer.fragments.settings.SettingsScreen
-import com.uniqtech.musicplayer.misc.ReplayGainTagExtractor
+import com.uniqtech.musicplayer.providers.ReplayGainStore
+import com.uniqtech.musicplayer.service.ReplayGainScanJob
 import com.uniqtech.musicplayer.util.EXPERIMENTAL_UPDATES
 import com.uniqtech.musicplayer.util.Preferences.getDayNightMode
 import org.jaudiotagger.tag.TagOptionSingleton
+import org.koin.android.ext.android.get
 import org.koin.android.ext.koin.androidContext
 import org.koin.core.context.startKoin
 import java.util.logging.Level
@@ -80,12 +82,13 @@ class App : Application() {
             .apply()
 
         AppCompatDelegate.setDefaultNightMode(getDayNightMode())
+        ReplayGainScanJob.update(this)
     }
 
     override fun onTrimMemory(level: Int) {
         super.onTrimMemory(level)
         Glide.get(this).clearMemory()
-        ReplayGainTagExtractor.clearCache()
+        get<ReplayGainStore>().clearMemoryCache()
     }
 
     private fun enableStrictMode() {
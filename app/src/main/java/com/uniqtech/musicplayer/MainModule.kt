@@ -22,6 +22,10 @@ import androidx.room.Room
 import com.uniqtech.musicplayer.activities.tageditor.TagEditorViewModel
 import com.uniqtech.musicplayer.androidauto.AutoMusicProvider
 import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.database.MIGRATION_1_2
+import com.uniqtech.musicplayer.database.MIGRATION_2_3
+import com.uniqtech.musicplayer.database.MIGRATION_3_4
+import com.uniqtech.musicplayer.database.MIGRATION_4_5
 import com.uniqtech.musicplayer.fragments.LibraryViewModel
 import com.uniqtech.musicplayer.fragments.albums.AlbumDetailViewModel
 import com.uniqtech.musicplayer.fragments.artists.ArtistDetailViewModel
@@ -40,8 +44,12 @@ import com.uniqtech.musicplayer.http.lyrics.LyricsService
 import com.uniqtech.musicplayer.http.provideDefaultCache
 import com.uniqtech.musicplayer.http.provideOkHttp
 import com.uniqtech.musicplayer.model.Genre
+import com.uniqtech.musicplayer.providers.MediaStoreSyncer
 import com.uniqtech.musicplayer.providers.MediaStoreWriter
+import com.uniqtech.musicplayer.providers.PlayStatsStore
+import com.uniqtech.musicplayer.providers.ReplayGainStore
 import com.uniqtech.musicplayer.repository.*
+import com.uniqtech.musicplayer.search.SearchIndex
 import com.uniqtech.musicplayer.service.equalizer.EqualizerManager
 import org.koin.android.ext.koin.androidContext
 import org.koin.core.module.dsl.viewModel
@@ -49,14 +57,11 @@ import org.koin.dsl.bind
 import org.koin.dsl.module
 
 val networkModule = module {
-    factory {
+    single {
         jsonHttpClient(get())
     }
-    factory {
-        provideDefaultCache()
-    }
-    factory {
-        provideOkHttp(get(), get())
+    single {
+        provideOkHttp(androidContext(), provideDefaultCache())
     }
     single {
         GitHubService(get())
@@ -96,6 +101,7 @@ private val mainModule = module {
 private val roomModule = module {
     single {
         Room.databaseBuilder(androidContext(), BoomingDatabase::class.java, "music_database.db")
+            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
             .build()
     }
 
@@ -103,14 +109,6 @@ private val roomModule = module {
         get<BoomingDatabase>().playlistDao()
     }
 
-    factory {
-        get<BoomingDatabase>().playCountDao()
-    }
-
-    factory {
-        get<BoomingDatabase>().historyDao()
-    }
-
     factory {
         get<BoomingDatabase>().inclExclDao()
     }
@@ -137,9 +135,25 @@ private val dataModule = module {
     } bind Repository::class
 
     single {
-        RealSongRepository(get())
+        LibraryStore(androidContext(), get())
+    }
+
+    single {
+        RealSongRepository(get(), get())
     } bind SongRepository::class
 
+    single {
+        MediaStoreSyncer(androidContext(), get(), get())
+    }
+
+    single {
+        PlayStatsStore(androidContext(), get(), get())
+    }
+
+    single {
+        ReplayGainStore(get(), get())
+    }
+
     single {
         RealAlbumRepository(get())
     } bind AlbumRepository::class
@@ -157,11 +171,15 @@ private val dataModule = module {
     } bind GenreRepository::class
 
     single {
-        RealSearchRepository(get(), get(), get(), get(), get(), get())
+        SearchIndex(get(), get(), get(), get())
+    }
+
+    single {
+        RealSearchRepository(get(), get(), get(), get())
     } bind SearchRepository::class
 
     single {
-        RealSmartRepository(androidContext(), get(), get(), get(), get(), get())
+        RealSmartRepository(get(), get(), get(), get())
     } bind SmartRepository::class
 
     single {
@@ -171,7 +189,7 @@ private val dataModule = module {
 
 private val viewModule = module {
     viewModel {
-        LibraryViewModel(get(), get())
+        LibraryViewModel(get(), get(), get())
     }
 
     viewModel {
@@ -211,7 +229,7 @@ private val viewModule = module {
     }
 
     viewModel {
-        InfoViewModel(get())
+        InfoViewModel(get(), get())
     }
 }
 
@@ -27,8 +27,10 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import com.uniqtech.musicplayer.extensions.hasR
 import com.uniqtech.musicplayer.extensions.hasT
 import com.uniqtech.musicplayer.interfaces.IMusicServiceEventListener
+import com.uniqtech.musicplayer.repository.LibraryStore
 import com.uniqtech.musicplayer.service.MusicPlayer
 import com.uniqtech.musicplayer.service.constants.ServiceEvent
+import org.koin.android.ext.android.inject
 import java.lang.ref.WeakReference
 
 /**
@@ -37,6 +39,7 @@ import java.lang.ref.WeakReference
 open class AbsMusicServiceActivity : AbsBaseActivity(),
     IMusicServiceEventListener {
 
+    private val libraryStore: LibraryStore by inject()
     private val musicServiceEventListeners: MutableList<IMusicServiceEventListener?> = ArrayList()
     private var musicStateReceiver: MusicStateReceiver? = null
 
@@ -82,6 +85,7 @@ open class AbsMusicServiceActivity : AbsBaseActivity(),
     }
 
     override fun onHasPermissionsChanged(hasPermissions: Boolean) {
+        libraryStore.invalidate()
         LocalBroadcastManager.getInstance(this).sendBroadcast(
             Intent(ServiceEvent.MEDIA_STORE_CHANGED)
                 .putExtra("from_permissions_changed", true) // just in case we need to know this at some point
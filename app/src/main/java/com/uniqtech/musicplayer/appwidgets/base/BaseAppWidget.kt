@@ -55,12 +55,12 @@ abstract class BaseAppWidget : AppWidgetProvider() {
     }
 
     /**
-     * Handle a change notification coming over from
-     * [MusicService]
+     * Handle the change notifications coming over from
+     * [MusicService], all of them are handled with a single update
      */
-    fun notifyChange(service: MusicService, what: String) {
+    fun notifyChange(service: MusicService, events: Set<String>) {
         if (hasInstances(service)) {
-            if (ServiceEvent.META_CHANGED == what || ServiceEvent.PLAY_STATE_CHANGED == what) {
+            if (ServiceEvent.META_CHANGED in events || ServiceEvent.PLAY_STATE_CHANGED in events) {
                 performUpdate(service, null)
             }
         }
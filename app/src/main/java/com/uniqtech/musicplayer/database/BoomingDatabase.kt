@@ -27,9 +27,11 @@ import androidx.room.RoomDatabase
         HistoryEntity::class,
         PlayCountEntity::class,
         InclExclEntity::class,
-        LyricsEntity::class
+        LyricsEntity::class,
+        ReplayGainEntity::class,
+        SearchIndexEntity::class
     ],
-    version = 1,
+    version = 5,
     exportSchema = false
 )
 abstract class BoomingDatabase : RoomDatabase() {
@@ -38,4 +40,6 @@ abstract class BoomingDatabase : RoomDatabase() {
     abstract fun historyDao(): HistoryDao
     abstract fun inclExclDao(): InclExclDao
     abstract fun lyricsDao(): LyricsDao
+    abstract fun replayGainDao(): ReplayGainDao
+    abstract fun searchIndexDao(): SearchIndexDao
 }
\ No newline at end of file
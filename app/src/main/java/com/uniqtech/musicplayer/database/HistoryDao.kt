@@ -26,7 +26,7 @@ interface HistoryDao {
     }
 
     @Upsert
-    suspend fun upsertSongInHistory(historyEntity: HistoryEntity)
+    fun upsertSongsInHistory(historyEntities: List<HistoryEntity>)
 
     @Query("DELETE FROM HistoryEntity WHERE id= :songId")
     fun deleteSongInHistory(songId: Long)
@@ -37,6 +37,12 @@ interface HistoryDao {
     @Query("SELECT * FROM HistoryEntity ORDER BY time_played DESC LIMIT $HISTORY_LIMIT")
     fun observableHistorySongs(): LiveData<List<HistoryEntity>>
 
+    @Query("SELECT id FROM HistoryEntity")
+    fun historyIds(): List<Long>
+
+    @Query("SELECT id FROM HistoryEntity WHERE time_played < :cutoff ORDER BY time_played ASC")
+    fun historyIdsBefore(cutoff: Long): List<Long>
+
     @Query("DELETE FROM HistoryEntity")
-    suspend fun clearHistory()
+    fun clearHistory()
 }
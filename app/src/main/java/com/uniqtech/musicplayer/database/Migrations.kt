@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.uniqtech.musicplayer.database
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Adds the weekly play counts, which were previously kept in a separate database,
+ * to [PlayCountEntity].
+ */
+val MIGRATION_1_2 = object : Migration(1, 2) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE PlayCountEntity ADD COLUMN week_index INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE PlayCountEntity ADD COLUMN week_counts TEXT")
+    }
+}
+
+/**
+ * Adds the exponentially decayed play score to [PlayCountEntity]. Existing rows are
+ * scored by PlayStatsStore from their play counts the next time it's flushed.
+ */
+val MIGRATION_2_3 = object : Migration(2, 3) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE PlayCountEntity ADD COLUMN decay_score REAL NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE PlayCountEntity ADD COLUMN score_updated INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_PlayCountEntity_decay_score ON PlayCountEntity (decay_score)")
+    }
+}
+
+/**
+ * Adds the table where the ReplayGain values read from the song tags are kept,
+ * see [ReplayGainEntity].
+ */
+val MIGRATION_3_4 = object : Migration(3, 4) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE IF NOT EXISTS ReplayGainEntity (id INTEGER NOT NULL, date_modified INTEGER NOT NULL, " +
+                    "rg_album REAL NOT NULL, rg_track REAL NOT NULL, peak_album REAL NOT NULL, " +
+                    "peak_track REAL NOT NULL, PRIMARY KEY(id))"
+        )
+    }
+}
+
+/**
+ * Adds the full-text search index, see [SearchIndexEntity]. It's filled from the
+ * library the first time it's used.
+ */
+val MIGRATION_4_5 = object : Migration(4, 5) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL(
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `SearchIndexEntity` USING FTS4(`kind` TEXT NOT NULL, " +
+                    "`ref_id` TEXT NOT NULL, `terms` TEXT NOT NULL, tokenize=unicode61 `remove_diacritics=1`, " +
+                    "notindexed=`kind`, notindexed=`ref_id`)"
+        )
+    }
+}
@@ -14,6 +14,7 @@
  */
 package com.uniqtech.musicplayer.database
 
+import androidx.room.ColumnInfo
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Query
@@ -25,18 +26,41 @@ interface PlayCountDao {
     @Upsert
     fun upsertSongInPlayCount(playCountEntity: PlayCountEntity)
 
+    @Upsert
+    fun upsertSongsInPlayCount(playCountEntities: List<PlayCountEntity>)
+
     @Delete
     fun deleteSongInPlayCount(playCountEntity: PlayCountEntity)
 
     @Query("SELECT * FROM PlayCountEntity WHERE id =:songId LIMIT 1")
     fun findSongExistInPlayCount(songId: Long): PlayCountEntity?
 
+    @Query("SELECT * FROM PlayCountEntity WHERE id IN (:songIds)")
+    fun findSongsExistInPlayCount(songIds: List<Long>): List<PlayCountEntity>
+
     @Query("SELECT * FROM PlayCountEntity WHERE play_count > 0 ORDER BY play_count DESC")
     fun playCountSongs(): List<PlayCountEntity>
 
     @Query("SELECT * FROM PlayCountEntity WHERE skip_count > 0 ORDER BY skip_count DESC")
     fun skipCountSongs(): List<PlayCountEntity>
 
+    @Query("SELECT id, week_index, week_counts FROM PlayCountEntity WHERE week_counts IS NOT NULL")
+    fun weeklyPlayCounts(): List<WeeklyPlayCount>
+
+    @Query("SELECT id FROM PlayCountEntity WHERE score_updated > 0 ORDER BY decay_score DESC LIMIT :limit")
+    fun topDecayScoreIds(limit: Int): List<Long>
+
+    @Query("SELECT * FROM PlayCountEntity WHERE score_updated = 0 AND play_count > 0")
+    fun unscoredPlayCounts(): List<PlayCountEntity>
+
     @Query("DELETE FROM PlayCountEntity")
     fun clearPlayCount()
 }
+
+class WeeklyPlayCount(
+    val id: Long,
+    @ColumnInfo(name = "week_index")
+    val weekIndex: Int,
+    @ColumnInfo(name = "week_counts")
+    val weekCounts: String?
+)
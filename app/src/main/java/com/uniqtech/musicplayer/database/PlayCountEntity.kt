@@ -16,9 +16,10 @@ package com.uniqtech.musicplayer.database
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity
+@Entity(indices = [Index("decay_score")])
 data class PlayCountEntity(
     @PrimaryKey
     val id: Long,
@@ -50,5 +51,13 @@ data class PlayCountEntity(
     @ColumnInfo(name = "play_count")
     var playCount: Int,
     @ColumnInfo(name = "skip_count")
-    var skipCount: Int
+    var skipCount: Int,
+    @ColumnInfo(name = "week_index", defaultValue = "0")
+    val weekIndex: Int = 0,
+    @ColumnInfo(name = "week_counts")
+    val weekCounts: String? = null,
+    @ColumnInfo(name = "decay_score", defaultValue = "0")
+    val decayScore: Double = 0.0,
+    @ColumnInfo(name = "score_updated", defaultValue = "0")
+    val scoreUpdated: Long = 0
 )
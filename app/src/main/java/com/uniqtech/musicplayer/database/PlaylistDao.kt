@@ -52,6 +52,10 @@ interface PlaylistDao {
     @Query("SELECT * FROM PlaylistEntity WHERE playlist_name LIKE :playlistName")
     fun searchPlaylists(playlistName: String): List<PlaylistWithSongs>
 
+    @Transaction
+    @Query("SELECT * FROM PlaylistEntity WHERE playlist_id IN (:playlistIds)")
+    fun playlistsWithSongs(playlistIds: List<Long>): List<PlaylistWithSongs>
+
     @Transaction
     @Query("SELECT * FROM SongEntity WHERE playlist_creator_id = :playlistId AND title LIKE :songName")
     fun searchSongs(playlistId: Long, songName: String): List<SongEntity>
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.database
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Upsert
+
+@Dao
+interface ReplayGainDao {
+    @Upsert
+    fun upsertReplayGain(replayGain: ReplayGainEntity)
+
+    @Upsert
+    fun upsertReplayGain(replayGain: List<ReplayGainEntity>)
+
+    @Query("SELECT * FROM ReplayGainEntity WHERE id = :songId")
+    fun replayGain(songId: Long): ReplayGainEntity?
+
+    @Query("SELECT * FROM ReplayGainEntity WHERE id IN (:songIds)")
+    fun replayGains(songIds: List<Long>): List<ReplayGainEntity>
+
+    @Query("SELECT id FROM ReplayGainEntity")
+    fun replayGainIds(): List<Long>
+
+    @Query("DELETE FROM ReplayGainEntity WHERE id IN (:songIds)")
+    fun deleteReplayGains(songIds: List<Long>)
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.database
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+import com.uniqtech.musicplayer.misc.GainValues
+import com.uniqtech.musicplayer.model.Song
+
+/**
+ * ReplayGain values read from the tags of a song. They're valid as long as the
+ * song's [dateModified] doesn't change.
+ */
+@Entity
+class ReplayGainEntity(
+    @PrimaryKey
+    val id: Long,
+    @ColumnInfo(name = "date_modified")
+    val dateModified: Long,
+    @ColumnInfo(name = "rg_album")
+    val rgAlbum: Float,
+    @ColumnInfo(name = "rg_track")
+    val rgTrack: Float,
+    @ColumnInfo(name = "peak_album")
+    val peakAlbum: Float,
+    @ColumnInfo(name = "peak_track")
+    val peakTrack: Float
+) {
+    fun isValidFor(song: Song) = id == song.id && dateModified == song.dateModified
+
+    fun toGainValues() = GainValues(rgAlbum, rgTrack, peakAlbum, peakTrack)
+}
+
+fun GainValues.toReplayGainEntity(song: Song) =
+    ReplayGainEntity(song.id, song.dateModified, rgAlbum, rgTrack, peakAlbum, peakTrack)
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.database
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+
+@Dao
+interface SearchIndexDao {
+    @Insert
+    fun insertEntries(entries: List<SearchIndexEntity>)
+
+    @Query("SELECT * FROM SearchIndexEntity WHERE kind = :kind")
+    fun entries(kind: String): List<SearchIndexEntity>
+
+    @Query("DELETE FROM SearchIndexEntity WHERE kind = :kind")
+    fun deleteEntries(kind: String)
+
+    @Query("DELETE FROM SearchIndexEntity WHERE kind = :kind AND ref_id IN (:refIds)")
+    fun deleteEntries(kind: String, refIds: List<String>)
+
+    @Query("SELECT * FROM SearchIndexEntity WHERE SearchIndexEntity MATCH :match AND kind = :kind")
+    fun search(match: String, kind: String): List<SearchIndexEntity>
+}
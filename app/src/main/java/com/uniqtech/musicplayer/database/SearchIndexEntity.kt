@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.database
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+
+/**
+ * Row of the full-text search index. Every searchable item of the library (songs,
+ * albums, artists, album artists, genres and playlists) has a row with the text it
+ * can be found by, see [com.uniqtech.musicplayer.search.SearchIndex].
+ *
+ * The unicode61 tokenizer folds case and removes diacritics, so "cafe" finds "Café".
+ */
+@Fts4(
+    tokenizer = FtsOptions.TOKENIZER_UNICODE61,
+    tokenizerArgs = ["remove_diacritics=1"],
+    notIndexed = ["kind", "ref_id"]
+)
+@Entity
+class SearchIndexEntity(
+    @ColumnInfo(name = "kind")
+    val kind: String,
+    @ColumnInfo(name = "ref_id")
+    val refId: String,
+    @ColumnInfo(name = "terms")
+    val terms: String
+) {
+    companion object {
+        const val KIND_SONG = "song"
+        const val KIND_ALBUM = "album"
+        const val KIND_ARTIST = "artist"
+        const val KIND_ALBUM_ARTIST = "album_artist"
+        const val KIND_GENRE = "genre"
+        const val KIND_PLAYLIST = "playlist"
+    }
+}
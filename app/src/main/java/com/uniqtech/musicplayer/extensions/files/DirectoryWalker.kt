@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.extensions.files
+
+import android.util.LruCache
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.ProducerScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.FileFilter
+import java.io.IOException
+import java.nio.file.DirectoryIteratorException
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Lists and walks directories for the folders view.
+ *
+ * The entries of every listed directory are cached along with the directory's
+ * modification time, which changes whenever an entry is added, removed or renamed,
+ * so listing a directory again (e.g. when navigating back to it) doesn't touch the
+ * storage beyond a single stat. Recursive walks list directories in parallel and
+ * stop as soon as their collector is cancelled.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+internal object DirectoryWalker {
+
+    private const val CACHE_SIZE = 2048
+    private const val BATCH_SIZE = 256
+    private const val PARALLELISM = 4
+
+    private val cache = LruCache<String, DirectoryListing>(CACHE_SIZE)
+    private val walkDispatcher = Dispatchers.IO.limitedParallelism(PARALLELISM)
+
+    fun list(directory: File, fileFilter: FileFilter?): List<File> {
+        return entries(directory).mapNotNull { entry ->
+            entry.file.takeIf { fileFilter == null || fileFilter.accept(it) }
+        }
+    }
+
+    fun walk(files: List<File>, fileFilter: FileFilter?): Flow<List<File>> = channelFlow {
+        val rootFiles = ArrayList<File>()
+        for (file in files) {
+            if (file.isDirectory) {
+                walkDirectory(file, fileFilter)
+            } else if (fileFilter == null || fileFilter.accept(file)) {
+                rootFiles.add(file)
+            }
+        }
+        if (rootFiles.isNotEmpty()) {
+            send(rootFiles)
+        }
+    }
+
+    private fun ProducerScope<List<File>>.walkDirectory(directory: File, fileFilter: FileFilter?) {
+        launch(walkDispatcher) {
+            var batch = ArrayList<File>()
+            for (entry in entries(directory)) {
+                ensureActive()
+                if (fileFilter != null && !fileFilter.accept(entry.file))
+                    continue
+
+                if (entry.isDirectory) {
+                    walkDirectory(entry.file, fileFilter)
+                } else {
+                    batch.add(entry.file)
+                    if (batch.size == BATCH_SIZE) {
+                        send(batch)
+                        batch = ArrayList()
+                    }
+                }
+            }
+            if (batch.isNotEmpty()) {
+                send(batch)
+            }
+        }
+    }
+
+    private fun entries(directory: File): List<Entry> {
+        val key = directory.path
+        val lastModified = directory.lastModified()
+        val cached = cache.get(key)
+        // A modification time of 0 means that it couldn't be read
+        if (cached != null && lastModified != 0L && cached.lastModified == lastModified) {
+            return cached.entries
+        }
+        val entries = ArrayList<Entry>()
+        try {
+            Files.newDirectoryStream(directory.toPath()).use { stream ->
+                for (path in stream) {
+                    val attributes = try {
+                        Files.readAttributes(path, BasicFileAttributes::class.java)
+                    } catch (e: IOException) {
+                        continue
+                    }
+                    entries.add(Entry(path.toFile(), attributes.isDirectory))
+                }
+            }
+        } catch (e: IOException) {
+            return emptyList()
+        } catch (e: DirectoryIteratorException) {
+            return emptyList()
+        } catch (e: SecurityException) {
+            return emptyList()
+        }
+        cache.put(key, DirectoryListing(lastModified, entries))
+        return entries
+    }
+
+    private class Entry(val file: File, val isDirectory: Boolean)
+
+    private class DirectoryListing(val lastModified: Long, val entries: List<Entry>)
+}
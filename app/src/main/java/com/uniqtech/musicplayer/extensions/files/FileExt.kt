@@ -23,6 +23,7 @@ import android.webkit.MimeTypeMap
 import androidx.core.content.FileProvider
 import com.uniqtech.musicplayer.extensions.fileProviderAuthority
 import com.uniqtech.musicplayer.util.StorageUtil
+import kotlinx.coroutines.flow.Flow
 import org.jaudiotagger.audio.AudioFile
 import org.jaudiotagger.audio.AudioFileIO
 import java.io.File
@@ -32,7 +33,6 @@ import java.io.OutputStream
 import java.text.DecimalFormat
 import java.text.SimpleDateFormat
 import java.util.Date
-import java.util.LinkedList
 import java.util.Locale
 import java.util.zip.ZipOutputStream
 import kotlin.math.log10
@@ -132,44 +132,24 @@ fun File.copyToUri(context: Context, toUri: Uri) {
     }
 }
 
-fun File.listFilesAsList(fileFilter: FileFilter?): List<File> {
-    val fileList = LinkedList<File>()
-    val found = this.listFiles(fileFilter)
-    if (found != null) {
-        fileList.addAll(found)
-    }
-    return fileList
-}
-
-fun File.listFilesDeep(fileFilter: FileFilter?): List<File> {
-    val files = LinkedList<File>()
-    internalListFilesDeep(files, this, fileFilter)
-    return files
-}
+/**
+ * Lists the files of this directory accepted by [fileFilter]. Listings are cached
+ * until the directory is modified, see [DirectoryWalker].
+ */
+fun File.listFilesAsList(fileFilter: FileFilter?): List<File> = DirectoryWalker.list(this, fileFilter)
 
-fun List<File>.listFilesDeep(fileFilter: FileFilter?): MutableList<File> {
-    val resFiles = LinkedList<File>()
-    for (file in this) {
-        if (file.isDirectory) {
-            internalListFilesDeep(resFiles, file, fileFilter)
-        } else if (fileFilter == null || fileFilter.accept(file)) {
-            resFiles.add(file)
-        }
-    }
-    return resFiles
-}
+/**
+ * Walks these files recursively and emits, in batches and in no particular order,
+ * the files (not directories) accepted by [fileFilter]. Directories are only walked
+ * into if [fileFilter] accepts them. The walk stops when the collector is cancelled.
+ */
+fun List<File>.walkFilesDeep(fileFilter: FileFilter?): Flow<List<File>> =
+    DirectoryWalker.walk(this, fileFilter)
 
-private fun internalListFilesDeep(files: MutableList<File>, directory: File, fileFilter: FileFilter?) {
-    val found = directory.listFiles(fileFilter)
-    if (found != null) {
-        for (file in found) {
-            if (file.isDirectory) {
-                internalListFilesDeep(files, file, fileFilter)
-            } else {
-                files.add(file)
-            }
-        }
-    }
+suspend fun List<File>.listFilesDeep(fileFilter: FileFilter?): List<File> {
+    val files = ArrayList<File>()
+    walkFilesDeep(fileFilter).collect { files.addAll(it) }
+    return files
 }
 
 /**
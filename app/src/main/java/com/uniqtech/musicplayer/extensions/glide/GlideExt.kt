@@ -33,8 +33,10 @@ import com.uniqtech.musicplayer.extensions.media.albumCoverUri
 import com.uniqtech.musicplayer.extensions.resources.defaultFooterColor
 import com.uniqtech.musicplayer.extensions.resources.getDrawableCompat
 import com.uniqtech.musicplayer.glide.artistimage.ArtistImage
+import com.uniqtech.musicplayer.glide.audiocover.AlbumCoverStore
 import com.uniqtech.musicplayer.glide.audiocover.AudioFileCover
 import com.uniqtech.musicplayer.glide.palette.BitmapPaletteWrapper
+import com.uniqtech.musicplayer.glide.playlistPreview.AutoGeneratedPlaylistBitmap
 import com.uniqtech.musicplayer.glide.transformation.BlurTransformation
 import com.uniqtech.musicplayer.model.Album
 import com.uniqtech.musicplayer.model.Artist
@@ -60,6 +62,8 @@ suspend fun Glide.clearCache(clearDiskCache: Boolean = false) {
     withContext(Dispatchers.IO) {
         if (clearDiskCache) {
             clearDiskCache()
+            AutoGeneratedPlaylistBitmap.clearCache(context)
+            AlbumCoverStore.clear()
         }
     }
 }
@@ -70,7 +74,7 @@ fun GlideScope(): CoroutineScope = CoroutineScope(SupervisorJob() + glideDispatc
 @SuppressLint("CheckResult")
 fun <T> RequestBuilder<T>.blurImage(context: Context, model: Any?): RequestBuilder<T> = apply {
     load(model)
-    transform(BlurTransformation.Builder(context).build())
+    transform(BlurTransformation.Builder().build())
     error(ColorDrawable(context.defaultFooterColor()))
 }
 
@@ -84,7 +88,8 @@ fun <TranscodeType> getDefaultGlideTransition(): GenericTransitionOptions<Transc
 
 fun Song.getSongGlideModel(ignoreMediaStore: Boolean = Preferences.ignoreMediaStore): Any {
     return if (ignoreMediaStore) {
-        AudioFileCover(data, Preferences.useFolderImages)
+        val isAlbumKnown = albumId > 0 && albumName.isNotBlank() && !albumName.trim().equals("<unknown>", true)
+        AudioFileCover(data, Preferences.useFolderImages, if (isAlbumKnown) albumId else -1, dateModified)
     } else {
         albumId.albumCoverUri()
     }
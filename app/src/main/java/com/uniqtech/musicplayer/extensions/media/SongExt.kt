@@ -35,10 +35,10 @@ import com.uniqtech.musicplayer.extensions.resources.toForegroundColorSpan
 import com.uniqtech.musicplayer.extensions.showToast
 import com.uniqtech.musicplayer.extensions.utilities.appendWithDelimiter
 import com.uniqtech.musicplayer.extensions.utilities.buildInfoString
-import com.uniqtech.musicplayer.misc.ReplayGainTagExtractor
 import com.uniqtech.musicplayer.model.NowPlayingInfo
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.model.WebSearchEngine
+import com.uniqtech.musicplayer.providers.ReplayGainStore
 import com.uniqtech.musicplayer.service.MusicPlayer
 import org.jaudiotagger.audio.AudioFile
 import java.io.File
@@ -66,12 +66,6 @@ fun List<Song>.getSpannedTitles(context: Context): List<CharSequence> {
     }
 }
 
-fun List<Song>.asQueueItems(): List<MediaSessionCompat.QueueItem> {
-    return runCatching {
-        mapIndexed { index, song -> song.asQueueItem(index + 1L) }
-    }.getOrDefault(arrayListOf())
-}
-
 fun List<Song>.playlistInfo(context: Context) = buildInfoString(songCountStr(context), songsDurationStr())
 
 fun List<Song>.songsDurationStr() = sumOf { it.duration }.durationStr()
@@ -142,8 +136,8 @@ fun Song.asQueueItem(itemId: Long): MediaSessionCompat.QueueItem {
 
 fun Song.audioFile(): AudioFile? = File(data).toAudioFile()
 
-fun Song.replayGainStr(context: Context): String? {
-    val gainValues = ReplayGainTagExtractor.getReplayGain(this)
+fun Song.replayGainStr(context: Context, replayGainStore: ReplayGainStore): String? {
+    val gainValues = replayGainStore.getReplayGain(this)
     val builder = StringBuilder()
     if (gainValues.rgTrack.toDouble() != 0.0) {
         builder.append(String.format(Locale.ROOT, "%s: %.2f dB", context.getString(R.string.track), gainValues.rgTrack))
@@ -35,10 +35,15 @@ import com.uniqtech.musicplayer.mvvm.ImportablePlaylistResult
 import com.uniqtech.musicplayer.mvvm.SuggestedResult
 import com.uniqtech.musicplayer.mvvm.UpdateSearchResult
 import com.uniqtech.musicplayer.mvvm.event.Event
+import com.uniqtech.musicplayer.repository.LibraryChange
+import com.uniqtech.musicplayer.repository.LibraryDelta
+import com.uniqtech.musicplayer.repository.LibraryStore
 import com.uniqtech.musicplayer.repository.RealSmartRepository
 import com.uniqtech.musicplayer.repository.Repository
 import com.uniqtech.musicplayer.service.MusicPlayer
 import com.uniqtech.musicplayer.util.Preferences
+import com.uniqtech.musicplayer.util.sort.SortOrder
+import com.uniqtech.musicplayer.util.sort.sortedSongs
 import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.Dispatchers.IO
 import kotlinx.coroutines.Dispatchers.Main
@@ -49,7 +54,8 @@ import java.util.Date
 
 class LibraryViewModel(
     private val repository: Repository,
-    private val updateService: GitHubService
+    private val updateService: GitHubService,
+    private val libraryStore: LibraryStore
 ) : ViewModel() {
 
     init {
@@ -57,6 +63,14 @@ class LibraryViewModel(
             initializeBlacklist()
             deleteMissingContent()
         }
+        viewModelScope.launch(IO) {
+            libraryStore.changes.collect { change ->
+                when (change) {
+                    is LibraryChange.Delta -> applyLibraryDelta(change.delta)
+                    LibraryChange.Reload -> reloadLibraryContent()
+                }
+            }
+        }
     }
 
     private val suggestions = MutableLiveData(SuggestedResult.Idle)
@@ -125,6 +139,36 @@ class LibraryViewModel(
         }
     }
 
+    /**
+     * Patches the loaded songs with the given [delta] instead of reloading them. Other
+     * groupings are taken again from the (already patched) library snapshot.
+     */
+    private suspend fun applyLibraryDelta(delta: LibraryDelta) {
+        val currentSongs = songs.value
+        if (currentSongs != null) {
+            val updatedById = delta.updatedById
+            val patchedSongs = currentSongs.mapNotNull { song ->
+                if (song.id in delta.removedIds) null else updatedById[song.id] ?: song
+            }
+            if (delta.added.isEmpty() && delta.updated.isEmpty()) {
+                songs.postValue(patchedSongs)
+            } else {
+                // The list is almost sorted, so this is close to linear.
+                songs.postValue((patchedSongs + delta.added).sortedSongs(SortOrder.songSortOrder))
+            }
+        }
+        reloadLibraryContent(includeSongs = false)
+    }
+
+    private suspend fun reloadLibraryContent(includeSongs: Boolean = true) {
+        // Only content that has been loaded at least once needs to be refreshed.
+        if (includeSongs && songs.value != null) fetchSongs()
+        if (albums.value != null) fetchAlbums()
+        if (artists.value != null) fetchArtists()
+        if (genres.value != null) fetchGenres()
+        if (years.value != null) fetchYears()
+    }
+
     private suspend fun fetchSuggestions() {
         val currentValue = suggestions.value?.copy(state = SuggestedResult.State.Loading)
             ?: SuggestedResult(SuggestedResult.State.Loading)
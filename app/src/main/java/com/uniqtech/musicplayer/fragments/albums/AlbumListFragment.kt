@@ -150,11 +150,6 @@ class AlbumListFragment : AbsRecyclerViewCustomGridSizeFragment<AlbumAdapter, Gr
         return super.onMenuItemSelected(item)
     }
 
-    override fun onMediaStoreChanged() {
-        super.onMediaStoreChanged()
-        libraryViewModel.forceReload(ReloadType.Albums)
-    }
-
     companion object {
         private const val VIEW_TYPE = "albums_view_type"
         private const val GRID_SIZE = "albums_grid_size"
@@ -148,11 +148,6 @@ class ArtistListFragment : AbsRecyclerViewCustomGridSizeFragment<ArtistAdapter,
         adapter?.notifyDataSetChanged()
     }
 
-    override fun onMediaStoreChanged() {
-        super.onMediaStoreChanged()
-        libraryViewModel.forceReload(ReloadType.Artists)
-    }
-
     override fun onPause() {
         super.onPause()
         adapter?.actionMode?.finish()
@@ -390,12 +390,11 @@ class EqualizerFragment : AbsMainActivityFragment(R.layout.fragment_equalizer),
                     }
 
                     addOnSliderTouchListener(this@EqualizerFragment)
-                    addOnSliderTouchListener(object : Slider.OnSliderTouchListener {
-                        override fun onStartTrackingTouch(slider: Slider) {}
-                        override fun onStopTrackingTouch(slider: Slider) {
-                            viewModel.setCustomPresetBandLevel(band, bandLevelRange[0] + slider.value.toInt() * 100)
+                    addOnChangeListener { _, value, fromUser ->
+                        if (fromUser) {
+                            viewModel.setCustomPresetBandLevel(band, bandLevelRange[0] + value.toInt() * 100)
                         }
-                    })
+                    }
                 }
         }
     }
@@ -85,14 +85,17 @@ class EqualizerViewModel(
 
     fun setCustomPresetBandLevel(band: Int, level: Int) = viewModelScope.launch {
         equalizerManager.setCustomPresetBandLevel(band, level)
+        MusicPlayer.updateEqualizer()
     }
 
     fun setBassStrength(level: Float) = viewModelScope.launch {
         equalizerManager.setCustomPresetEffect(EFFECT_TYPE_BASS_BOOST, level)
+        MusicPlayer.updateEqualizer()
     }
 
     fun setVirtualizerStrength(level: Float) = viewModelScope.launch {
         equalizerManager.setCustomPresetEffect(EFFECT_TYPE_VIRTUALIZER, level)
+        MusicPlayer.updateEqualizer()
     }
 
     fun savePreset(presetName: String?, canReplace: Boolean): LiveData<PresetOpResult> = liveData(IO) {
@@ -56,13 +56,16 @@ import com.uniqtech.musicplayer.misc.WrappedAsyncTaskLoader
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.model.StorageDevice
 import com.uniqtech.musicplayer.service.MusicPlayer
+import com.uniqtech.musicplayer.service.playback.Playback
 import com.uniqtech.musicplayer.util.FileUtil
 import com.uniqtech.musicplayer.util.Preferences
 import com.uniqtech.musicplayer.util.StorageUtil
 import com.uniqtech.musicplayer.views.BreadCrumbLayout
 import com.uniqtech.musicplayer.views.BreadCrumbLayout.Crumb
 import com.uniqtech.musicplayer.views.BreadCrumbLayout.SelectionCallback
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.koin.android.ext.android.inject
@@ -83,6 +86,7 @@ class FoldersFragment : AbsMainActivityFragment(R.layout.fragment_folders), Sele
 
     private var adapter: SongFileAdapter? = null
     private var storageAdapter: StorageAdapter? = null
+    private var playFileJob: Job? = null
     private val fileComparator = Comparator { lhs: File, rhs: File ->
         if (lhs.isDirectory && !rhs.isDirectory) {
             return@Comparator -1
@@ -240,32 +244,65 @@ class FoldersFragment : AbsMainActivityFragment(R.layout.fragment_folders), Sele
             val fileFilter = FileFilter { pathname: File ->
                 !pathname.isDirectory && AUDIO_FILE_FILTER.accept(pathname)
             }
-            lifecycleScope.launch(Dispatchers.IO) {
-                listSongs(listOfNotNull(mFile.parentFile), fileFilter, fileComparator) { songs ->
-                    if (songs.isNotEmpty()) {
-                        var startIndex = -1
-                        for (i in songs.indices) {
-                            if (mFile.path == songs[i].data) { // path is already canonical here
-                                startIndex = i
-                                break
-                            }
-                        }
-                        if (startIndex > -1) {
-                            MusicPlayer.openQueue(songs, startIndex, true)
-                        } else {
-                            Snackbar.make(
-                                mainActivity.slidingPanel,
-                                getString(R.string.not_listed_in_media_store, mFile.name).toHtml(),
-                                Snackbar.LENGTH_LONG
-                            ).setAction(R.string.action_scan) {
-                                lifecycleScope.launch {
-                                    listPaths(mFile, AUDIO_FILE_FILTER) { paths -> scanPaths(paths) }
-                                }
-                            }.show()
-                        }
+            playFileJob?.cancel()
+            playFileJob = lifecycleScope.launch(Dispatchers.IO) {
+                playFile(mFile, fileFilter)
+            }
+        }
+    }
+
+    /**
+     * Plays the given file, queuing the rest of the files of its folder around it.
+     * Files are matched with the MediaStore in chunks, so playback can start as soon
+     * as the selected file is matched; the rest of the folder is appended to the
+     * queue as it gets matched. When shuffle is on the whole folder is needed first.
+     */
+    private suspend fun playFile(file: File, fileFilter: FileFilter) {
+        val canStream = MusicPlayer.shuffleMode == Playback.ShuffleMode.OFF
+        val songs = ArrayList<Song>()
+        var startIndex = -1
+        var queueOpened = false
+        try {
+            val files = listOfNotNull(file.parentFile).listFilesDeep(fileFilter).sortedWith(fileComparator)
+            FileUtil.matchFilesWithMediaStoreChunked(files).collect { chunk ->
+                if (queueOpened) {
+                    if (chunk.isNotEmpty()) withContext(Dispatchers.Main) {
+                        MusicPlayer.enqueue(chunk, showToast = false)
+                    }
+                    return@collect
+                }
+                songs.addAll(chunk)
+                if (startIndex == -1) {
+                    startIndex = songs.indexOfFirst { it.data == file.path } // path is already canonical here
+                }
+                if (startIndex > -1 && canStream) {
+                    withContext(Dispatchers.Main) {
+                        MusicPlayer.openQueue(ArrayList(songs), startIndex, true)
                     }
+                    queueOpened = true
                 }
             }
+        } catch (e: Exception) {
+            if (e is CancellationException) throw e
+            e.printStackTrace()
+        }
+        if (queueOpened || songs.isEmpty()) {
+            return
+        }
+        withContext(Dispatchers.Main) {
+            if (startIndex > -1) {
+                MusicPlayer.openQueue(songs, startIndex, true)
+            } else {
+                Snackbar.make(
+                    mainActivity.slidingPanel,
+                    getString(R.string.not_listed_in_media_store, file.name).toHtml(),
+                    Snackbar.LENGTH_LONG
+                ).setAction(R.string.action_scan) {
+                    lifecycleScope.launch {
+                        listPaths(file, AUDIO_FILE_FILTER) { paths -> scanPaths(paths) }
+                    }
+                }.show()
+            }
         }
     }
 
@@ -412,23 +449,26 @@ class FoldersFragment : AbsMainActivityFragment(R.layout.fragment_folders), Sele
         fileFilter: FileFilter,
         doOnPathListed: (paths: Array<String?>) -> Unit,
     ) {
-        val paths = try {
-            val paths: Array<String?>
-            if (file.isDirectory) {
-                val files = file.listFilesDeep(fileFilter)
-                paths = arrayOfNulls(files.size)
-                for (i in files.indices) {
-                    val f = files[i]
-                    paths[i] = f.getCanonicalPathSafe()
+        val paths = withContext(Dispatchers.IO) {
+            try {
+                val paths: Array<String?>
+                if (file.isDirectory) {
+                    val files = listOf(file).listFilesDeep(fileFilter)
+                    paths = arrayOfNulls(files.size)
+                    for (i in files.indices) {
+                        val f = files[i]
+                        paths[i] = f.getCanonicalPathSafe()
+                    }
+                } else {
+                    paths = arrayOfNulls(1)
+                    paths[0] = file.path
                 }
-            } else {
-                paths = arrayOfNulls(1)
-                paths[0] = file.path
+                paths
+            } catch (e: Exception) {
+                if (e is CancellationException) throw e
+                e.printStackTrace()
+                arrayOf()
             }
-            paths
-        } catch (e: Exception) {
-            e.printStackTrace()
-            arrayOf()
         }
         withContext(Dispatchers.Main) {
             doOnPathListed(paths)
@@ -464,6 +504,7 @@ class FoldersFragment : AbsMainActivityFragment(R.layout.fragment_folders), Sele
         val songs = try {
             FileUtil.matchFilesWithMediaStore(files.listFilesDeep(fileFilter).sortedWith(fileComparator))
         } catch (e: Exception) {
+            if (e is CancellationException) throw e
             e.printStackTrace()
             emptyList()
         }
@@ -34,13 +34,17 @@ import com.uniqtech.musicplayer.model.Artist
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.mvvm.PlayInfoResult
 import com.uniqtech.musicplayer.mvvm.SongDetailResult
+import com.uniqtech.musicplayer.providers.ReplayGainStore
 import com.uniqtech.musicplayer.repository.Repository
 import kotlinx.coroutines.Dispatchers.IO
 import org.jaudiotagger.audio.AudioHeader
 import org.jaudiotagger.tag.FieldKey
 import java.io.File
 
-class InfoViewModel(private val repository: Repository) : ViewModel() {
+class InfoViewModel(
+    private val repository: Repository,
+    private val replayGainStore: ReplayGainStore
+) : ViewModel() {
 
     fun loadAlbum(id: Long): LiveData<Album> = liveData(IO) {
         if (id != -1L) {
@@ -79,7 +83,7 @@ class InfoViewModel(private val repository: Repository) : ViewModel() {
             val dateModified = song.getModifiedDate().format(context)
             val year = if (song.year > 0) song.year.toString() else null
             val trackLength = song.songDurationStr()
-            val replayGain = song.replayGainStr(context)
+            val replayGain = song.replayGainStr(context, replayGainStore)
 
             val audioFile = song.audioFile()
             if (audioFile == null) {
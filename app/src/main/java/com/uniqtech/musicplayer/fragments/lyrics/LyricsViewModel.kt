@@ -35,7 +35,10 @@ import com.uniqtech.musicplayer.extensions.isAllowedToDownloadMetadata
 import com.uniqtech.musicplayer.extensions.media.isArtistNameUnknown
 import com.uniqtech.musicplayer.http.Result
 import com.uniqtech.musicplayer.http.lyrics.LyricsService
+import com.uniqtech.musicplayer.lyrics.LrcLyrics
 import com.uniqtech.musicplayer.lyrics.LrcUtils
+import com.uniqtech.musicplayer.lyrics.LyricsCache
+import com.uniqtech.musicplayer.lyrics.LyricsSidecarIndex
 import com.uniqtech.musicplayer.misc.TagWriter
 import com.uniqtech.musicplayer.model.DownloadedLyrics
 import com.uniqtech.musicplayer.model.Song
@@ -47,7 +50,6 @@ import kotlinx.coroutines.launch
 import org.jaudiotagger.tag.FieldKey
 import java.io.File
 import java.util.EnumMap
-import java.util.regex.Pattern
 
 /**
  * @author Christians M. A. (mardous)
@@ -80,7 +82,8 @@ class LyricsViewModel(
     fun getAllLyrics(song: Song, allowDownload: Boolean = false, isFallbackAllowed: Boolean = false): LiveData<LyricsResult> =
         liveData(IO + silentHandler) {
             check(song.id != Song.emptySong.id)
-            val embeddedLyrics = getEmbeddedLyrics(song, isFallbackAllowed)
+            val embedded = getEmbeddedLyrics(song, isFallbackAllowed)
+            val embeddedLyrics = embedded.lyrics
             val syncedLyrics = lyricsDao.getLyrics(song.id)
             if (syncedLyrics == null && allowDownload && appContext().isAllowedToDownloadMetadata()) {
                 val onlineLyrics = lyricsService.getLyrics(song)
@@ -96,7 +99,7 @@ class LyricsViewModel(
                 emit(LyricsResult(song.id, embeddedLyrics, lrcData))
             } else {
                 if (!embeddedLyrics.isNullOrEmpty()) {
-                    val parsedLrc = LrcUtils.parse(embeddedLyrics)
+                    val parsedLrc = embedded.lrcData
                     if (parsedLrc.hasLines) {
                         emit(LyricsResult(song.id, data = embeddedLyrics, lrcData = parsedLrc))
                     } else {
@@ -111,12 +114,13 @@ class LyricsViewModel(
     fun getLyrics(song: Song, isFallbackAllowed: Boolean = false): LiveData<LyricsResult> =
         liveData(IO + silentHandler) {
             if (song.id != Song.emptySong.id) {
-                emit(LyricsResult(song.id, getEmbeddedLyrics(song, isFallbackAllowed)))
+                emit(LyricsResult(song.id, getEmbeddedLyrics(song, isFallbackAllowed).lyrics))
             }
         }
 
     fun deleteLyrics() = viewModelScope.launch(IO) {
         lyricsDao.removeLyrics()
+        LyricsCache.clear(appContext())
     }
 
     fun shareSyncedLyrics(context: Context, song: Song): LiveData<Uri?> = liveData(IO) {
@@ -230,61 +234,51 @@ class LyricsViewModel(
             }
         }
 
-    private fun getEmbeddedLyrics(song: Song, isFallbackAllowed: Boolean): String? {
-        var lyrics: String? = null
-
+    /**
+     * Returns the lyrics stored in the tags of the song (or, if allowed, in an .lrc/.txt
+     * file next to it) along with their parsed synced lines, if any. The lyrics read
+     * from the tags are kept in the [LyricsCache] until the file is modified.
+     */
+    private fun getEmbeddedLyrics(song: Song, isFallbackAllowed: Boolean): LyricsCache.Entry {
         val file = File(song.data)
-
-        try {
-            lyrics = file.toAudioFile()?.getBestTag(false)?.getFirst(FieldKey.LYRICS)
-        } catch (e: java.lang.Exception) {
-            e.printStackTrace()
+        val lastModified = file.lastModified()
+        var entry = LyricsCache.get(appContext(), song.id, lastModified)
+        if (entry == null) {
+            var tagLyrics: String? = null
+            var isTagRead = false
+            try {
+                val audioFile = file.toAudioFile()
+                if (audioFile != null) {
+                    tagLyrics = audioFile.getBestTag(false)?.getFirst(FieldKey.LYRICS)
+                    isTagRead = true
+                }
+            } catch (e: java.lang.Exception) {
+                e.printStackTrace()
+            }
+            entry = LyricsCache.Entry(tagLyrics, tagLyrics?.let { LrcUtils.parse(it) } ?: LrcLyrics())
+            // A file that couldn't be read isn't cached as having no lyrics, so it's read again next time
+            if (isTagRead && lastModified > 0) {
+                LyricsCache.put(appContext(), song.id, lastModified, entry)
+            }
+        }
+        if (!entry.lyrics.isNullOrEmpty() || !isFallbackAllowed) {
+            return entry
         }
 
+        var lyrics: String? = entry.lyrics
         if (lyrics.isNullOrEmpty() && isFallbackAllowed) {
-            val dir = file.absoluteFile.parentFile
-            if (dir != null && dir.exists() && dir.isDirectory) {
-                val format = ".*%s.*\\.(lrc|txt)"
-
-                val filename = Pattern.quote(file.nameWithoutExtension)
-                val songtitle = Pattern.quote(song.title)
-
-                val patterns = ArrayList<Pattern>().apply {
-                    add(
-                        Pattern.compile(
-                            String.format(format, filename),
-                            Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE
-                        )
-                    )
-                    add(
-                        Pattern.compile(
-                            String.format(format, songtitle),
-                            Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE
-                        )
-                    )
-                }
-
-                val files = dir.listFiles { f: File ->
-                    for (pattern in patterns) {
-                        if (pattern.matcher(f.name).matches()) return@listFiles true
-                    }
-                    false
-                }
-
-                if (files != null && files.isNotEmpty()) {
-                    for (f in files) {
-                        try {
-                            val newLyrics = f.readText()
-                            if (newLyrics.trim().isNotEmpty()) {
-                                lyrics = newLyrics
-                            }
-                        } catch (e: Exception) {
-                            e.printStackTrace()
-                        }
+            for (f in LyricsSidecarIndex.getInstance(appContext()).findLyricsFiles(file, song.title)) {
+                try {
+                    val newLyrics = f.readText()
+                    if (newLyrics.trim().isNotEmpty()) {
+                        lyrics = newLyrics
+                        break
                     }
+                } catch (e: Exception) {
+                    e.printStackTrace()
                 }
             }
         }
-        return lyrics
+        return LyricsCache.Entry(lyrics, lyrics?.let { LrcUtils.parse(it) } ?: LrcLyrics())
     }
 }
\ No newline at end of file
@@ -22,7 +22,9 @@ import android.os.Bundle
 import android.view.View
 import androidx.preference.Preference
 import com.uniqtech.musicplayer.R
+import com.uniqtech.musicplayer.service.ReplayGainScanJob
 import com.uniqtech.musicplayer.util.Preferences
+import com.uniqtech.musicplayer.util.REPLAYGAIN_LIBRARY_SCAN
 import com.uniqtech.musicplayer.util.REPLAYGAIN_PREAMP
 import com.uniqtech.musicplayer.util.REPLAYGAIN_SOURCE_MODE
 import com.uniqtech.musicplayer.util.ReplayGainSourceMode
@@ -55,6 +57,7 @@ class PlaybackPreferencesFragment : PreferencesScreenFragment(), SharedPreferenc
     override fun onSharedPreferenceChanged(preferences: SharedPreferences?, key: String?) {
         when (key) {
             REPLAYGAIN_SOURCE_MODE -> updatePreAmpState()
+            REPLAYGAIN_LIBRARY_SCAN -> ReplayGainScanJob.update(requireContext())
         }
     }
 }
\ No newline at end of file
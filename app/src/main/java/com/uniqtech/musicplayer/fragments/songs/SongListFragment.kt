@@ -139,11 +139,6 @@ class SongListFragment : AbsRecyclerViewCustomGridSizeFragment<SongAdapter, Grid
         return super.onMenuItemSelected(item)
     }
 
-    override fun onMediaStoreChanged() {
-        super.onMediaStoreChanged()
-        libraryViewModel.forceReload(ReloadType.Songs)
-    }
-
     companion object {
         private const val VIEW_TYPE = "songs_view_type"
         private const val GRID_SIZE = "songs_grid_size"
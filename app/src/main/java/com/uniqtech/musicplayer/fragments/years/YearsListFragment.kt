@@ -122,11 +122,6 @@ class YearsListFragment : AbsRecyclerViewCustomGridSizeFragment<YearAdapter, Gri
         return super.onMenuItemSelected(item)
     }
 
-    override fun onMediaStoreChanged() {
-        super.onMediaStoreChanged()
-        libraryViewModel.forceReload(ReloadType.Years)
-    }
-
     override fun onPause() {
         super.onPause()
         adapter?.actionMode?.finish()
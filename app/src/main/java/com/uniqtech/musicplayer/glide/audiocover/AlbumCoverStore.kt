@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.glide.audiocover
+
+import android.graphics.BitmapFactory
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.WorkerThread
+import com.uniqtech.musicplayer.appContext
+import com.uniqtech.musicplayer.extensions.resources.calculateInSampleSize
+import com.uniqtech.musicplayer.extensions.resources.getResized
+import com.uniqtech.musicplayer.extensions.resources.toJPG
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the embedded cover of each song extracted on disk, along with a small
+ * thumbnail, so the songs of an album don't extract (and decode) the same
+ * embedded picture over and over again.
+ *
+ * Covers are stored by the digest of their contents, so songs sharing the same
+ * picture (usually the songs of an album) share a single stored cover, while a
+ * song with a different picture still gets its own. Each song is only extracted
+ * once to learn which cover it has; that is remembered by path and modification
+ * date in an index, so a song modified later (e.g. because its cover was edited)
+ * is extracted again.
+ */
+object AlbumCoverStore {
+
+    private const val TAG = "AlbumCoverStore"
+
+    const val THUMBNAIL_SIZE = 256
+
+    private const val COVER_SUFFIX = ".cover"
+    private const val THUMBNAIL_SUFFIX = ".thumb"
+
+    private const val INDEX_FILE_NAME = "songs.idx"
+    private const val INDEX_MAGIC = 0x41435331 // "ACS1"
+    private const val SAVE_DELAY = 5000L
+
+    // Digest of the songs without an embedded picture
+    private const val NO_COVER = ""
+
+    private val directory: File by lazy {
+        File(appContext().cacheDir, "album_covers").apply { mkdirs() }
+    }
+    private val indexFile: AtomicFile by lazy {
+        AtomicFile(File(directory, INDEX_FILE_NAME))
+    }
+
+    // Song path -> the digest of its cover, as of the song's modification date
+    private val songs = ConcurrentHashMap<String, SongEntry>()
+    private val locks = ConcurrentHashMap<String, Any>()
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var saveJob: Job? = null
+
+    @Volatile
+    private var isLoaded = false
+
+    /**
+     * Opens the cover of the given song, extracting it from the song if it isn't
+     * known yet, or if the song has changed since it was extracted.
+     *
+     * @param thumbnail Whether a thumbnail (no bigger than [THUMBNAIL_SIZE]) is enough
+     * @return The cover, or null if the song has no embedded picture
+     */
+    @WorkerThread
+    fun openCover(model: AudioFileCover, thumbnail: Boolean): InputStream? {
+        loadIndex()
+        val entry = songs[model.filePath]
+        val digest = if (entry != null && entry.dateModified == model.dateModified &&
+            (entry.digest == NO_COVER || coverFile(entry.digest).exists())
+        ) {
+            entry.digest
+        } else {
+            val picture = AudioFileCoverUtils.embeddedPicture(model.filePath)
+            val digest = picture?.let { digest(it) } ?: NO_COVER
+            if (picture != null && !store(digest, picture)) {
+                return ByteArrayInputStream(picture)
+            }
+            songs[model.filePath] = SongEntry(model.dateModified, digest)
+            scheduleSave()
+            digest
+        }
+        if (digest == NO_COVER) {
+            return null
+        }
+        val thumbnailFile = thumbnailFile(digest)
+        if (thumbnail && thumbnailFile.exists()) {
+            return FileInputStream(thumbnailFile)
+        }
+        return FileInputStream(coverFile(digest))
+    }
+
+    /**
+     * Returns the digest of the stored cover of the given song if it's already known,
+     * so that songs sharing a picture can share the same cache key too.
+     */
+    fun coverKey(model: AudioFileCover): String? {
+        if (!isLoaded) return null
+        val entry = songs[model.filePath]
+        if (entry == null || entry.dateModified != model.dateModified || entry.digest == NO_COVER) {
+            return null
+        }
+        return entry.digest
+    }
+
+    /**
+     * Deletes every stored cover, along with the index of songs.
+     */
+    @WorkerThread
+    fun clear() {
+        synchronized(this) {
+            songs.clear()
+            directory.listFiles()?.forEach { it.delete() }
+        }
+    }
+
+    private fun store(digest: String, picture: ByteArray): Boolean {
+        val lock = locks.getOrPut(digest) { Any() }
+        synchronized(lock) {
+            val coverFile = coverFile(digest)
+            if (coverFile.exists()) {
+                return true
+            }
+            // The cover is written last, its presence means the thumbnail was written too
+            writeThumbnail(picture, thumbnailFile(digest))
+            val atomicFile = AtomicFile(coverFile)
+            val stream = try {
+                atomicFile.startWrite()
+            } catch (e: IOException) {
+                Log.e(TAG, "Couldn't store cover $digest", e)
+                return false
+            }
+            try {
+                stream.write(picture)
+                atomicFile.finishWrite(stream)
+            } catch (e: IOException) {
+                Log.e(TAG, "Couldn't store cover $digest", e)
+                atomicFile.failWrite(stream)
+                return false
+            }
+            return true
+        }
+    }
+
+    private fun writeThumbnail(picture: ByteArray, file: File) {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeByteArray(picture, 0, picture.size, bounds)
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0 ||
+            (bounds.outWidth <= THUMBNAIL_SIZE && bounds.outHeight <= THUMBNAIL_SIZE)
+        ) {
+            // The cover itself is small enough (or can't be decoded)
+            return
+        }
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, THUMBNAIL_SIZE)
+        }
+        val bitmap = BitmapFactory.decodeByteArray(picture, 0, picture.size, options) ?: return
+        val thumbnail = bitmap.getResized(THUMBNAIL_SIZE)
+        val atomicFile = AtomicFile(file)
+        var stream: FileOutputStream? = null
+        try {
+            stream = atomicFile.startWrite()
+            thumbnail.toJPG(stream = stream)
+            atomicFile.finishWrite(stream)
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't store thumbnail ${file.name}", e)
+            if (stream != null) atomicFile.failWrite(stream)
+        } finally {
+            if (thumbnail !== bitmap) thumbnail.recycle()
+            bitmap.recycle()
+        }
+    }
+
+    private fun loadIndex() {
+        if (isLoaded) return
+        synchronized(this) {
+            if (isLoaded) return
+            try {
+                DataInputStream(BufferedInputStream(indexFile.openRead())).use { input ->
+                    if (input.readInt() == INDEX_MAGIC) {
+                        repeat(input.readInt()) {
+                            val path = input.readUTF()
+                            songs[path] = SongEntry(input.readLong(), input.readUTF())
+                        }
+                    }
+                }
+            } catch (e: FileNotFoundException) {
+                // Nothing was stored yet
+            } catch (e: Exception) {
+                Log.e(TAG, "Couldn't read the index of covers, it will be built again", e)
+                songs.clear()
+                indexFile.delete()
+            }
+            deleteUnusedFiles()
+            isLoaded = true
+        }
+    }
+
+    /**
+     * Deletes the covers that no song refers to anymore, and the leftovers of
+     * interrupted writes.
+     */
+    private fun deleteUnusedFiles() {
+        val digests = songs.values.mapTo(HashSet()) { it.digest }
+        directory.listFiles()?.forEach { file ->
+            if (file.name == INDEX_FILE_NAME) return@forEach
+            val digest = when {
+                file.name.endsWith(COVER_SUFFIX) -> file.name.removeSuffix(COVER_SUFFIX)
+                file.name.endsWith(THUMBNAIL_SUFFIX) -> file.name.removeSuffix(THUMBNAIL_SUFFIX)
+                else -> null
+            }
+            if (digest == null || digest !in digests) {
+                file.delete()
+            }
+        }
+    }
+
+    private fun scheduleSave() {
+        synchronized(songs) {
+            if (saveJob == null) {
+                saveJob = scope.launch {
+                    delay(SAVE_DELAY)
+                    save()
+                }
+            }
+        }
+    }
+
+    private fun save() {
+        synchronized(songs) {
+            saveJob = null
+        }
+        val entries = songs.entries.map { it.key to it.value }
+        synchronized(indexFile) {
+            val stream = try {
+                indexFile.startWrite()
+            } catch (e: IOException) {
+                Log.e(TAG, "Couldn't write the index of covers", e)
+                return
+            }
+            try {
+                val output = DataOutputStream(BufferedOutputStream(stream))
+                output.writeInt(INDEX_MAGIC)
+                output.writeInt(entries.size)
+                for ((path, entry) in entries) {
+                    output.writeUTF(path)
+                    output.writeLong(entry.dateModified)
+                    output.writeUTF(entry.digest)
+                }
+                output.flush()
+                indexFile.finishWrite(stream)
+            } catch (e: IOException) {
+                Log.e(TAG, "Couldn't write the index of covers", e)
+                indexFile.failWrite(stream)
+            }
+        }
+    }
+
+    private fun digest(picture: ByteArray): String {
+        val bytes = MessageDigest.getInstance("SHA-1").digest(picture)
+        return bytes.joinToString("") { "%02x".format(it) }
+    }
+
+    private fun coverFile(digest: String) = File(directory, "$digest$COVER_SUFFIX")
+
+    private fun thumbnailFile(digest: String) = File(directory, "$digest$THUMBNAIL_SUFFIX")
+
+    private class SongEntry(val dateModified: Long, val digest: String)
+}
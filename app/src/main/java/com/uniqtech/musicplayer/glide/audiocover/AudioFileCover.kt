@@ -17,4 +17,14 @@
 
 package com.uniqtech.musicplayer.glide.audiocover
 
-class AudioFileCover(internal val filePath: String, internal val useFolderArt: Boolean)
\ No newline at end of file
+/**
+ * @param albumId The album of the file, if it's a song whose cover can be kept by
+ * [AlbumCoverStore], or -1 otherwise
+ * @param dateModified The modification date of the file
+ */
+class AudioFileCover(
+    internal val filePath: String,
+    internal val useFolderArt: Boolean,
+    internal val albumId: Long = -1,
+    internal val dateModified: Long = -1
+)
\ No newline at end of file
@@ -17,34 +17,30 @@
 
 package com.uniqtech.musicplayer.glide.audiocover
 
-import android.media.MediaMetadataRetriever
 import com.bumptech.glide.Priority
 import com.bumptech.glide.load.DataSource
 import com.bumptech.glide.load.data.DataFetcher
 import okhttp3.internal.closeQuietly
-import java.io.ByteArrayInputStream
 import java.io.InputStream
 
-class AudioFileCoverFetcher internal constructor(private val model: AudioFileCover) :
-    DataFetcher<InputStream> {
+class AudioFileCoverFetcher internal constructor(
+    private val model: AudioFileCover,
+    private val thumbnail: Boolean
+) : DataFetcher<InputStream> {
 
     private var stream: InputStream? = null
 
     override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in InputStream?>) {
-        val retriever = MediaMetadataRetriever()
         try {
-            retriever.setDataSource(model.filePath)
-            val picture = retriever.embeddedPicture
-            stream = if (picture != null) {
-                ByteArrayInputStream(picture)
+            stream = if (model.albumId != -1L) {
+                AlbumCoverStore.openCover(model, thumbnail)
+                    ?: if (model.useFolderArt) AudioFileCoverUtils.folderImage(model.filePath) else null
             } else {
-                AudioFileCoverUtils.fallback(model.filePath, model.useFolderArt)
+                AudioFileCoverUtils.openCover(model.filePath, model.useFolderArt)
             }
             callback.onDataReady(stream)
         } catch (e: Exception) {
             callback.onLoadFailed(e)
-        } finally {
-            retriever.release()
         }
     }
 
@@ -33,7 +33,18 @@ class AudioFileCoverLoader private constructor() :
         height: Int,
         options: Options
     ): LoadData<InputStream> {
-        return LoadData(ObjectKey(model.filePath), AudioFileCoverFetcher(model))
+        if (model.albumId == -1L) {
+            return LoadData(ObjectKey(model.filePath), AudioFileCoverFetcher(model, false))
+        }
+        // Songs with the same picture share the cover stored by AlbumCoverStore, once it's known
+        val thumbnail = width in 1..AlbumCoverStore.THUMBNAIL_SIZE && height in 1..AlbumCoverStore.THUMBNAIL_SIZE
+        val coverKey = AlbumCoverStore.coverKey(model)
+        val key = if (coverKey != null) {
+            "cover:$coverKey:$thumbnail"
+        } else {
+            "song:${model.filePath}:${model.dateModified}:${model.useFolderArt}:$thumbnail"
+        }
+        return LoadData(ObjectKey(key), AudioFileCoverFetcher(model, thumbnail))
     }
 
     override fun handles(audioFileCover: AudioFileCover): Boolean {
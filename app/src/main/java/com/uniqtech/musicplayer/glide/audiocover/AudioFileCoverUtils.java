@@ -17,8 +17,11 @@
 
 package com.uniqtech.musicplayer.glide.audiocover;
 
+import android.media.MediaMetadataRetriever;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import org.jaudiotagger.audio.exceptions.CannotReadException;
 import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
@@ -37,32 +40,69 @@ public class AudioFileCoverUtils {
 
     private static final String[] FALLBACKS = {"cover.jpg", "album.jpg", "folder.jpg", "cover.png", "album.png", "folder.png"};
 
+    /**
+     * Returns the picture embedded in the given audio file, if any.
+     */
     @Nullable
-    public static InputStream fallback(@NonNull String path, boolean useFolderImage) throws IOException {
-        // Method 1: use embedded high resolution album art if there is any
+    @WorkerThread
+    public static byte[] embeddedPicture(@NonNull String path) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
         try {
-            MP3File mp3File = new MP3File(path);
-            if (mp3File.hasID3v2Tag()) {
-                Artwork art = mp3File.getTag().getFirstArtwork();
-                if (art != null) {
-                    byte[] imageData = art.getBinaryData();
-                    return new ByteArrayInputStream(imageData);
-                }
+            retriever.setDataSource(path);
+            byte[] picture = retriever.getEmbeddedPicture();
+            if (picture != null) {
+                return picture;
+            }
+        } catch (Exception ignored) {
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException ignored) {
             }
-            // If there are any exceptions, we ignore them and continue to the other fallback method
-        } catch (ReadOnlyFileException | InvalidAudioFrameException | TagException | IOException | CannotReadException ignored) {
         }
 
-        if (useFolderImage) {
-            // Method 2: look for album art in external files
-            final File parent = new File(path).getParentFile();
-            for (String fallback : FALLBACKS) {
-                File cover = new File(parent, fallback);
-                if (cover.exists()) {
-                    return Files.newInputStream(cover.toPath());
+        // Use embedded high resolution album art if there is any. Only MP3 files
+        // can be read this way, don't waste time parsing any other format.
+        if (path.toLowerCase().endsWith(".mp3")) {
+            try {
+                MP3File mp3File = new MP3File(path);
+                if (mp3File.hasID3v2Tag()) {
+                    Artwork art = mp3File.getTag().getFirstArtwork();
+                    if (art != null) {
+                        return art.getBinaryData();
+                    }
                 }
+                // If there are any exceptions, we ignore them and continue to the other fallback method
+            } catch (ReadOnlyFileException | InvalidAudioFrameException | TagException | IOException | CannotReadException ignored) {
             }
         }
         return null;
     }
+
+    /**
+     * Looks for album art in the folder of the given audio file.
+     */
+    @Nullable
+    public static InputStream folderImage(@NonNull String path) throws IOException {
+        final File parent = new File(path).getParentFile();
+        for (String fallback : FALLBACKS) {
+            File cover = new File(parent, fallback);
+            if (cover.exists()) {
+                return Files.newInputStream(cover.toPath());
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    public static InputStream openCover(@NonNull String path, boolean useFolderImage) throws IOException {
+        byte[] picture = embeddedPicture(path);
+        if (picture != null) {
+            return new ByteArrayInputStream(picture);
+        }
+        if (useFolderImage) {
+            return folderImage(path);
+        }
+        return null;
+    }
 }
@@ -20,29 +20,80 @@ package com.uniqtech.musicplayer.glide.playlistPreview
 import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
+import android.util.AtomicFile
+import android.util.Log
 import com.bumptech.glide.Glide
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners
 import com.uniqtech.musicplayer.R
 import com.uniqtech.musicplayer.extensions.media.albumCoverUri
 import com.uniqtech.musicplayer.model.Song
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
 
+/**
+ * Builds the mosaic shown for playlists without a custom image. Album covers are loaded
+ * concurrently (with a limit shared by every mosaic being built), and the finished mosaic
+ * is stored on disk, keyed by the albums of the playlist and the date their songs were
+ * last modified, so it's only built again when those change.
+ */
 object AutoGeneratedPlaylistBitmap {
-    fun getBitmap(
-        context: Context, songPlaylist: List<Song>?
+
+    private const val TAG = "PlaylistMosaic"
+    private const val MAX_COVERS = 9
+    private const val MAX_PARALLEL_LOADS = 4
+
+    private val coverDispatcher = Dispatchers.IO.limitedParallelism(MAX_PARALLEL_LOADS)
+
+    suspend fun getBitmap(
+        context: Context, playlistId: Long, songPlaylist: List<Song>?
     ): Bitmap? {
         if (songPlaylist.isNullOrEmpty()) return getDefaultBitmap(context)
-        if (songPlaylist.size == 1) return getBitmapWithAlbumId(context, songPlaylist[0].albumId)
-        val albumID: MutableList<Long> = ArrayList()
+        if (songPlaylist.size == 1) {
+            return withContext(coverDispatcher) { getBitmapWithAlbumId(context, songPlaylist[0].albumId) }
+        }
+        // Album ID -> the last time a song of the album was modified, which is when
+        // its cover may have changed
+        val albumStamps = LinkedHashMap<Long, Long>()
         for (song in songPlaylist) {
-            if (!albumID.contains(song.albumId)) albumID.add(song.albumId)
+            albumStamps[song.albumId] = maxOf(albumStamps[song.albumId] ?: 0, song.dateModified)
         }
-        val art: MutableList<Bitmap> = ArrayList()
-        for (id in albumID) {
-            val bitmap = getBitmapWithAlbumId(context, id)
-            if (bitmap != null) art.add(bitmap)
-            if (art.size == 9) break
+        val albumIds = albumStamps.keys
+
+        val cacheFile = getCacheFile(context, playlistId, albumStamps)
+        if (cacheFile.exists()) {
+            BitmapFactory.decodeFile(cacheFile.path)?.let { return it }
+        }
+
+        val art = loadCovers(context, albumIds.toList())
+        if (art.isEmpty()) return getDefaultBitmap(context)
+        val mosaic = MergedImageUtils.joinImages(art)
+        storeMosaic(context, playlistId, cacheFile, mosaic)
+        return mosaic
+    }
+
+    /**
+     * Loads the covers of the given albums in order, until [MAX_COVERS] have been found.
+     * Each round loads as many covers as are still missing, all at the same time.
+     */
+    private suspend fun loadCovers(context: Context, albumIds: List<Long>): List<Bitmap> = coroutineScope {
+        val art = ArrayList<Bitmap>(MAX_COVERS)
+        var next = 0
+        while (art.size < MAX_COVERS && next < albumIds.size) {
+            ensureActive()
+            val round = albumIds.subList(next, minOf(albumIds.size, next + MAX_COVERS - art.size))
+            next += round.size
+            round.map { id ->
+                async(coverDispatcher) { getBitmapWithAlbumId(context, id) }
+            }.awaitAll().filterNotNullTo(art)
         }
-        return MergedImageUtils.joinImages(art)
+        art
     }
 
     private fun getBitmapWithAlbumId(context: Context, id: Long): Bitmap? {
@@ -61,4 +112,38 @@ object AutoGeneratedPlaylistBitmap {
     private fun getDefaultBitmap(context: Context): Bitmap {
         return BitmapFactory.decodeResource(context.resources, R.drawable.default_audio_art)
     }
-}
\ No newline at end of file
+
+    private fun getCacheDir(context: Context) = File(context.cacheDir, "playlist_mosaics")
+
+    private fun getCacheFile(context: Context, playlistId: Long, albumStamps: Map<Long, Long>): File {
+        val digest = MessageDigest.getInstance("SHA-1")
+        for ((id, stamp) in albumStamps) {
+            digest.update("$id:$stamp".toByteArray())
+            digest.update(','.code.toByte())
+        }
+        val hash = digest.digest().joinToString("") { "%02x".format(it) }
+        return File(getCacheDir(context), "${playlistId}_$hash.png")
+    }
+
+    private fun storeMosaic(context: Context, playlistId: Long, file: File, mosaic: Bitmap) {
+        val directory = getCacheDir(context)
+        if (!directory.exists() && !directory.mkdirs()) return
+        // Previous mosaics of this playlist are outdated now
+        directory.listFiles { _, name -> name.startsWith("${playlistId}_") }?.forEach { it.delete() }
+        val atomicFile = AtomicFile(file)
+        var stream: FileOutputStream? = null
+        try {
+            stream = atomicFile.startWrite()
+            // The mosaic has transparent gaps, so it can't be stored as a JPEG
+            mosaic.compress(Bitmap.CompressFormat.PNG, 100, stream)
+            atomicFile.finishWrite(stream)
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't store the mosaic of playlist $playlistId", e)
+            if (stream != null) atomicFile.failWrite(stream)
+        }
+    }
+
+    fun clearCache(context: Context) {
+        getCacheDir(context).deleteRecursively()
+    }
+}
@@ -33,7 +33,9 @@ class PlaylistPreviewFetcher(val context: Context, private val playlistPreview:
     override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in Bitmap>) {
         launch {
             try {
-                callback.onDataReady(AutoGeneratedPlaylistBitmap.getBitmap(context, playlistPreview.songs))
+                callback.onDataReady(AutoGeneratedPlaylistBitmap.getBitmap(
+                    context, playlistPreview.playlistEntity.playListId, playlistPreview.songs
+                ))
             } catch (e: Exception) {
                 callback.onLoadFailed(e)
             }
@@ -17,15 +17,9 @@
 
 package com.uniqtech.musicplayer.glide.transformation;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RSRuntimeException;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 
 import androidx.annotation.FloatRange;
 import androidx.annotation.NonNull;
@@ -33,36 +27,34 @@ import androidx.annotation.Nullable;
 
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
-import com.uniqtech.musicplayer.BuildConfig;
+import com.bumptech.glide.util.Util;
 import com.uniqtech.musicplayer.extensions.resources.DrawableExtKt;
 import com.uniqtech.musicplayer.helper.StackBlur;
 
 import java.security.MessageDigest;
 
+/**
+ * Scales the image down and blurs it with {@link StackBlur}, straight into a bitmap taken
+ * from Glide's {@link BitmapPool}. Two transformations are only equal (and share cache
+ * entries) when both their radius and sampling are the same.
+ */
 public class BlurTransformation extends BitmapTransformation {
     private static final String ID = "Booming.Glide.BlurTransformation";
 
     private static final float DEFAULT_BLUR_RADIUS = 15f;
 
-    private final Context context;
     private final float blurRadius;
     private final int sampling;
 
     private BlurTransformation(Builder builder) {
-        this.context = builder.context;
         this.blurRadius = builder.blurRadius;
         this.sampling = builder.sampling;
     }
 
     public static class Builder {
-        private final Context context;
         private float blurRadius = DEFAULT_BLUR_RADIUS;
         private int sampling;
 
-        public Builder(@NonNull Context context) {
-            this.context = context;
-        }
-
         /**
          * @param blurRadius The radius to use. Must be between 0 and 25. Default is 5.
          * @return the same Builder
@@ -101,8 +93,8 @@ public class BlurTransformation extends BitmapTransformation {
 
         int width = toTransform.getWidth();
         int height = toTransform.getHeight();
-        int scaledWidth = width / sampling;
-        int scaledHeight = height / sampling;
+        int scaledWidth = Math.max(1, width / sampling);
+        int scaledHeight = Math.max(1, height / sampling);
 
         Bitmap out = pool.get(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
 
@@ -112,42 +104,31 @@ public class BlurTransformation extends BitmapTransformation {
         paint.setFlags(Paint.FILTER_BITMAP_FLAG);
         canvas.drawBitmap(toTransform, 0, 0, paint);
 
-        try {
-            final RenderScript rs = RenderScript.create(context.getApplicationContext());
-            final Allocation input = Allocation.createFromBitmap(rs, out, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-            final Allocation output = Allocation.createTyped(rs, input.getType());
-            final ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-
-            script.setRadius(blurRadius);
-            script.setInput(input);
-            script.forEach(output);
-
-            output.copyTo(out);
-
-            rs.destroy();
-
-            return out;
-
-        } catch (RSRuntimeException e) {
-            // on some devices RenderScript.create() throws: android.support.v8.renderscript.RSRuntimeException: Error loading libRSSupport library
-            if (BuildConfig.DEBUG) e.printStackTrace();
+        if (!StackBlur.blur(out, blurRadius)) {
+            // Interrupted, which only happens when the load is cancelled. The source is
+            // returned rather than a bitmap that was only scaled down.
+            pool.put(out);
+            return toTransform;
         }
-
-        return StackBlur.blur(out, blurRadius);
+        return out;
     }
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof BlurTransformation;
+        if (o instanceof BlurTransformation) {
+            BlurTransformation other = (BlurTransformation) o;
+            return blurRadius == other.blurRadius && sampling == other.sampling;
+        }
+        return false;
     }
 
     @Override
     public int hashCode() {
-        return ID.hashCode();
+        return Util.hashCode(ID.hashCode(), Util.hashCode(blurRadius, Util.hashCode(sampling)));
     }
 
     @Override
     public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
-        messageDigest.update(("BlurTransformation(radius=" + blurRadius + ", sampling=" + sampling + ")").getBytes(CHARSET));
+        messageDigest.update((ID + "(radius=" + blurRadius + ", sampling=" + sampling + ")").getBytes(CHARSET));
     }
 }
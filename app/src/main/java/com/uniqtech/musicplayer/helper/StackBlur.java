@@ -19,10 +19,15 @@ package com.uniqtech.musicplayer.helper;
 
 import android.graphics.Bitmap;
 
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Blur using Java code.
@@ -53,7 +58,25 @@ import java.util.concurrent.Executors;
 public class StackBlur {
 
     private static final int EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors();
-    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(EXECUTOR_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "StackBlur");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Rows (or columns) below this count are not worth handing to another thread.
+     */
+    private static final int MIN_LINES_PER_TASK = 32;
+
+    /**
+     * Pixel buffers up to this size are kept by each thread between calls.
+     */
+    private static final int MAX_CACHED_BUFFER_SIZE = 512 * 512;
+
+    private static final int MAX_RADIUS = 254;
+
+    private static final ThreadLocal<int[]> PIXEL_BUFFER = new ThreadLocal<>();
 
     private static final short[] stackblur_mul = {
 		512, 512, 456, 512, 328, 456, 335, 512, 405, 328, 271, 456, 388, 335, 292, 512,
@@ -93,33 +116,72 @@ public class StackBlur {
 		24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24
     };
 
-    public static Bitmap blur(Bitmap original, float radius) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        int[] currentPixels = new int[w * h];
-        original.getPixels(currentPixels, 0, w, 0, 0, w, h);
-        int cores = EXECUTOR_THREADS;
-
-        ArrayList<BlurTask> horizontal = new ArrayList<>(cores);
-        ArrayList<BlurTask> vertical = new ArrayList<>(cores);
-        for (int i = 0; i < cores; i++) {
-            horizontal.add(new BlurTask(currentPixels, w, h, (int) radius, cores, i, 1));
-            vertical.add(new BlurTask(currentPixels, w, h, (int) radius, cores, i, 2));
+    /**
+     * Blurs the given mutable bitmap in place. The horizontal and vertical passes are
+     * split between the calling thread and a shared pool, and the pixel buffer is reused
+     * by the calling thread, so blurring doesn't allocate a new bitmap or buffer each time.
+     *
+     * @return false if the blur was interrupted, in which case the bitmap is left untouched
+     */
+    public static boolean blur(@NonNull Bitmap bitmap, float radius) {
+        int r = Math.min((int) radius, MAX_RADIUS);
+        if (r < 1) {
+            return true;
         }
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] pixels = obtainBuffer(w * h);
+        bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
 
-        try {
-            EXECUTOR.invokeAll(horizontal);
-        } catch (InterruptedException e) {
-            return null;
+        if (!runPass(pixels, w, h, r, 1, h) || !runPass(pixels, w, h, r, 2, w)) {
+            return false;
         }
 
+        bitmap.setPixels(pixels, 0, w, 0, 0, w, h);
+        return true;
+    }
+
+    private static int[] obtainBuffer(int size) {
+        int[] buffer = PIXEL_BUFFER.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new int[size];
+            if (size <= MAX_CACHED_BUFFER_SIZE) {
+                PIXEL_BUFFER.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    private static boolean runPass(int[] pixels, int w, int h, int radius, int step, int lines) {
+        int tasks = Math.max(1, Math.min(EXECUTOR_THREADS, lines / MIN_LINES_PER_TASK));
+        if (tasks == 1) {
+            blurIteration(pixels, w, h, radius, 1, 0, step);
+            return true;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>(tasks - 1);
+        for (int i = 1; i < tasks; i++) {
+            futures.add(EXECUTOR.submit(new BlurTask(pixels, w, h, radius, tasks, i, step)));
+        }
+        // The calling thread takes its own share instead of just waiting.
+        blurIteration(pixels, w, h, radius, tasks, 0, step);
         try {
-            EXECUTOR.invokeAll(vertical);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
         } catch (InterruptedException e) {
-            return null;
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            // Tasks that already started keep writing into the buffer, so this
+            // thread must not hand it to its next blur.
+            PIXEL_BUFFER.remove();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
-
-        return Bitmap.createBitmap(currentPixels, w, h, Bitmap.Config.ARGB_8888);
+        return true;
     }
 
     private static void blurIteration(int[] src, int w, int h, int radius, int cores, int core, int step) {
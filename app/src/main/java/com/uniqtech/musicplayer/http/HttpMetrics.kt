@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.http
+
+import androidx.annotation.VisibleForTesting
+import okhttp3.Interceptor
+import okhttp3.Response
+import java.io.PrintWriter
+import java.net.HttpURLConnection
+
+/**
+ * Keeps track of the requests made through the shared HTTP client, grouped by endpoint
+ * (host and first path segment): how many there were, how long they took and how many
+ * of them were answered by the disk cache. The collected values can be printed with
+ * `adb shell dumpsys activity service MusicService`.
+ */
+object HttpMetrics {
+
+    private val stats = LinkedHashMap<String, Stats>()
+
+    val interceptor = Interceptor { chain ->
+        val request = chain.request()
+        val endpoint = request.url.let { url ->
+            url.pathSegments.firstOrNull()?.takeIf { it.isNotEmpty() }?.let { "${url.host}/$it" } ?: url.host
+        }
+        val start = System.nanoTime()
+        val response = try {
+            chain.proceed(request)
+        } catch (e: Exception) {
+            record(endpoint, elapsedMillis(start), CacheResult.Failed)
+            throw e
+        }
+        record(endpoint, elapsedMillis(start), response.cacheResult())
+        response
+    }
+
+    private fun Response.cacheResult(): CacheResult {
+        val networkResponse = networkResponse
+        return when {
+            networkResponse == null -> CacheResult.Hit
+            cacheResponse != null && networkResponse.code == HttpURLConnection.HTTP_NOT_MODIFIED -> CacheResult.ConditionalHit
+            else -> CacheResult.Miss
+        }
+    }
+
+    private fun elapsedMillis(start: Long) = (System.nanoTime() - start) / 1_000_000
+
+    private fun record(endpoint: String, latencyMillis: Long, result: CacheResult) {
+        synchronized(stats) {
+            stats.getOrPut(endpoint) { Stats() }.add(latencyMillis, result)
+        }
+    }
+
+    @VisibleForTesting
+    internal fun stats(endpoint: String): Stats? = synchronized(stats) {
+        stats[endpoint]?.let { Stats().apply { add(it) } }
+    }
+
+    fun dump(writer: PrintWriter) {
+        writer.println("HTTP requests (count, cache hits, conditional hits, failures, average, max):")
+        synchronized(stats) {
+            for ((endpoint, endpointStats) in stats) {
+                with(endpointStats) {
+                    writer.println("  $endpoint: $count, $hits, $conditionalHits, $failures, $average ms, $max ms")
+                }
+            }
+        }
+    }
+
+    internal enum class CacheResult {
+        Hit, ConditionalHit, Miss, Failed
+    }
+
+    internal class Stats {
+        var count = 0
+            private set
+        var hits = 0
+            private set
+        var conditionalHits = 0
+            private set
+        var failures = 0
+            private set
+        var max = 0L
+            private set
+        private var total = 0L
+
+        val average: Long
+            get() = if (count > 0) total / count else 0
+
+        fun add(latencyMillis: Long, result: CacheResult) {
+            count++
+            total += latencyMillis
+            max = maxOf(max, latencyMillis)
+            when (result) {
+                CacheResult.Hit -> hits++
+                CacheResult.ConditionalHit -> conditionalHits++
+                CacheResult.Failed -> failures++
+                CacheResult.Miss -> {}
+            }
+        }
+
+        fun add(other: Stats) {
+            count += other.count
+            hits += other.hits
+            conditionalHits += other.conditionalHits
+            failures += other.failures
+            total += other.total
+            max = maxOf(max, other.max)
+        }
+    }
+}
@@ -27,15 +27,26 @@ import io.ktor.http.ContentType
 import io.ktor.serialization.kotlinx.json.json
 import kotlinx.serialization.json.Json
 import okhttp3.Cache
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import java.io.File
 import java.util.concurrent.TimeUnit
 
+// Most responses are small JSON documents (lyrics, artist info and search results),
+// the images themselves are cached by Glide.
+private const val HTTP_CACHE_SIZE = 1024 * 1024 * 20L
+
+private const val MAX_REQUESTS = 16
+private const val MAX_REQUESTS_PER_HOST = 4
+private const val MAX_IDLE_CONNECTIONS = 5
+private const val KEEP_ALIVE_MINUTES = 5L
+
 fun provideDefaultCache(): Cache? {
     val cacheDir = File(appContext().cacheDir.absolutePath, "/okhttp-cache/")
     if (cacheDir.mkdirs() || cacheDir.isDirectory) {
-        return Cache(cacheDir, 1024 * 1024 * 10)
+        return Cache(cacheDir, HTTP_CACHE_SIZE)
     }
     return null
 }
@@ -52,8 +63,20 @@ fun headerInterceptor(context: Context): Interceptor {
     }
 }
 
-fun provideOkHttp(context: Context, cache: Cache): OkHttpClient {
+/**
+ * Creates the OkHttp client shared by the whole app. It must be created only once
+ * (see `networkModule`), so every service reuses the same connections, TLS sessions
+ * and disk cache; a cache directory must never be used by two [Cache] instances.
+ */
+fun provideOkHttp(context: Context, cache: Cache?): OkHttpClient {
+    val dispatcher = Dispatcher().apply {
+        maxRequests = MAX_REQUESTS
+        maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+    }
     return OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .addInterceptor(HttpMetrics.interceptor)
         .addInterceptor(headerInterceptor(context))
         .connectTimeout(1, TimeUnit.SECONDS)
         .readTimeout(1, TimeUnit.SECONDS)
@@ -18,21 +18,45 @@
 package com.uniqtech.musicplayer.http.lyrics
 
 import android.content.Context
+import android.util.Log
 import com.uniqtech.musicplayer.extensions.media.albumArtistName
 import com.uniqtech.musicplayer.http.lyrics.applemusic.AppleMusicLyricsApi
+import com.uniqtech.musicplayer.http.lyrics.lrclib.LrcLibLyricsApi
 import com.uniqtech.musicplayer.http.lyrics.spotify.SpotifyLyricsApi
 import com.uniqtech.musicplayer.model.DownloadedLyrics
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.model.toDownloadedLyrics
 import io.ktor.client.HttpClient
-import io.ktor.client.call.body
-import io.ktor.client.request.get
-import io.ktor.http.encodeURLParameter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 
-class LyricsService(context: Context, private val client: HttpClient) {
+/**
+ * Looks for the lyrics of a song in all the available providers.
+ *
+ * Providers are not queried strictly one after the other: the next one is started as soon
+ * as the previous ones have finished without a complete result, or once [hedgeDelayMillis]
+ * have passed without an answer, so a slow provider never stalls the others. The results
+ * are merged by the providers rank (synced lyrics are always preferred over plain ones),
+ * and the providers that are still running when the lyrics are complete are cancelled.
+ * The rank is initially LRCLIB, Spotify and Apple Music, and then adapts to how often
+ * each provider actually returns something.
+ */
+class LyricsService internal constructor(
+    private val providers: List<Provider>,
+    private val hedgeDelayMillis: Long = DEFAULT_HEDGE_DELAY
+) {
 
-    private val appleMusicLyricsApi = AppleMusicLyricsApi(client)
-    private val spotifyLyricsApi = SpotifyLyricsApi(context, client)
+    constructor(context: Context, client: HttpClient) : this(
+        listOf(
+            Provider("LRCLIB", LrcLibLyricsApi(client)),
+            Provider("Spotify", SpotifyLyricsApi(context, client)),
+            Provider("Apple Music", AppleMusicLyricsApi(client))
+        )
+    )
 
     suspend fun getLyrics(
         song: Song,
@@ -42,40 +66,110 @@ class LyricsService(context: Context, private val client: HttpClient) {
         if (song == Song.emptySong) {
             return song.toDownloadedLyrics()
         }
-        var downloadedLyrics = lrcLibLyrics(song, title, artist) ?: song.toDownloadedLyrics()
-        if (!downloadedLyrics.hasMultiOptions) {
-            val spotifyLyrics = runCatching { spotifyLyricsApi.songLyrics(song, title, artist) }.getOrNull()
-            if (downloadedLyrics.plainLyrics.isNullOrEmpty()) {
-                downloadedLyrics = downloadedLyrics.copy(plainLyrics = spotifyLyrics?.plainLyrics)
+        val providers = rankedProviders()
+        val results = arrayOfNulls<ProviderResult>(providers.size)
+        coroutineScope {
+            // Every event is either the result of a provider or, if the result is null,
+            // a hedge timeout that was scheduled when the given number of providers
+            // had been started.
+            val events = Channel<Pair<Int, ProviderResult?>>(Channel.UNLIMITED)
+            var started = 0
+            var pending = 0
+            fun startNext() {
+                val index = started++
+                pending++
+                launch {
+                    events.send(index to providers[index].fetch(song, title, artist))
+                }
+                if (started < providers.size) {
+                    val startedProviders = started
+                    launch {
+                        delay(hedgeDelayMillis)
+                        events.send(startedProviders to null)
+                    }
+                }
             }
-            if (downloadedLyrics.syncedLyrics.isNullOrEmpty()) {
-                downloadedLyrics = downloadedLyrics.copy(syncedLyrics = spotifyLyrics?.syncedLyrics)
-            }
-            if (downloadedLyrics.syncedLyrics.isNullOrEmpty()) {
-                val applyMusicLyrics = runCatching { appleMusicLyricsApi.songLyrics(song, title, artist) }.getOrNull()
-                downloadedLyrics = downloadedLyrics.copy(syncedLyrics = applyMusicLyrics?.syncedLyrics)
+
+            startNext()
+            while (pending > 0) {
+                val (index, result) = events.receive()
+                if (result == null) {
+                    // The running providers are taking too long, give the next one a chance
+                    if (index == started && started < providers.size) {
+                        startNext()
+                    }
+                    continue
+                }
+                pending--
+                results[index] = result
+                if (mergeResults(song, results).hasMultiOptions) {
+                    break
+                }
+                if (pending == 0 && started < providers.size) {
+                    startNext()
+                }
             }
+            coroutineContext.cancelChildren()
         }
-        return downloadedLyrics
+        if (results.all { it?.error != null }) {
+            // Every provider has failed, let the caller know why
+            throw results.first()!!.error!!
+        }
+        return mergeResults(song, results)
+    }
+
+    /**
+     * Takes the synced and plain lyrics from the best ranked providers that returned
+     * them. The metadata is taken from the result that provided the synced lyrics (if
+     * any), since it's the one that matched the song best.
+     */
+    private fun mergeResults(song: Song, results: Array<ProviderResult?>): DownloadedLyrics {
+        val lyrics = results.mapNotNull { it?.lyrics }
+        val syncedLyrics = lyrics.firstOrNull { it.isSynced }
+        val plainLyrics = lyrics.firstOrNull { !it.plainLyrics.isNullOrEmpty() }?.plainLyrics
+        val base = syncedLyrics ?: lyrics.firstOrNull() ?: song.toDownloadedLyrics()
+        return base.copy(plainLyrics = plainLyrics, syncedLyrics = syncedLyrics?.syncedLyrics)
     }
 
-    private suspend fun lrcLibLyrics(song: Song, title: String, artist: String): DownloadedLyrics? {
-        val lyrics = client.get("https://lrclib.net/api/search") {
-            url.encodedParameters.append("q", "$artist $title".encodeURLParameter())
-        }.body<List<DownloadedLyrics>>()
-        if (lyrics.isEmpty()) {
-            return null
-        } else {
-            val songDurationInSeconds = (song.duration / 1000).toDouble()
-            var matchingLyrics = lyrics.firstOrNull {
-                val maxValue = maxOf(songDurationInSeconds, it.duration)
-                val minValue = minOf(songDurationInSeconds, it.duration)
-                ((maxValue - minValue) < 2)
+    private fun rankedProviders(): List<Provider> =
+        providers.sortedByDescending { it.successRate }
+
+    internal class ProviderResult(val lyrics: DownloadedLyrics?, val error: Exception?)
+
+    internal class Provider(val name: String, private val api: LyricsApi) {
+
+        private var requests = 0
+        private var successes = 0
+
+        /**
+         * The rate of requests that returned lyrics. Every provider starts with a single
+         * virtual success, so the initial order is kept until there's enough data.
+         */
+        val successRate: Double
+            @Synchronized get() = (successes + 1).toDouble() / (requests + 1)
+
+        suspend fun fetch(song: Song, title: String, artist: String): ProviderResult {
+            val result = try {
+                ProviderResult(api.songLyrics(song, title, artist), null)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.d(TAG, "$name failed to get the lyrics of ${song.title}", e)
+                ProviderResult(null, e)
             }
-            if (matchingLyrics == null) {
-                matchingLyrics = lyrics.first { !it.isSynced }
+            val lyrics = result.lyrics
+            synchronized(this) {
+                requests++
+                if (lyrics != null && (lyrics.isSynced || !lyrics.plainLyrics.isNullOrEmpty())) {
+                    successes++
+                }
             }
-            return matchingLyrics
+            return result
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val TAG = "LyricsService"
+        private const val DEFAULT_HEDGE_DELAY = 750L
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.http.lyrics.lrclib
+
+import com.uniqtech.musicplayer.http.lyrics.LyricsApi
+import com.uniqtech.musicplayer.model.DownloadedLyrics
+import com.uniqtech.musicplayer.model.Song
+import io.ktor.client.HttpClient
+import io.ktor.client.call.body
+import io.ktor.client.request.get
+import io.ktor.http.encodeURLParameter
+
+class LrcLibLyricsApi(private val client: HttpClient) : LyricsApi {
+
+    override suspend fun songLyrics(
+        song: Song,
+        title: String,
+        artist: String
+    ): DownloadedLyrics? {
+        val lyrics = client.get("https://lrclib.net/api/search") {
+            url.encodedParameters.append("q", "$artist $title".encodeURLParameter())
+        }.body<List<DownloadedLyrics>>()
+        if (lyrics.isEmpty()) {
+            return null
+        } else {
+            val songDurationInSeconds = (song.duration / 1000).toDouble()
+            var matchingLyrics = lyrics.firstOrNull {
+                val maxValue = maxOf(songDurationInSeconds, it.duration)
+                val minValue = minOf(songDurationInSeconds, it.duration)
+                ((maxValue - minValue) < 2)
+            }
+            if (matchingLyrics == null) {
+                matchingLyrics = lyrics.firstOrNull { !it.isSynced }
+            }
+            return matchingLyrics
+        }
+    }
+}
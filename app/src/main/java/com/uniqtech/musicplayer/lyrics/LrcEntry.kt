@@ -30,11 +30,6 @@ class LrcEntry(
     var staticLayout: StaticLayout? = null
         private set
 
-    /**
-     * 歌词距离视图顶部的距离
-     */
-    @JvmField
-    var offset: Float = Float.MIN_VALUE
     val height: Int
         get() {
             if (staticLayout == null) {
@@ -57,8 +52,6 @@ class LrcEntry(
             .setLineSpacing(0f, 1.25f)
             .setIncludePad(false)
             .build()
-
-        offset = Float.MIN_VALUE
     }
 
     fun getFormattedText(): String =
@@ -18,6 +18,9 @@
 package com.uniqtech.musicplayer.lyrics
 
 /**
+ * Parsed synced lyrics. The [offset] declared by the LRC content is informative only,
+ * it's already applied to the time of the [lines].
+ *
  * @author Christians M. A. (mardous)
  */
 data class LrcLyrics @JvmOverloads constructor(
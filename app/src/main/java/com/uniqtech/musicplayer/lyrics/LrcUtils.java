@@ -33,18 +33,13 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class LrcUtils {
 
-    private static final Pattern LRC_LINE_PATTERN = Pattern.compile("((?:\\[.*?])+)(.*)");
-    private static final Pattern LRC_TIME_PATTERN = Pattern.compile("\\[(\\d+):(\\d{2}(?:\\.\\d+)?)]");
-    private static final Pattern LRC_ATTRIBUTE_PATTERN = Pattern.compile("\\[(\\D+):(.+)]");
-
-    private static final float LRC_SECONDS_TO_MS_MULTIPLIER = 1000f;
+    private static final int LRC_SECONDS_TO_MS_MULTIPLIER = 1000;
     private static final int LRC_MINUTES_TO_MS_MULTIPLIER = 60 * 1000;
 
     @NonNull
@@ -72,56 +67,158 @@ public class LrcUtils {
         return new LrcLyrics();
     }
 
-    @SuppressWarnings("ConstantConditions")
+    /**
+     * Parses the given LRC content in a single pass over each line, without regular
+     * expressions. Lines can carry several timestamps ({@code [00:12.00][01:30.50]text}),
+     * the {@code [offset:ms]} attribute is applied to every timestamp, and the word
+     * timestamps of the enhanced format ({@code <00:12.50>}) are removed from the text.
+     * The returned lines are sorted by time.
+     */
     @NonNull
     private static LrcLyrics parseReader(@NonNull final Reader reader) {
         long offset = 0;
         final List<LrcEntry> lines = new ArrayList<>();
+        boolean sorted = true;
+        long lastTime = Long.MIN_VALUE;
         try (BufferedReader br = new BufferedReader(reader)) {
+            final List<Long> times = new ArrayList<>(4);
             String line;
             while ((line = br.readLine()) != null) {
-                if (line == null || line.trim().isEmpty()) continue;
-
-                final Matcher attrMatcher = LRC_ATTRIBUTE_PATTERN.matcher(line);
-                if (attrMatcher.find()) {
-                    try {
-                        final String attr = attrMatcher.group(1).toLowerCase().trim();
-                        final String value = attrMatcher.group(2).toLowerCase().trim();
-                        if ("offset".equals(attr)) {
-                            offset = Integer.parseInt(value);
+                times.clear();
+                final int length = line.length();
+                int index = skipWhitespace(line, 0);
+                boolean isAttribute = false;
+                while (index < length && line.charAt(index) == '[') {
+                    final int end = line.indexOf(']', index + 1);
+                    if (end == -1) break;
+
+                    final long time = parseTime(line, index + 1, end);
+                    if (time >= 0) {
+                        times.add(time);
+                    } else if (times.isEmpty()) {
+                        final int separator = line.indexOf(':', index + 1);
+                        if (separator != -1 && separator < end) {
+                            isAttribute = true;
+                            final String attr = line.substring(index + 1, separator).trim();
+                            if ("offset".equalsIgnoreCase(attr)) {
+                                try {
+                                    offset = Long.parseLong(line.substring(separator + 1, end).trim());
+                                } catch (NumberFormatException ex) {
+                                    ex.printStackTrace();
+                                }
+                            }
                         }
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
+                        break;
+                    } else {
+                        break;
                     }
-                } else {
-                    final Matcher matcher = LRC_LINE_PATTERN.matcher(line);
-                    if (matcher.find()) {
-                        String time = matcher.group(1).trim();
-                        String text = matcher.group(2).trim();
-
-                        final Matcher timeMatcher = LRC_TIME_PATTERN.matcher(time);
-                        while (timeMatcher.find()) {
-                            int m = 0;
-                            float s = 0f;
-                            try {
-                                m = Integer.parseInt(timeMatcher.group(1));
-                                s = Float.parseFloat(timeMatcher.group(2));
-                            } catch (NumberFormatException ex) {
-                                ex.printStackTrace();
-                            }
-                            long ms = (long) (s * LRC_SECONDS_TO_MS_MULTIPLIER) + (long) m * LRC_MINUTES_TO_MS_MULTIPLIER;
+                    index = end + 1;
+                }
+                if (isAttribute || times.isEmpty()) continue;
 
-                            lines.add(new LrcEntry(ms, text));
-                        }
+                final String text = stripWordTimestamps(line, index).trim();
+                for (int i = 0; i < times.size(); i++) {
+                    final long time = times.get(i);
+                    if (time < lastTime) {
+                        sorted = false;
                     }
+                    lastTime = time;
+                    lines.add(new LrcEntry(time, text));
                 }
             }
-
-            return new LrcLyrics(offset, lines);
         } catch (IOException e) {
             e.printStackTrace();
+            return new LrcLyrics();
         }
-        return new LrcLyrics();
+
+        if (!sorted) {
+            // The sort is stable, lines that share a timestamp keep their order
+            Collections.sort(lines);
+        }
+        if (offset != 0) {
+            // A positive offset means that the lyrics must be shown sooner
+            for (int i = 0; i < lines.size(); i++) {
+                final LrcEntry entry = lines.get(i);
+                lines.set(i, new LrcEntry(Math.max(0, entry.getTime() - offset), entry.getText()));
+            }
+        }
+        return new LrcLyrics(offset, lines);
+    }
+
+    private static int skipWhitespace(String line, int index) {
+        while (index < line.length() && Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Parses a {@code mm:ss}, {@code mm:ss.xx} or {@code mm:ss.xxx} timestamp between
+     * {@code start} (inclusive) and {@code end} (exclusive).
+     *
+     * @return the timestamp in milliseconds, or -1 if it isn't a valid timestamp.
+     */
+    private static long parseTime(String line, int start, int end) {
+        int index = start;
+        long minutes = 0;
+        while (index < end && isDigit(line.charAt(index))) {
+            minutes = minutes * 10 + (line.charAt(index++) - '0');
+        }
+        if (index == start || index >= end || line.charAt(index) != ':') return -1;
+
+        final int secondsStart = ++index;
+        int seconds = 0;
+        while (index < end && isDigit(line.charAt(index))) {
+            seconds = seconds * 10 + (line.charAt(index++) - '0');
+        }
+        if (index == secondsStart || index - secondsStart > 2) return -1;
+
+        int millis = 0;
+        if (index < end) {
+            final char separator = line.charAt(index);
+            if (separator != '.' && separator != ':') return -1;
+
+            final int fractionStart = ++index;
+            int multiplier = 100;
+            while (index < end && isDigit(line.charAt(index))) {
+                millis += (line.charAt(index++) - '0') * multiplier;
+                multiplier /= 10;
+            }
+            if (index == fractionStart || index < end) return -1;
+        }
+        return minutes * LRC_MINUTES_TO_MS_MULTIPLIER + (long) seconds * LRC_SECONDS_TO_MS_MULTIPLIER + millis;
+    }
+
+    /**
+     * Returns the text that starts at {@code start}, without the word timestamps of the
+     * enhanced LRC format.
+     */
+    private static String stripWordTimestamps(String line, int start) {
+        int tagStart = line.indexOf('<', start);
+        if (tagStart == -1) {
+            return line.substring(start);
+        }
+        final StringBuilder text = new StringBuilder(line.length() - start);
+        int index = start;
+        while (tagStart != -1) {
+            final int tagEnd = line.indexOf('>', tagStart + 1);
+            if (tagEnd == -1) break;
+
+            if (parseTime(line, tagStart + 1, tagEnd) >= 0) {
+                text.append(line, index, tagStart);
+                index = tagEnd + 1;
+            } else {
+                text.append(line, index, tagStart + 1);
+                index = tagStart + 1;
+            }
+            tagStart = line.indexOf('<', index);
+        }
+        text.append(line, index, line.length());
+        return text.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     /**
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.lyrics
+
+import android.content.Context
+import android.util.AtomicFile
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * Keeps the lyrics read from the tags of each song, already parsed, in a compact binary
+ * file keyed by the song ID and the modification time of the audio file, so reopening
+ * the lyrics of a song doesn't need to read its tags (or parse them) again. Any change
+ * to the file, e.g. when the lyrics are edited, invalidates its entry.
+ */
+object LyricsCache {
+
+    private const val TAG = "LyricsCache"
+
+    private const val MAGIC = 0x4C524331 // "LRC1"
+    private const val VERSION = 1
+
+    // Anything bigger can only come from a corrupt file
+    private const val MAX_STRING_SIZE = 1024 * 1024
+
+    class Entry(val lyrics: String?, val lrcData: LrcLyrics)
+
+    private fun cacheDir(context: Context) = File(context.cacheDir, "lyrics")
+
+    private fun cacheFile(context: Context, songId: Long) = AtomicFile(File(cacheDir(context), "$songId.lrcbin"))
+
+    fun get(context: Context, songId: Long, dateModified: Long): Entry? {
+        val file = cacheFile(context, songId)
+        if (!file.baseFile.isFile) return null
+        return try {
+            DataInputStream(BufferedInputStream(file.openRead())).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION ||
+                    input.readLong() != songId || input.readLong() != dateModified
+                ) {
+                    return null
+                }
+                val lyrics = if (input.readBoolean()) input.readString() else null
+                val offset = input.readLong()
+                val lineCount = input.readInt()
+                if (lineCount < 0) throw IOException("Invalid line count: $lineCount")
+                // Not sized ahead, a wrong count must fail when reading, not when allocating
+                val lines = ArrayList<LrcEntry>()
+                repeat(lineCount) {
+                    val time = input.readLong()
+                    lines.add(LrcEntry(time, input.readString()))
+                }
+                Entry(lyrics, LrcLyrics(offset, lines))
+            }
+        } catch (e: Exception) {
+            // Whatever is wrong with the file, it's just a cache: read the tags again
+            Log.w(TAG, "Couldn't read the cached lyrics of song $songId", e)
+            file.delete()
+            null
+        }
+    }
+
+    fun put(context: Context, songId: Long, dateModified: Long, entry: Entry) {
+        val dir = cacheDir(context)
+        if (!dir.isDirectory && !dir.mkdirs()) return
+
+        val file = cacheFile(context, songId)
+        val stream = try {
+            file.startWrite()
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't cache the lyrics of song $songId", e)
+            return
+        }
+        try {
+            val output = DataOutputStream(BufferedOutputStream(stream))
+            output.writeInt(MAGIC)
+            output.writeInt(VERSION)
+            output.writeLong(songId)
+            output.writeLong(dateModified)
+            output.writeBoolean(entry.lyrics != null)
+            entry.lyrics?.let { output.writeString(it) }
+            output.writeLong(entry.lrcData.offset)
+            output.writeInt(entry.lrcData.lines.size)
+            for (line in entry.lrcData.lines) {
+                output.writeLong(line.time)
+                output.writeString(line.text)
+            }
+            output.flush()
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't cache the lyrics of song $songId", e)
+            file.failWrite(stream)
+        }
+    }
+
+    fun clear(context: Context) {
+        cacheDir(context).deleteRecursively()
+    }
+
+    // DataOutput.writeUTF() is limited to 64 KB, which some lyrics may exceed
+    private fun DataOutputStream.writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun DataInputStream.readString(): String {
+        val size = readInt()
+        if (size !in 0..MAX_STRING_SIZE) throw IOException("Invalid string size: $size")
+        val bytes = ByteArray(size)
+        readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.lyrics
+
+import android.content.Context
+import android.util.AtomicFile
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+
+/**
+ * Index of the lyrics files (.lrc and .txt) found next to the songs, so finding the
+ * lyrics file of a song doesn't need to list and match every file of its directory
+ * each time. Each directory is listed again only when its modification time changes
+ * (i.e. when files are added, removed or renamed), and the index is kept on disk
+ * between sessions. Changes are written in background, a few seconds after the last
+ * one, so listing many directories in a row only writes the index once.
+ */
+class LyricsSidecarIndex internal constructor(
+    indexFile: File,
+    private val scope: CoroutineScope,
+    private val saveDelayMillis: Long = SAVE_DELAY
+) {
+
+    private val indexFile = AtomicFile(indexFile)
+
+    private val directories = HashMap<String, Directory>()
+    private var isLoaded = false
+    private var saveJob: Job? = null
+
+    /**
+     * The lyrics files of a directory, keyed by their lowercase name without extension.
+     */
+    private class Directory(val lastModified: Long, val fileNames: List<String>) {
+        val byBaseName = HashMap<String, MutableList<String>>().apply {
+            for (fileName in fileNames) {
+                getOrPut(fileName.substringBeforeLast('.').lowercase()) { ArrayList(1) }.add(fileName)
+            }
+        }
+    }
+
+    /**
+     * Returns the lyrics files that may belong to the given song file, best matches first:
+     * those named exactly like the song file, then those named exactly like the song title.
+     * Only if there are none, those whose name just contains any of both.
+     */
+    @Synchronized
+    fun findLyricsFiles(songFile: File, title: String): List<File> {
+        val dir = songFile.absoluteFile.parentFile ?: return emptyList()
+        val directory = getDirectory(dir) ?: return emptyList()
+        if (directory.fileNames.isEmpty()) return emptyList()
+
+        val fileName = songFile.nameWithoutExtension.lowercase()
+        val songTitle = title.lowercase()
+        val matches = LinkedHashSet<String>()
+        directory.byBaseName[fileName]?.let { matches.addAll(it) }
+        if (songTitle.isNotEmpty()) {
+            directory.byBaseName[songTitle]?.let { matches.addAll(it) }
+        }
+        if (matches.isEmpty()) {
+            for (name in directory.fileNames) {
+                val lowercaseName = name.lowercase()
+                if ((fileName.isNotEmpty() && lowercaseName.contains(fileName)) ||
+                    (songTitle.isNotEmpty() && lowercaseName.contains(songTitle))
+                ) {
+                    matches.add(name)
+                }
+            }
+        }
+        return matches.map { File(dir, it) }
+    }
+
+    private fun getDirectory(dir: File): Directory? {
+        if (!isLoaded) {
+            load()
+            isLoaded = true
+        }
+        val lastModified = dir.lastModified()
+        if (lastModified == 0L) {
+            // The directory doesn't exist (or can't be accessed)
+            return null
+        }
+        val path = dir.absolutePath
+        val directory = directories[path]
+        if (directory != null && directory.lastModified == lastModified) {
+            return directory
+        }
+        val fileNames = dir.list { _, name -> isLyricsFile(name) } ?: return null
+        return Directory(lastModified, fileNames.sorted()).also {
+            directories[path] = it
+            scheduleSave()
+        }
+    }
+
+    private fun isLyricsFile(name: String) =
+        name.endsWith(".lrc", ignoreCase = true) || name.endsWith(".txt", ignoreCase = true)
+
+    private fun load() {
+        try {
+            DataInputStream(BufferedInputStream(indexFile.openRead())).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    return
+                }
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    val lastModified = input.readLong()
+                    val fileCount = input.readInt()
+                    if (fileCount < 0) throw IOException("Invalid file count: $fileCount")
+                    // Not sized ahead, a wrong count must fail when reading, not when allocating
+                    val fileNames = ArrayList<String>()
+                    repeat(fileCount) { fileNames.add(input.readUTF()) }
+                    directories[path] = Directory(lastModified, fileNames)
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // Nothing was indexed yet
+        } catch (e: Exception) {
+            // Whatever is wrong with the file, the directories will just be listed again
+            Log.w(TAG, "Couldn't read the lyrics files index", e)
+            directories.clear()
+            indexFile.delete()
+        }
+    }
+
+    private fun scheduleSave() {
+        if (saveJob == null) {
+            saveJob = scope.launch {
+                delay(saveDelayMillis)
+                save()
+            }
+        }
+    }
+
+    private fun save() {
+        val directories = synchronized(this) {
+            saveJob = null
+            directories.map { it.key to it.value }
+        }
+        synchronized(indexFile) {
+            val dir = indexFile.baseFile.parentFile ?: return
+            if (!dir.isDirectory && !dir.mkdirs()) return
+
+            val stream = try {
+                indexFile.startWrite()
+            } catch (e: IOException) {
+                Log.w(TAG, "Couldn't save the lyrics files index", e)
+                return
+            }
+            try {
+                val output = DataOutputStream(BufferedOutputStream(stream))
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                output.writeInt(directories.size)
+                for ((path, directory) in directories) {
+                    output.writeUTF(path)
+                    output.writeLong(directory.lastModified)
+                    output.writeInt(directory.fileNames.size)
+                    for (fileName in directory.fileNames) {
+                        output.writeUTF(fileName)
+                    }
+                }
+                output.flush()
+                indexFile.finishWrite(stream)
+            } catch (e: IOException) {
+                Log.w(TAG, "Couldn't save the lyrics files index", e)
+                indexFile.failWrite(stream)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "LyricsSidecarIndex"
+
+        private const val MAGIC = 0x4C534931 // "LSI1"
+        private const val VERSION = 1
+
+        private const val SAVE_DELAY = 5000L
+
+        private var sInstance: LyricsSidecarIndex? = null
+
+        @Synchronized
+        fun getInstance(context: Context): LyricsSidecarIndex {
+            if (sInstance == null) {
+                sInstance = LyricsSidecarIndex(
+                    // Not under the lyrics cache, which is deleted as a whole when cleared
+                    File(context.cacheDir, "lyrics_index/sidecars.idx"),
+                    CoroutineScope(SupervisorJob() + Dispatchers.IO)
+                )
+            }
+            return sInstance!!
+        }
+    }
+}
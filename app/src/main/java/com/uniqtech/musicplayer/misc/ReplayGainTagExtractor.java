@@ -17,9 +17,9 @@
 
 package com.uniqtech.musicplayer.misc;
 
-import android.util.LruCache;
-
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.uniqtech.musicplayer.model.Song;
 
@@ -39,73 +39,61 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ReplayGainTagExtractor {
-    private static final RGLruCache gainValuesCache = new RGLruCache(64 * 2);
-
     // Normalize all tags using the Vorbis ones
     private static final String REPLAYGAIN_TRACK_GAIN = "REPLAYGAIN_TRACK_GAIN";
     private static final String REPLAYGAIN_ALBUM_GAIN = "REPLAYGAIN_ALBUM_GAIN";
     private static final String REPLAYGAIN_TRACK_PEAK = "REPLAYGAIN_TRACK_PEAK";
     private static final String REPLAYGAIN_ALBUM_PEAK = "REPLAYGAIN_ALBUM_PEAK";
 
-    private static class RGLruCache extends LruCache<Long, GainValues> {
-        private RGLruCache(int maxSize) {
-            super(maxSize);
-        }
-    }
+    /**
+     * Reads the ReplayGain values from the tags of the given song, without looking
+     * at any cache. This does file I/O and must not be called on the main thread.
+     *
+     * @return The values found in the tags (the neutral ones if there are none), or
+     * {@code null} if the file couldn't be read.
+     */
+    @Nullable
+    @WorkerThread
+    public static GainValues readReplayGain(@NonNull Song song) {
+        float rgTrack = 0.0f;
+        float rgAlbum = 0.0f;
+        float peakTrack = 1.0f;
+        float peakAlbum = 1.0f;
+
+        Map<String, Float> tags = null;
 
-    @NonNull
-    public static GainValues getReplayGain(@NonNull Song song) {
-        GainValues gainValues = gainValuesCache.get(song.getId());
-        if (gainValues == null) {
-            float rgTrack = 0.0f;
-            float rgAlbum = 0.0f;
-            float peakTrack = 1.0f;
-            float peakAlbum = 1.0f;
-
-            Map<String, Float> tags = null;
-
-            try {
-                AudioFile file = AudioFileIO.read(new File(song.getData()));
-                Tag tag = file.getTag();
-
-                if (tag instanceof VorbisCommentTag || tag instanceof FlacTag) {
-                    tags = parseTags(tag);
-                } else if (tag instanceof Mp4Tag) {
-                    tags = parseMp4Tags(tag);
-                } else {
-                    tags = parseId3Tags(tag, file);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        try {
+            AudioFile file = AudioFileIO.read(new File(song.getData()));
+            Tag tag = file.getTag();
+
+            if (tag instanceof VorbisCommentTag || tag instanceof FlacTag) {
+                tags = parseTags(tag);
+            } else if (tag instanceof Mp4Tag) {
+                tags = parseMp4Tags(tag);
+            } else if (tag != null) {
+                tags = parseId3Tags(tag, file);
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
 
-            if (tags != null && !tags.isEmpty()) {
-                if (tags.containsKey(REPLAYGAIN_TRACK_GAIN)) {
-                    rgTrack = tags.get(REPLAYGAIN_TRACK_GAIN);
-                }
-                if (tags.containsKey(REPLAYGAIN_TRACK_PEAK)) {
-                    peakTrack = tags.get(REPLAYGAIN_TRACK_PEAK);
-                }
-                if (tags.containsKey(REPLAYGAIN_ALBUM_GAIN)) {
-                    rgAlbum = tags.get(REPLAYGAIN_ALBUM_GAIN);
-                }
-                if (tags.containsKey(REPLAYGAIN_ALBUM_PEAK)) {
-                    peakAlbum = tags.get(REPLAYGAIN_ALBUM_PEAK);
-                }
+        if (tags != null && !tags.isEmpty()) {
+            if (tags.containsKey(REPLAYGAIN_TRACK_GAIN)) {
+                rgTrack = tags.get(REPLAYGAIN_TRACK_GAIN);
+            }
+            if (tags.containsKey(REPLAYGAIN_TRACK_PEAK)) {
+                peakTrack = tags.get(REPLAYGAIN_TRACK_PEAK);
+            }
+            if (tags.containsKey(REPLAYGAIN_ALBUM_GAIN)) {
+                rgAlbum = tags.get(REPLAYGAIN_ALBUM_GAIN);
+            }
+            if (tags.containsKey(REPLAYGAIN_ALBUM_PEAK)) {
+                peakAlbum = tags.get(REPLAYGAIN_ALBUM_PEAK);
             }
-
-            gainValues = new GainValues(rgAlbum, rgTrack, peakAlbum, peakTrack);
-            gainValuesCache.put(song.getId(), gainValues);
         }
-        return gainValues;
-    }
-
-    public static void removeFromCache(@NonNull Song song) {
-        gainValuesCache.remove(song.getId());
-    }
 
-    public static void clearCache() {
-        gainValuesCache.evictAll();
+        return new GainValues(rgAlbum, rgTrack, peakAlbum, peakTrack);
     }
 
     private static Map<String, Float> parseId3Tags(Tag tag, @NonNull final AudioFile file) throws Exception {
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.providers
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.provider.MediaStore
+import android.provider.MediaStore.Audio.AudioColumns
+import android.util.Log
+import androidx.annotation.WorkerThread
+import com.uniqtech.musicplayer.extensions.hasR
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.repository.LibraryDelta
+import com.uniqtech.musicplayer.repository.LibrarySnapshot
+import com.uniqtech.musicplayer.repository.LibraryStore
+import com.uniqtech.musicplayer.repository.LibrarySyncToken
+import com.uniqtech.musicplayer.repository.RealSongRepository
+
+/**
+ * Brings the current [LibrarySnapshot] up to date with the MediaStore by querying
+ * only the rows that changed since the snapshot was taken, instead of loading the
+ * whole library again.
+ *
+ * Added and modified rows are found through the generation of each volume on
+ * Android R and later, or through a [AudioColumns.DATE_MODIFIED] watermark on older
+ * versions. The MediaStore doesn't keep track of deleted rows, so these (and
+ * added files that kept an old modification date) are found by comparing the
+ * IDs of the library, but only when the number of songs isn't the expected one.
+ */
+class MediaStoreSyncer(
+    private val context: Context,
+    private val songRepository: RealSongRepository,
+    private val libraryStore: LibraryStore
+) {
+
+    /**
+     * Applies the MediaStore changes to the current snapshot and returns them. If
+     * there's no snapshot to update, or the changes can't be applied incrementally,
+     * the library is invalidated and `null` is returned.
+     */
+    @WorkerThread
+    @Synchronized
+    fun sync(): LibraryDelta? {
+        val snapshot = libraryStore.peek() ?: return null.also {
+            libraryStore.invalidate()
+        }
+        return try {
+            val syncToken = LibrarySyncToken.capture(context)
+            val delta = computeDelta(snapshot, syncToken)
+            if (delta != null && libraryStore.apply(snapshot, delta, syncToken)) {
+                delta
+            } else {
+                libraryStore.invalidate()
+                null
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't sync the library, a full reload will be done", e)
+            libraryStore.invalidate()
+            null
+        }
+    }
+
+    private fun computeDelta(snapshot: LibrarySnapshot, syncToken: LibrarySyncToken): LibraryDelta? {
+        val lastToken = snapshot.syncToken
+        if (lastToken.mediaStoreVersion != syncToken.mediaStoreVersion) {
+            // The MediaStore database was recreated, generations are meaningless now.
+            return null
+        }
+
+        val knownIds = snapshot.songsById.keys
+        val changedSongs = if (lastToken.generations != null && lastToken.generations == syncToken.generations) {
+            // Every insert and update moves the generation of its volume forward
+            emptyList()
+        } else {
+            songRepository.songs(makeChangedCursor(lastToken))
+        }
+        if (changedSongs.size > MAX_DELTA_SIZE) {
+            return null
+        }
+        val (added, updated) = changedSongs.partition { it.id !in knownIds }
+
+        var removedIds = emptySet<Long>()
+        var missingSongs = emptyList<Song>()
+        val songCount = countSongs() ?: return null
+        if (songCount != knownIds.size + added.size) {
+            // Songs were removed (or, before R, added with an old modification date).
+            // Only now it's worth going through the IDs of the whole library.
+            val currentIds = queryIds() ?: return null
+            removedIds = knownIds.filterNotTo(HashSet()) { it in currentIds }
+            val addedIds = added.mapTo(HashSet()) { it.id }
+            val missingIds = currentIds.filterNotTo(HashSet()) { it in knownIds || it in addedIds }
+            if (added.size + missingIds.size > MAX_DELTA_SIZE) {
+                return null
+            }
+            if (missingIds.isNotEmpty()) {
+                missingSongs = songRepository.songs(makeIdsCursor(missingIds))
+            }
+        }
+        return LibraryDelta(
+            added = added + missingSongs,
+            // A "modified" row is not necessarily different for us, e.g. the
+            // file was touched but the tags we read from it are the same.
+            updated = updated.filter { it != snapshot.songsById[it.id] },
+            removedIds = removedIds
+        )
+    }
+
+    private fun makeIdsQuery() = MediaQueryDispatcher()
+        .setProjection(arrayOf(AudioColumns._ID))
+        .setSelection(RealSongRepository.BASE_SELECTION)
+
+    /**
+     * Counts the songs of the library. The count is computed by the MediaStore itself,
+     * so, unlike [queryIds], only the first rows are sent over to this process.
+     */
+    private fun countSongs(): Int? {
+        return songRepository.makeSongCursor(makeIdsQuery())?.use { it.count }
+    }
+
+    private fun queryIds(): Set<Long>? {
+        val cursor = songRepository.makeSongCursor(makeIdsQuery()) ?: return null
+        return cursor.use {
+            val ids = HashSet<Long>(it.count)
+            while (it.moveToNext()) {
+                ids.add(it.getLong(0))
+            }
+            ids
+        }
+    }
+
+    @SuppressLint("InlinedApi")
+    private fun makeChangedCursor(lastToken: LibrarySyncToken) =
+        MediaQueryDispatcher()
+            .setProjection(RealSongRepository.getBaseProjection())
+            .setSelection(RealSongRepository.BASE_SELECTION)
+            .apply {
+                val changedSelection = StringBuilder()
+                val generations = lastToken.generations
+                if (hasR() && !generations.isNullOrEmpty()) {
+                    // Generations are only comparable within the same volume; rows
+                    // from volumes we didn't know about are all considered new.
+                    for ((volumeName, generation) in generations) {
+                        changedSelection.append("(${MediaStore.MediaColumns.VOLUME_NAME}=? AND ")
+                            .append("${MediaStore.MediaColumns.GENERATION_MODIFIED}>?) OR ")
+                        addArguments(volumeName, generation.toString())
+                    }
+                    changedSelection.append("${MediaStore.MediaColumns.VOLUME_NAME} NOT IN (")
+                    generations.keys.joinTo(changedSelection) { "?" }
+                    changedSelection.append(")")
+                    addArguments(*generations.keys.toTypedArray())
+                } else {
+                    changedSelection.append("${AudioColumns.DATE_MODIFIED}>=?")
+                    addArguments(lastToken.dateModified.toString())
+                }
+                addSelection("($changedSelection)")
+            }
+            .let { songRepository.makeSongCursor(it) }
+
+    private fun makeIdsCursor(ids: Set<Long>) =
+        MediaQueryDispatcher()
+            .setProjection(RealSongRepository.getBaseProjection())
+            .setSelection(RealSongRepository.BASE_SELECTION)
+            .apply {
+                addSelection(ids.joinToString(prefix = "${AudioColumns._ID} IN (", postfix = ")") { "?" })
+                addArguments(*ids.map { it.toString() }.toTypedArray())
+            }
+            .let { songRepository.makeSongCursor(it) }
+
+    companion object {
+        private const val TAG = "MediaStoreSyncer"
+
+        // Beyond this point a full reload is cheaper, and we'd hit the
+        // limit of bound arguments in the selection anyway.
+        private const val MAX_DELTA_SIZE = 500
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.uniqtech.musicplayer.providers
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.annotation.WorkerThread
+import androidx.lifecycle.LiveData
+import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.database.HistoryEntity
+import com.uniqtech.musicplayer.database.PlayCountEntity
+import com.uniqtech.musicplayer.database.toHistoryEntity
+import com.uniqtech.musicplayer.database.toPlayCount
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.repository.RealSongRepository
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.ln1p
+import kotlin.math.max
+import kotlin.math.pow
+
+/**
+ * Single store for the playback statistics (play counts, skip counts, history and
+ * the popularity scores used by "Top tracks").
+ *
+ * Playback events are only buffered in memory when they're recorded, so the service
+ * never touches the database while changing tracks. Buffered events are written in
+ * a single transaction some seconds later, when [requestFlush] is called, or right
+ * before any of the statistics are read.
+ *
+ * The first flush also imports the databases that were used before by the
+ * song_play_count and history stores.
+ *
+ * Two popularity scores are kept for each song, see [ScoreMode].
+ */
+class PlayStatsStore(
+    private val context: Context,
+    private val database: BoomingDatabase,
+    private val songRepository: RealSongRepository
+) {
+
+    private val playCountDao = database.playCountDao()
+    private val historyDao = database.historyDao()
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val pending = LinkedHashMap<Long, PendingStats>()
+    private var flushJob: Job? = null
+
+    private var legacyImported = false
+    // Set when the import fails, so it's only tried again in the next process
+    private var legacyImportFailed = false
+    private var scoresSeeded = false
+
+    fun recordPlay(song: Song, timePlayed: Long = System.currentTimeMillis()) {
+        record(song) {
+            it.plays++
+            it.lastPlayed = max(it.lastPlayed, timePlayed)
+        }
+    }
+
+    fun recordSkip(song: Song) {
+        record(song) { it.skips++ }
+    }
+
+    fun recordHistory(song: Song, timePlayed: Long = System.currentTimeMillis()) {
+        record(song) { it.historyTime = max(it.historyTime, timePlayed) }
+    }
+
+    private inline fun record(song: Song, update: (PendingStats) -> Unit) {
+        if (song.id == -1L) return
+        synchronized(pending) {
+            val stats = pending.getOrPut(song.id) { PendingStats(song) }
+            stats.song = song
+            update(stats)
+            if (flushJob == null) {
+                flushJob = scope.launch {
+                    delay(FLUSH_DELAY)
+                    flush()
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered events without waiting for the flush delay to elapse.
+     */
+    fun requestFlush() {
+        scope.launch { flush() }
+    }
+
+    @WorkerThread
+    @Synchronized
+    fun flush() {
+        if (!legacyImported && !legacyImportFailed) {
+            legacyImported = importLegacyStores()
+            if (legacyImported) {
+                // The imported play counts don't have a score yet
+                scoresSeeded = false
+            }
+        }
+        if (!scoresSeeded) {
+            scoresSeeded = seedDecayScores()
+        }
+        val events = takePending()
+        if (events.isEmpty()) return
+        try {
+            writeEvents(events)
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't write ${events.size} playback events", e)
+        }
+    }
+
+    @WorkerThread
+    fun topPlayedIds(limit: Int, scoreMode: ScoreMode = ScoreMode.TimeDecay): List<Long> {
+        flush()
+        return when (scoreMode) {
+            ScoreMode.TimeDecay -> playCountDao.topDecayScoreIds(limit)
+            ScoreMode.WeeklyCurve -> {
+                val week = currentWeek()
+                playCountDao.weeklyPlayCounts()
+                    .map { it.id to weeklyScore(decodeWeeks(it.weekCounts, it.weekIndex, week)) }
+                    .filter { it.second >= MIN_SCORE }
+                    .sortedByDescending { it.second }
+                    .take(limit)
+                    .map { it.first }
+            }
+        }
+    }
+
+    /**
+     * Returns the current time-decayed score of the given entity, where a single
+     * play made right now is worth 1.
+     */
+    fun decayedScore(playCountEntity: PlayCountEntity, now: Long = System.currentTimeMillis()): Double {
+        if (playCountEntity.scoreUpdated <= 0) return 0.0
+        return exp(playCountEntity.decayScore - decayExponent(now))
+    }
+
+    @WorkerThread
+    fun playCountSongs(): List<PlayCountEntity> {
+        flush()
+        return playCountDao.playCountSongs()
+    }
+
+    @WorkerThread
+    fun playCount(songId: Long): PlayCountEntity? {
+        flush()
+        return playCountDao.findSongExistInPlayCount(songId)
+    }
+
+    @WorkerThread
+    fun playCounts(songs: List<Song>): List<PlayCountEntity> {
+        flush()
+        val playCounts = songs.map { it.id }.chunked(MAX_QUERY_ARGS)
+            .flatMap { playCountDao.findSongsExistInPlayCount(it) }
+            .associateBy { it.id }
+        return songs.map { playCounts[it.id] ?: it.toPlayCount() }
+    }
+
+    @WorkerThread
+    @Synchronized
+    fun deletePlayCount(playCountEntity: PlayCountEntity) {
+        dropPending(playCountEntity.id) { it.plays = 0; it.skips = 0 }
+        playCountDao.deleteSongInPlayCount(playCountEntity)
+    }
+
+    @WorkerThread
+    @Synchronized
+    fun clearPlayCounts() {
+        dropPending { it.plays = 0; it.skips = 0 }
+        playCountDao.clearPlayCount()
+    }
+
+    @WorkerThread
+    fun historySongs(): List<HistoryEntity> {
+        flush()
+        return historyDao.historySongs()
+    }
+
+    fun historySongsObservable(): LiveData<List<HistoryEntity>> =
+        historyDao.observableHistorySongs()
+
+    @WorkerThread
+    fun historyIds(): List<Long> {
+        flush()
+        return historyDao.historyIds()
+    }
+
+    @WorkerThread
+    fun historyIdsBefore(cutoff: Long): List<Long> {
+        flush()
+        return historyDao.historyIdsBefore(cutoff)
+    }
+
+    @WorkerThread
+    @Synchronized
+    fun deleteFromHistory(songId: Long) {
+        dropPending(songId) { it.historyTime = 0 }
+        historyDao.deleteSongInHistory(songId)
+    }
+
+    @WorkerThread
+    @Synchronized
+    fun clearHistory() {
+        dropPending { it.historyTime = 0 }
+        historyDao.clearHistory()
+    }
+
+    private fun takePending(): List<PendingStats> = synchronized(pending) {
+        flushJob = null
+        pending.values.toList().also {
+            pending.clear()
+        }
+    }
+
+    private inline fun dropPending(songId: Long, reset: (PendingStats) -> Unit) {
+        synchronized(pending) {
+            pending[songId]?.let(reset)
+        }
+    }
+
+    private inline fun dropPending(reset: (PendingStats) -> Unit) {
+        synchronized(pending) {
+            pending.values.forEach(reset)
+        }
+    }
+
+    private fun writeEvents(events: List<PendingStats>) {
+        val week = currentWeek()
+        database.runInTransaction {
+            val counted = events.filter { it.plays > 0 || it.skips > 0 }
+            if (counted.isNotEmpty()) {
+                val existing = counted.map { it.song.id }.chunked(MAX_QUERY_ARGS)
+                    .flatMap { playCountDao.findSongsExistInPlayCount(it) }
+                    .associateBy { it.id }
+                playCountDao.upsertSongsInPlayCount(counted.map { stats ->
+                    val playCount = existing[stats.song.id] ?: stats.song.toPlayCount()
+                    val weeks = decodeWeeks(playCount.weekCounts, playCount.weekIndex, week)
+                    weeks[0] += stats.plays
+                    playCount.copy(
+                        timePlayed = max(playCount.timePlayed, stats.lastPlayed),
+                        playCount = playCount.playCount + stats.plays,
+                        skipCount = playCount.skipCount + stats.skips,
+                        weekIndex = week,
+                        weekCounts = encodeWeeks(weeks),
+                        decayScore = if (stats.plays > 0) {
+                            val previous = if (playCount.scoreUpdated > 0) playCount.decayScore else Double.NEGATIVE_INFINITY
+                            logAddExp(previous, ln(stats.plays.toDouble()) + decayExponent(stats.lastPlayed))
+                        } else playCount.decayScore,
+                        scoreUpdated = if (stats.plays > 0) {
+                            max(playCount.scoreUpdated, stats.lastPlayed)
+                        } else playCount.scoreUpdated
+                    )
+                })
+            }
+            val history = events.filter { it.historyTime > 0 }
+            if (history.isNotEmpty()) {
+                historyDao.upsertSongsInHistory(history.map { it.song.toHistoryEntity(it.historyTime) })
+            }
+        }
+    }
+
+    /**
+     * Moves the data of the old play count and history databases into this store,
+     * then deletes them. Songs are resolved against the library, so this is retried
+     * until the library can be loaded; entries of songs that no longer exist are
+     * discarded, as the old stores did when reading them. The old databases are only
+     * deleted once the import has been committed, if it fails they're kept so it
+     * can be done again the next time the app starts.
+     *
+     * @return `true` if there's nothing left to import.
+     */
+    private fun importLegacyStores(): Boolean {
+        val playCountDb = context.getDatabasePath(LEGACY_PLAY_COUNT_DB)
+        val historyDb = context.getDatabasePath(LEGACY_HISTORY_DB)
+        if (!playCountDb.exists() && !historyDb.exists()) {
+            return true
+        }
+        val songsById = songRepository.snapshot().songsById
+        if (songsById.isEmpty()) {
+            return false
+        }
+        try {
+            database.runInTransaction {
+                if (playCountDb.exists()) {
+                    importLegacyPlayCounts(playCountDb.path, songsById)
+                }
+                if (historyDb.exists()) {
+                    importLegacyHistory(historyDb.path, songsById)
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't import the legacy play statistics", e)
+            legacyImportFailed = true
+            return false
+        }
+        context.deleteDatabase(LEGACY_PLAY_COUNT_DB)
+        context.deleteDatabase(LEGACY_HISTORY_DB)
+        return true
+    }
+
+    /**
+     * Gives a time-decayed score to the songs that were played before it existed,
+     * assuming the plays of each week happened at its start, or at the last play
+     * time when there are no weekly counts.
+     *
+     * @return `true` if every played song has a score.
+     */
+    private fun seedDecayScores(): Boolean {
+        return try {
+            database.runInTransaction {
+                val now = System.currentTimeMillis()
+                val week = currentWeek()
+                val unscored = playCountDao.unscoredPlayCounts()
+                if (unscored.isNotEmpty()) {
+                    playCountDao.upsertSongsInPlayCount(unscored.map { playCount ->
+                        var decayScore = Double.NEGATIVE_INFINITY
+                        val weeks = decodeWeeks(playCount.weekCounts, playCount.weekIndex, week)
+                        weeks.forEachIndexed { i, count ->
+                            if (count > 0) {
+                                val playTime = now - i * ONE_WEEK_IN_MS
+                                decayScore = logAddExp(decayScore, ln(count.toDouble()) + decayExponent(playTime))
+                            }
+                        }
+                        if (decayScore == Double.NEGATIVE_INFINITY) {
+                            val playTime = if (playCount.timePlayed > 0) playCount.timePlayed else now
+                            decayScore = ln(playCount.playCount.toDouble()) + decayExponent(playTime)
+                        }
+                        playCount.copy(decayScore = decayScore, scoreUpdated = now)
+                    })
+                }
+            }
+            true
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't score the existing play counts", e)
+            false
+        }
+    }
+
+    private fun importLegacyPlayCounts(path: String, songsById: Map<Long, Song>) {
+        val week = currentWeek()
+        val playCounts = ArrayList<PlayCountEntity>()
+        SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY).use { db ->
+            db.query("song_play_count", null, null, null, null, null, null).use { cursor ->
+                val idColumn = cursor.getColumnIndexOrThrow("song_id")
+                val weekIndexColumn = cursor.getColumnIndexOrThrow("week_index")
+                val weekColumns = IntArray(NUM_WEEKS) { cursor.getColumnIndexOrThrow("week$it") }
+                while (cursor.moveToNext()) {
+                    val song = songsById[cursor.getLong(idColumn)] ?: continue
+                    val legacyWeeks = shiftWeeks(
+                        IntArray(NUM_WEEKS) { cursor.getInt(weekColumns[it]) },
+                        cursor.getInt(weekIndexColumn),
+                        week
+                    )
+                    val playCount = playCountDao.findSongExistInPlayCount(song.id)
+                        ?: song.toPlayCount(playCount = legacyWeeks.sum())
+                    val weeks = decodeWeeks(playCount.weekCounts, playCount.weekIndex, week)
+                    for (i in weeks.indices) {
+                        weeks[i] += legacyWeeks[i]
+                    }
+                    playCounts.add(playCount.copy(weekIndex = week, weekCounts = encodeWeeks(weeks)))
+                }
+            }
+        }
+        if (playCounts.isNotEmpty()) {
+            playCountDao.upsertSongsInPlayCount(playCounts)
+        }
+    }
+
+    private fun importLegacyHistory(path: String, songsById: Map<Long, Song>) {
+        val historyIds = historyDao.historyIds().toHashSet()
+        val history = ArrayList<HistoryEntity>()
+        SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY).use { db ->
+            db.query("recent_history", null, null, null, null, null, null).use { cursor ->
+                val idColumn = cursor.getColumnIndexOrThrow("song_id")
+                val timePlayedColumn = cursor.getColumnIndexOrThrow("time_played")
+                while (cursor.moveToNext()) {
+                    val songId = cursor.getLong(idColumn)
+                    if (songId in historyIds) continue
+                    val song = songsById[songId] ?: continue
+                    history.add(song.toHistoryEntity(cursor.getLong(timePlayedColumn)))
+                }
+            }
+        }
+        if (history.isNotEmpty()) {
+            historyDao.upsertSongsInHistory(history)
+        }
+    }
+
+    /**
+     * How "Top tracks" are ranked.
+     */
+    enum class ScoreMode {
+        /**
+         * Exponential decay with a half-life of [DECAY_HALF_LIFE]. Each entity stores
+         * `ln(score) + t / tau`, the score it would have at time zero, which only
+         * changes when the song is played. Since every score decays at the same rate
+         * the order between them never changes, so ranking is a single indexed query
+         * and the actual score is only computed when needed, see [decayedScore].
+         */
+        TimeDecay,
+
+        /**
+         * The curve of the old play count store: plays are bucketed by week and each
+         * of the last [NUM_WEEKS] weeks has its own weight. Buckets have to be shifted
+         * and every score computed again when ranking.
+         */
+        WeeklyCurve
+    }
+
+    private class PendingStats(var song: Song) {
+        var plays = 0
+        var skips = 0
+        var lastPlayed = -1L
+        var historyTime = 0L
+    }
+
+    companion object {
+        private const val TAG = "PlayStatsStore"
+
+        private const val LEGACY_PLAY_COUNT_DB = "song_play_count.db"
+        private const val LEGACY_HISTORY_DB = "history.db"
+
+        private const val FLUSH_DELAY = 10_000L
+        private const val MAX_QUERY_ARGS = 500
+
+        // how many weeks worth of playback to track
+        private const val NUM_WEEKS = 52
+
+        // the ratio between these two is what shapes the weekly curve
+        private const val INTERPOLATOR_HEIGHT = 50
+        private const val INTERPOLATOR_BASE = 25
+
+        private const val ONE_WEEK_IN_MS = 1000L * 60 * 60 * 24 * 7
+
+        private const val MIN_SCORE = .01f
+
+        private const val DECAY_HALF_LIFE = ONE_WEEK_IN_MS * 4
+
+        // mean lifetime of a play, in milliseconds
+        private val DECAY_TAU = DECAY_HALF_LIFE / ln(2.0)
+
+        private fun decayExponent(time: Long): Double = time / DECAY_TAU
+
+        private fun logAddExp(a: Double, b: Double): Double {
+            if (a == Double.NEGATIVE_INFINITY) return b
+            if (b == Double.NEGATIVE_INFINITY) return a
+            return max(a, b) + ln1p(exp(-abs(a - b)))
+        }
+
+        private fun currentWeek(): Int = (System.currentTimeMillis() / ONE_WEEK_IN_MS).toInt()
+
+        /**
+         * Decodes the weekly play counts stored for [fromWeek] and shifts them to [toWeek],
+         * so that index 0 always holds the plays of the current week.
+         */
+        private fun decodeWeeks(encoded: String?, fromWeek: Int, toWeek: Int): IntArray {
+            val counts = IntArray(NUM_WEEKS)
+            encoded?.split(',')?.forEachIndexed { i, count ->
+                if (i < NUM_WEEKS) counts[i] = count.toIntOrNull() ?: 0
+            }
+            return shiftWeeks(counts, fromWeek, toWeek)
+        }
+
+        private fun shiftWeeks(counts: IntArray, fromWeek: Int, toWeek: Int): IntArray {
+            val weekDiff = toWeek - fromWeek
+            if (weekDiff == 0) return counts
+            val shifted = IntArray(NUM_WEEKS)
+            if (abs(weekDiff) < NUM_WEEKS) {
+                for (i in shifted.indices) {
+                    // time may also be shifted backwards (by the user), not typical but handled
+                    val from = i - weekDiff
+                    if (from in counts.indices) shifted[i] = counts[from]
+                }
+            }
+            return shifted
+        }
+
+        private fun encodeWeeks(counts: IntArray): String? {
+            val lastWeek = counts.indexOfLast { it > 0 }
+            if (lastWeek == -1) return null
+            return counts.take(lastWeek + 1).joinToString(",")
+        }
+
+        private fun weeklyScore(counts: IntArray): Float {
+            var score = 0f
+            for (i in counts.indices) {
+                if (counts[i] > 0) score += counts[i] * scoreMultiplierForWeek(i)
+            }
+            return score
+        }
+
+        /**
+         * Same curve the old play count store used: an `AccelerateInterpolator(1.5f)`,
+         * that is, `x^3`.
+         */
+        private fun scoreMultiplierForWeek(week: Int): Float {
+            val x = 1 - (week / NUM_WEEKS.toFloat())
+            return x.pow(3) * INTERPOLATOR_HEIGHT + INTERPOLATOR_BASE
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.providers
+
+import android.util.LruCache
+import androidx.annotation.WorkerThread
+import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.database.ReplayGainEntity
+import com.uniqtech.musicplayer.database.toReplayGainEntity
+import com.uniqtech.musicplayer.misc.GainValues
+import com.uniqtech.musicplayer.misc.ReplayGainTagExtractor
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.repository.RealSongRepository
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * Persistent table of the ReplayGain values of the songs in the library, so the
+ * playback path doesn't need to open and parse audio files.
+ *
+ * Values are keyed by song ID and date modified, so editing the tags of a song
+ * (which changes its date modified) makes its values to be read again. Songs are
+ * read ahead with [prescan] when they're about to be played, and the whole library
+ * can be read with [scanLibrary] from [com.uniqtech.musicplayer.service.ReplayGainScanJob].
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class ReplayGainStore(
+    database: BoomingDatabase,
+    private val songRepository: RealSongRepository
+) {
+
+    private val replayGainDao = database.replayGainDao()
+    private val memoryCache = LruCache<Long, ReplayGainEntity>(MEMORY_CACHE_SIZE)
+
+    // A single reader, so prescans never compete with each other for the storage
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO.limitedParallelism(1))
+    private var prescanJob: Job? = null
+
+    /**
+     * Returns the ReplayGain values of the given song. They're only read from the
+     * file if they aren't known yet, or if the song has changed since they were read.
+     */
+    @WorkerThread
+    fun getReplayGain(song: Song): GainValues {
+        val cached = memoryCache.get(song.id)
+        if (cached != null && cached.isValidFor(song)) {
+            return cached.toGainValues()
+        }
+        val stored = replayGainDao.replayGain(song.id)
+        if (stored != null && stored.isValidFor(song)) {
+            memoryCache.put(song.id, stored)
+            return stored.toGainValues()
+        }
+        // Failed reads are not stored, so they're tried again the next time
+        val gainValues = ReplayGainTagExtractor.readReplayGain(song) ?: return NEUTRAL_VALUES
+        val entity = gainValues.toReplayGainEntity(song)
+        replayGainDao.upsertReplayGain(entity)
+        memoryCache.put(song.id, entity)
+        return entity.toGainValues()
+    }
+
+    /**
+     * Reads in background the values of the given songs that aren't known yet. A new
+     * call replaces the songs of the previous one if it hasn't finished.
+     */
+    fun prescan(songs: List<Song>) {
+        if (songs.isEmpty()) return
+        prescanJob?.cancel()
+        prescanJob = scope.launch {
+            val entities = scanMissing(songs) { !isActive }
+            entities.forEach { memoryCache.put(it.id, it) }
+        }
+    }
+
+    /**
+     * Reads the values of every song in the library that aren't known yet, and
+     * forgets the ones of songs that are no longer in the library.
+     *
+     * @param isCancelled Checked between songs, the scan stops as soon as it returns `true`
+     * @return `true` if the whole library was scanned
+     */
+    @WorkerThread
+    fun scanLibrary(isCancelled: () -> Boolean): Boolean {
+        val songsById = songRepository.snapshot().songsById
+        val removedIds = replayGainDao.replayGainIds().filterNot { songsById.containsKey(it) }
+        removedIds.chunked(CHUNK_SIZE).forEach { replayGainDao.deleteReplayGains(it) }
+        for (songs in songsById.values.chunked(CHUNK_SIZE)) {
+            if (isCancelled()) return false
+            scanMissing(songs, isCancelled)
+        }
+        return !isCancelled()
+    }
+
+    fun clearMemoryCache() {
+        memoryCache.evictAll()
+    }
+
+    private fun scanMissing(songs: List<Song>, isCancelled: () -> Boolean): List<ReplayGainEntity> {
+        val stored = replayGainDao.replayGains(songs.map { it.id }).associateBy { it.id }
+        val missing = songs.filterNot { stored[it.id]?.isValidFor(it) == true }
+        val entities = ArrayList<ReplayGainEntity>(missing.size)
+        for (song in missing) {
+            if (isCancelled()) break
+            val gainValues = ReplayGainTagExtractor.readReplayGain(song) ?: continue
+            entities.add(gainValues.toReplayGainEntity(song))
+        }
+        if (entities.isNotEmpty()) {
+            replayGainDao.upsertReplayGain(entities)
+        }
+        return entities
+    }
+
+    companion object {
+        private const val MEMORY_CACHE_SIZE = 128
+        private const val CHUNK_SIZE = 200
+
+        private val NEUTRAL_VALUES = GainValues(0f, 0f, 1f, 1f)
+    }
+}
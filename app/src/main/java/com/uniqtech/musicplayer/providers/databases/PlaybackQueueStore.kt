@@ -15,142 +15,285 @@
  */
 package com.uniqtech.musicplayer.providers.databases
 
-import android.content.ContentValues
 import android.content.Context
 import android.database.sqlite.SQLiteDatabase
-import android.database.sqlite.SQLiteOpenHelper
 import android.provider.MediaStore.Audio.AudioColumns
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.WorkerThread
 import com.uniqtech.musicplayer.model.Song
-import com.uniqtech.musicplayer.repository.SongRepository
+import com.uniqtech.musicplayer.repository.RealSongRepository
 import org.koin.core.component.KoinComponent
 import org.koin.core.component.get
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import kotlin.math.max
+import kotlin.math.min
 
-class PlaybackQueueStore private constructor(context: Context) :
-    SQLiteOpenHelper(context, DATABASE_NAME, null, VERSION), KoinComponent {
+/**
+ * Persists the playing queues as song IDs only; the songs are taken back from the
+ * library when the queues are restored.
+ *
+ * The queues are kept in a binary snapshot file plus an append-only log. Saving
+ * compares the new queues with the last saved ones and appends the changed range
+ * of each queue to the log, so the cost of a save depends on what changed and not
+ * on the queue size. Once the log grows bigger than the snapshot it's compacted
+ * into a new snapshot.
+ */
+class PlaybackQueueStore private constructor(context: Context) : KoinComponent {
+
+    private val snapshotFile = AtomicFile(File(context.filesDir, SNAPSHOT_FILE_NAME))
+    private val logFile = File(context.filesDir, LOG_FILE_NAME)
+    private val legacyDatabase = context.getDatabasePath(LEGACY_DATABASE_NAME)
+
+    private val lock = Any()
+    private var pendingQueues: QueueIds? = null
+
+    // what's currently on disk, null if unknown
+    private var savedQueues: QueueIds? = null
+    private var generation = 0
+    private var compactOnNextSave = false
 
-    override fun onCreate(db: SQLiteDatabase) {
-        createTable(db, PLAYING_QUEUE_TABLE_NAME)
-        createTable(db, ORIGINAL_PLAYING_QUEUE_TABLE_NAME)
+    /**
+     * Takes the IDs of the given queues to be written by the next call to [writePendingQueues].
+     * Only the most recent queues are written if this is called several times before that.
+     */
+    fun saveQueues(playingQueue: List<Song>, originalPlayingQueue: List<Song>) {
+        val queues = QueueIds(playingQueue.toIds(), originalPlayingQueue.toIds())
+        synchronized(lock) {
+            pendingQueues = queues
+        }
     }
 
-    private fun createTable(db: SQLiteDatabase, tableName: String) {
-        val builder = StringBuilder()
-        builder.append("CREATE TABLE IF NOT EXISTS ")
-        builder.append(tableName)
-        builder.append("(")
-        builder.append(AudioColumns._ID)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.DATA)
-        builder.append(" STRING NOT NULL,")
-        builder.append(AudioColumns.TITLE)
-        builder.append(" STRING NOT NULL,")
-        builder.append(AudioColumns.TRACK)
-        builder.append(" INT NOT NULL,")
-        builder.append(AudioColumns.YEAR)
-        builder.append(" INT NOT NULL,")
-        builder.append(AudioColumns.SIZE)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.DURATION)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.DATE_ADDED)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.DATE_MODIFIED)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.ALBUM_ID)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.ALBUM)
-        builder.append(" STRING NOT NULL,")
-        builder.append(AudioColumns.ARTIST_ID)
-        builder.append(" LONG NOT NULL,")
-        builder.append(AudioColumns.ARTIST)
-        builder.append(" STRING NOT NULL,")
-        builder.append(AudioColumns.ALBUM_ARTIST)
-        builder.append(" STRING);")
-        db.execSQL(builder.toString())
+    @WorkerThread
+    @Synchronized
+    fun writePendingQueues() {
+        val queues = synchronized(lock) {
+            pendingQueues.also { pendingQueues = null }
+        } ?: return
+        try {
+            val saved = savedQueues
+            if (saved == null || compactOnNextSave) {
+                compact(queues)
+            } else {
+                val splices = listOfNotNull(
+                    diff(PLAYING_QUEUE, saved.playing, queues.playing),
+                    diff(ORIGINAL_PLAYING_QUEUE, saved.original, queues.original)
+                )
+                if (splices.isNotEmpty()) {
+                    val logSize = logFile.length() + splices.sumOf { it.byteSize }
+                    if (logSize > max(snapshotFile.baseFile.length(), MIN_COMPACTION_SIZE)) {
+                        compact(queues)
+                    } else {
+                        append(splices)
+                    }
+                }
+            }
+            savedQueues = queues
+        } catch (e: IOException) {
+            Log.e(TAG, "Couldn't save the playing queues", e)
+            savedQueues = null
+        }
     }
 
-    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        // not necessary yet
-        db.execSQL("DROP TABLE IF EXISTS $PLAYING_QUEUE_TABLE_NAME")
-        db.execSQL("DROP TABLE IF EXISTS $ORIGINAL_PLAYING_QUEUE_TABLE_NAME")
-        onCreate(db)
+    val savedPlayingQueue: List<Song>
+        get() = hydrate(loadQueues().playing)
+
+    val savedOriginalPlayingQueue: List<Song>
+        get() = hydrate(loadQueues().original)
+
+    /**
+     * Restores both queues at once. Songs that are no longer in the library are skipped,
+     * and the given playing position is moved accordingly.
+     */
+    @WorkerThread
+    fun restoreQueues(position: Int): RestoredQueues {
+        val queues = loadQueues()
+        val songsById = get<RealSongRepository>().snapshot().songsById
+        val playingQueue = ArrayList<Song>(queues.playing.size)
+        var restoredPosition = position
+        queues.playing.forEachIndexed { i, id ->
+            val song = songsById[id]
+            if (song != null) {
+                playingQueue.add(song)
+            } else if (i < position) {
+                restoredPosition--
+            }
+        }
+        if (playingQueue.isNotEmpty()) {
+            // The current song may have been the last one and no longer exist
+            restoredPosition = restoredPosition.coerceIn(0, playingQueue.lastIndex)
+        }
+        val originalPlayingQueue = queues.original.mapNotNull { songsById[it] }
+        return RestoredQueues(playingQueue, originalPlayingQueue, restoredPosition)
     }
 
-    override fun onDowngrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        // If we ever have downgrade, drop the table to be safe
-        db.execSQL("DROP TABLE IF EXISTS $PLAYING_QUEUE_TABLE_NAME")
-        db.execSQL("DROP TABLE IF EXISTS $ORIGINAL_PLAYING_QUEUE_TABLE_NAME")
-        onCreate(db)
+    private fun hydrate(ids: LongArray): List<Song> {
+        val songsById = get<RealSongRepository>().snapshot().songsById
+        return ids.mapNotNull { songsById[it] }
     }
 
     @Synchronized
-    fun saveQueues(playingQueue: List<Song>, originalPlayingQueue: List<Song>) {
-        saveQueue(PLAYING_QUEUE_TABLE_NAME, playingQueue)
-        saveQueue(ORIGINAL_PLAYING_QUEUE_TABLE_NAME, originalPlayingQueue)
+    private fun loadQueues(): QueueIds {
+        savedQueues?.let { return it }
+        val queues = try {
+            readSnapshot()?.let { replayLog(it) } ?: importLegacyQueues()
+        } catch (e: IOException) {
+            Log.e(TAG, "Couldn't read the saved playing queues", e)
+            null
+        }
+        if (queues == null) {
+            compactOnNextSave = true
+            return QueueIds.EMPTY
+        }
+        savedQueues = queues
+        return queues
     }
 
-    @Synchronized
-    private fun saveQueue(tableName: String, queue: List<Song>) {
-        val database = writableDatabase
-        database.beginTransaction()
-        try {
-            database.delete(tableName, null, null)
-            database.setTransactionSuccessful()
-        } finally {
-            database.endTransaction()
+    private fun readSnapshot(): QueueIds? {
+        if (!snapshotFile.baseFile.exists()) return null
+        DataInputStream(BufferedInputStream(snapshotFile.openRead())).use { input ->
+            if (input.readInt() != SNAPSHOT_MAGIC) return null
+            generation = input.readInt()
+            return QueueIds(input.readIds(), input.readIds())
         }
+    }
 
-        val numProcess = 20
-        var position = 0
-        while (position < queue.size) {
-            database.beginTransaction()
+    private fun replayLog(snapshot: QueueIds): QueueIds {
+        if (!logFile.exists()) {
+            compactOnNextSave = true
+            return snapshot
+        }
+        var playing = snapshot.playing
+        var original = snapshot.original
+        DataInputStream(BufferedInputStream(logFile.inputStream())).use { input ->
             try {
-                var i = position
-                while (i < queue.size && i < position + numProcess) {
-                    val song = queue[i]
-                    val values = ContentValues(12)
-                    values.put(AudioColumns._ID, song.id)
-                    values.put(AudioColumns.DATA, song.data)
-                    values.put(AudioColumns.TITLE, song.title)
-                    values.put(AudioColumns.TRACK, song.trackNumber)
-                    values.put(AudioColumns.YEAR, song.year)
-                    values.put(AudioColumns.SIZE, song.size)
-                    values.put(AudioColumns.DURATION, song.duration)
-                    values.put(AudioColumns.DATE_ADDED, song.dateAdded)
-                    values.put(AudioColumns.DATE_MODIFIED, song.dateModified)
-                    values.put(AudioColumns.ALBUM_ID, song.albumId)
-                    values.put(AudioColumns.ALBUM, song.albumName)
-                    values.put(AudioColumns.ARTIST_ID, song.artistId)
-                    values.put(AudioColumns.ARTIST, song.artistName)
-                    values.put(AudioColumns.ALBUM_ARTIST, song.albumArtistName)
-                    database.insert(tableName, null, values)
-                    i++
+                if (input.readInt() != LOG_MAGIC || input.readInt() != generation) {
+                    // this log belongs to an older snapshot
+                    compactOnNextSave = true
+                    return snapshot
+                }
+                while (true) {
+                    val queue = input.read()
+                    if (queue == -1) break
+                    val start = input.readInt()
+                    val deleteCount = input.readInt()
+                    val inserted = input.readIds()
+                    if (queue == PLAYING_QUEUE) {
+                        playing = playing.splice(start, deleteCount, inserted)
+                    } else {
+                        original = original.splice(start, deleteCount, inserted)
+                    }
                 }
-                database.setTransactionSuccessful()
-            } finally {
-                database.endTransaction()
-                position += numProcess
+            } catch (e: EOFException) {
+                // The last record was only partially written, it's dropped and
+                // the next save must start a new log.
+                compactOnNextSave = true
             }
         }
+        return QueueIds(playing, original)
     }
 
-    val savedPlayingQueue: List<Song>
-        get() = getQueue(PLAYING_QUEUE_TABLE_NAME)
+    private fun importLegacyQueues(): QueueIds? {
+        if (!legacyDatabase.exists()) return null
+        val queues = try {
+            SQLiteDatabase.openDatabase(legacyDatabase.path, null, SQLiteDatabase.OPEN_READONLY).use { db ->
+                QueueIds(db.readLegacyIds("playing_queue"), db.readLegacyIds("original_playing_queue"))
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't import the legacy playing queues", e)
+            null
+        }
+        if (queues != null) {
+            compact(queues)
+        }
+        SQLiteDatabase.deleteDatabase(legacyDatabase)
+        return queues
+    }
 
-    val savedOriginalPlayingQueue: List<Song>
-        get() = getQueue(ORIGINAL_PLAYING_QUEUE_TABLE_NAME)
+    private fun SQLiteDatabase.readLegacyIds(tableName: String): LongArray {
+        return query(tableName, arrayOf(AudioColumns._ID), null, null, null, null, null).use { cursor ->
+            LongArray(cursor.count) {
+                cursor.moveToNext()
+                cursor.getLong(0)
+            }
+        }
+    }
+
+    private fun compact(queues: QueueIds) {
+        val newGeneration = generation + 1
+        val stream = snapshotFile.startWrite()
+        try {
+            val output = DataOutputStream(BufferedOutputStream(stream))
+            output.writeInt(SNAPSHOT_MAGIC)
+            output.writeInt(newGeneration)
+            output.writeIds(queues.playing)
+            output.writeIds(queues.original)
+            output.flush()
+            snapshotFile.finishWrite(stream)
+        } catch (e: IOException) {
+            snapshotFile.failWrite(stream)
+            throw e
+        }
+        generation = newGeneration
+        DataOutputStream(BufferedOutputStream(FileOutputStream(logFile, false))).use { output ->
+            output.writeInt(LOG_MAGIC)
+            output.writeInt(newGeneration)
+        }
+        compactOnNextSave = false
+    }
+
+    private fun append(splices: List<Splice>) {
+        DataOutputStream(BufferedOutputStream(FileOutputStream(logFile, true))).use { output ->
+            for (splice in splices) {
+                output.writeByte(splice.queue)
+                output.writeInt(splice.start)
+                output.writeInt(splice.deleteCount)
+                output.writeIds(splice.inserted)
+            }
+        }
+    }
+
+    class RestoredQueues(
+        val playingQueue: List<Song>,
+        val originalPlayingQueue: List<Song>,
+        val position: Int
+    )
+
+    private class QueueIds(val playing: LongArray, val original: LongArray) {
+        companion object {
+            val EMPTY = QueueIds(LongArray(0), LongArray(0))
+        }
+    }
 
-    private fun getQueue(tableName: String): List<Song> {
-        val songRepository = get<SongRepository>()
-        val cursor = readableDatabase.query(tableName, null, null, null, null, null, null)
-        return songRepository.songs(cursor)
+    /**
+     * Replaces [deleteCount] IDs at [start] with the [inserted] ones.
+     */
+    private class Splice(val queue: Int, val start: Int, val deleteCount: Int, val inserted: LongArray) {
+        val byteSize: Int
+            get() = 1 + 4 + 4 + 4 + inserted.size * 8
     }
 
     companion object {
-        private const val DATABASE_NAME = "music_playback_state.db"
-        private const val PLAYING_QUEUE_TABLE_NAME = "playing_queue"
-        private const val ORIGINAL_PLAYING_QUEUE_TABLE_NAME = "original_playing_queue"
-        private const val VERSION = 2
+        private const val TAG = "PlaybackQueueStore"
+
+        private const val SNAPSHOT_FILE_NAME = "playing_queue.bin"
+        private const val LOG_FILE_NAME = "playing_queue.log"
+        private const val LEGACY_DATABASE_NAME = "music_playback_state.db"
+
+        private const val SNAPSHOT_MAGIC = 0x42505153 // BPQS
+        private const val LOG_MAGIC = 0x4250514c // BPQL
+
+        private const val PLAYING_QUEUE = 0
+        private const val ORIGINAL_PLAYING_QUEUE = 1
+
+        private const val MIN_COMPACTION_SIZE = 64 * 1024L
 
         private var sInstance: PlaybackQueueStore? = null
 
@@ -161,5 +304,47 @@ class PlaybackQueueStore private constructor(context: Context) :
             }
             return sInstance!!
         }
+
+        private fun List<Song>.toIds() = LongArray(size) { this[it].id }
+
+        private fun DataOutputStream.writeIds(ids: LongArray) {
+            writeInt(ids.size)
+            for (id in ids) writeLong(id)
+        }
+
+        private fun DataInputStream.readIds(): LongArray {
+            val size = readInt()
+            if (size < 0) throw IOException("Invalid queue size: $size")
+            return LongArray(size) { readLong() }
+        }
+
+        private fun LongArray.splice(start: Int, deleteCount: Int, inserted: LongArray): LongArray {
+            if (start < 0 || deleteCount < 0 || start + deleteCount > size) {
+                throw IOException("Invalid queue change at $start ($deleteCount of $size)")
+            }
+            val result = LongArray(size - deleteCount + inserted.size)
+            copyInto(result, 0, 0, start)
+            inserted.copyInto(result, start)
+            copyInto(result, start + inserted.size, start + deleteCount, size)
+            return result
+        }
+
+        /**
+         * Finds the range that changed between both versions of a queue by skipping
+         * their common prefix and suffix.
+         */
+        private fun diff(queue: Int, old: LongArray, new: LongArray): Splice? {
+            val commonSize = min(old.size, new.size)
+            var prefix = 0
+            while (prefix < commonSize && old[prefix] == new[prefix]) {
+                prefix++
+            }
+            if (prefix == old.size && prefix == new.size) return null
+            var suffix = 0
+            while (suffix < commonSize - prefix && old[old.size - 1 - suffix] == new[new.size - 1 - suffix]) {
+                suffix++
+            }
+            return Splice(queue, prefix, old.size - prefix - suffix, new.copyOfRange(prefix, new.size - suffix))
+        }
     }
 }
@@ -36,13 +36,7 @@ interface AlbumRepository {
 class RealAlbumRepository(private val songRepository: RealSongRepository) : AlbumRepository {
 
     override fun album(albumId: Long): Album {
-        val cursor = songRepository.makeSongCursor(
-            AudioColumns.ALBUM_ID + "=?",
-            arrayOf(albumId.toString()),
-            DEFAULT_SORT_ORDER
-        )
-        val songs = songRepository.songs(cursor)
-        val album = Album(albumId, songs)
+        val album = songRepository.snapshot().albumsById[albumId] ?: Album(albumId, emptyList())
         return sortAlbumSongs(album)
     }
 
@@ -54,13 +48,10 @@ class RealAlbumRepository(private val songRepository: RealSongRepository) : Albu
     }
 
     override fun albums(): List<Album> {
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor(null, null, DEFAULT_SORT_ORDER)
-        )
         val minSongCount = Preferences.minimumSongCountForAlbum
-        return splitIntoAlbums(songs).filter {
+        return songRepository.snapshot().albums.filter {
             it.songCount >= minSongCount
-        }
+        }.sortedAlbums(SortOrder.albumSortOrder)
     }
 
     override fun similarAlbums(album: Album): List<Album> {
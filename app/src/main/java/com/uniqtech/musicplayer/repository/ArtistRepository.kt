@@ -26,6 +26,7 @@ import com.uniqtech.musicplayer.model.Artist
 import com.uniqtech.musicplayer.providers.MediaQueryDispatcher
 import com.uniqtech.musicplayer.util.Preferences
 import com.uniqtech.musicplayer.util.sort.SortOrder
+import com.uniqtech.musicplayer.util.sort.sortedAlbums
 import com.uniqtech.musicplayer.util.sort.sortedArtists
 
 interface ArtistRepository {
@@ -44,34 +45,21 @@ class RealArtistRepository(
 ) : ArtistRepository {
 
     override fun artists(): List<Artist> {
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor(null, null, DEFAULT_SORT_ORDER)
-        )
         val minimumSongCount = Preferences.minimumSongCountForArtist
-        val artists = splitIntoArtists(albumRepository.splitIntoAlbums(songs)).filter {
+        val artists = songRepository.snapshot().artists.filter {
             it.songCount >= minimumSongCount
         }
         return sortArtists(artists)
     }
 
     override fun artist(artistId: Long): Artist {
+        val snapshot = songRepository.snapshot()
         if (artistId == Artist.VARIOUS_ARTISTS_ID) {
             // Get Various Artists
-            val songs = songRepository.songs(
-                songRepository.makeSongCursor(null, null, DEFAULT_SORT_ORDER)
-            )
-            val albums = albumRepository.splitIntoAlbums(songs)
-                .filter { it.albumArtistName == Artist.VARIOUS_ARTISTS_DISPLAY_NAME }
-            return Artist(Artist.VARIOUS_ARTISTS_ID, albums)
+            val albums = snapshot.albums.filter { it.albumArtistName == Artist.VARIOUS_ARTISTS_DISPLAY_NAME }
+            return Artist(Artist.VARIOUS_ARTISTS_ID, albums.sortedAlbums(SortOrder.albumSortOrder))
         }
-
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor(
-                AudioColumns.ARTIST_ID + "=?",
-                arrayOf(artistId.toString()),
-                DEFAULT_SORT_ORDER
-            )
-        )
+        val songs = snapshot.songsByArtist[artistId].orEmpty()
         return Artist(artistId, albumRepository.splitIntoAlbums(songs))
     }
 
@@ -84,30 +72,21 @@ class RealArtistRepository(
     }
 
     override fun albumArtists(): List<Artist> {
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor(null, null, "lower(${AudioColumns.ALBUM_ARTIST})")
-        )
         val minimumSongCount = Preferences.minimumSongCountForArtist
-        val albumArtists = splitIntoAlbumArtists(albumRepository.splitIntoAlbums(songs)).filter {
+        val albumArtists = songRepository.snapshot().albumArtists.filter {
             it.songCount >= minimumSongCount
         }
         return sortArtists(albumArtists)
     }
 
     override fun albumArtist(artistName: String): Artist {
+        val snapshot = songRepository.snapshot()
         if (artistName == Artist.VARIOUS_ARTISTS_DISPLAY_NAME) {
             // Get Various Artists
-            val songs = songRepository.songs(
-                songRepository.makeSongCursor(null, null, DEFAULT_SORT_ORDER)
-            )
-            val albums = albumRepository.splitIntoAlbums(songs)
-                .filter { it.albumArtistName == Artist.VARIOUS_ARTISTS_DISPLAY_NAME }
-            return Artist(Artist.VARIOUS_ARTISTS_ID, albums, true)
+            val albums = snapshot.albums.filter { it.albumArtistName == Artist.VARIOUS_ARTISTS_DISPLAY_NAME }
+            return Artist(Artist.VARIOUS_ARTISTS_ID, albums.sortedAlbums(SortOrder.albumSortOrder), true)
         }
-
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor("${AudioColumns.ALBUM_ARTIST}=?", arrayOf(artistName), DEFAULT_SORT_ORDER)
-        )
+        val songs = snapshot.songsByAlbumArtist[artistName].orEmpty()
         return Artist(artistName, albumRepository.splitIntoAlbums(songs), true)
     }
 
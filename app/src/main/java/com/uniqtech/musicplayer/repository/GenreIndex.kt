@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.repository
+
+import com.uniqtech.musicplayer.model.Genre
+
+/**
+ * All the genres of the library along with their song count, built in a single
+ * pass for a given library [version].
+ */
+class GenreIndex(
+    val version: Long,
+    val genres: List<Genre>,
+    private val memberIds: Map<Long, List<Long>>
+) {
+
+    private val genresById = genres.associateBy { it.id }
+    private val genresByName = genres.associateBy { it.name }
+
+    fun genre(genreId: Long): Genre? = genresById[genreId]
+
+    fun genre(name: String): Genre? = genresByName[name]
+
+    /**
+     * The IDs of the songs of the given genre, as long as they are known. They're only
+     * available when the index has been built from the library snapshot (Android R+).
+     */
+    fun memberIds(genreId: Long): List<Long>? = memberIds[genreId]
+}
@@ -25,6 +25,8 @@ import android.provider.BaseColumns
 import android.provider.MediaStore
 import android.provider.MediaStore.Audio.AudioColumns
 import android.provider.MediaStore.Audio.Genres
+import android.util.Log
+import com.uniqtech.musicplayer.extensions.hasR
 import com.uniqtech.musicplayer.extensions.utilities.getLongSafe
 import com.uniqtech.musicplayer.extensions.utilities.getStringSafe
 import com.uniqtech.musicplayer.extensions.utilities.mapIfValid
@@ -50,41 +52,56 @@ class RealGenreRepository(
     private val songRepository: RealSongRepository
 ) : GenreRepository {
 
+    @Volatile
+    private var genreIndex: GenreIndex? = null
+
     override suspend fun genres(query: String): List<Genre> {
-        return getGenresFromCursor(
-            makeGenreCursor(selection = "${Genres.NAME} LIKE ?", selectionValues = arrayOf("%$query%"))
-        )
+        return genreIndex().genres.filter { it.name.contains(query, ignoreCase = true) }
     }
 
     override suspend fun genres(): List<Genre> {
-        return getGenresFromCursor(makeGenreCursor()).sortedGenres(SortOrder.genreSortOrder)
+        return genreIndex().genres.sortedGenres(SortOrder.genreSortOrder)
     }
 
     override suspend fun genre(song: Song): Genre {
+        val genreIndex = genreIndex()
+        if (hasR()) {
+            val genreName = song.genreName
+            return if (genreName.isNullOrEmpty()) Genre.EmptyGenre
+            else genreIndex.genre(genreName) ?: Genre.EmptyGenre
+        }
+
         val uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon()
             .appendEncodedPath(song.id.toString())
             .appendEncodedPath("genres")
             .build()
 
-        return makeGenreCursor(uri = uri).use {
-            it.takeOrDefault(Genre.EmptyGenre) { getGenreFromCursor(this) }
+        val genreId = makeGenreCursor(uri = uri).use {
+            it.takeOrDefault(-1L) { getLongSafe(Genres._ID) }
         }
+        return genreIndex.genre(genreId) ?: Genre.EmptyGenre
     }
 
     override suspend fun songs(genreId: Long): List<Song> {
         // The genres table only stores songs that have a genre specified,
         // so we need to get songs without a genre a different way.
-        return if (genreId == -1L) {
-            getSongsWithNoGenre()
-        } else songRepository.songs(makeGenreSongCursor(genreId)).sortedSongs(SortOrder.genreSongSortOrder)
+        if (genreId == -1L) {
+            return getSongsWithNoGenre()
+        }
+        val songs = indexedSongs(genreId) ?: songRepository.songs(makeGenreSongCursor(genreId))
+        return songs.sortedSongs(SortOrder.genreSongSortOrder)
     }
 
     override suspend fun songs(genreId: Long, query: String): List<Song> {
         // The genres table only stores songs that have a genre specified,
         // so we need to get songs without a genre a different way.
-        return if (genreId == -1L) {
-            emptyList()
-        } else songRepository.songs(
+        if (genreId == -1L) {
+            return emptyList()
+        }
+        indexedSongs(genreId)?.let { songs ->
+            return songs.filter { it.title.contains(query, ignoreCase = true) }
+        }
+        return songRepository.songs(
             makeGenreSongCursor(
                 genreId,
                 "${RealSongRepository.BASE_SELECTION} AND ${AudioColumns.TITLE} LIKE ?",
@@ -97,10 +114,71 @@ class RealGenreRepository(
         return songRepository.song(makeGenreSongCursor(genreId))
     }
 
+    /**
+     * Returns the songs of the given genre from the library snapshot, or null if the
+     * index doesn't know its members (before Android R) and the MediaStore must be queried.
+     */
+    private fun indexedSongs(genreId: Long): List<Song>? {
+        val memberIds = genreIndex().memberIds(genreId) ?: return null
+        val songsById = songRepository.snapshot().songsById
+        return memberIds.mapNotNull { songsById[it] }
+    }
+
+    /**
+     * Returns the genre index for the current version of the library, building
+     * it if needed.
+     */
+    private fun genreIndex(): GenreIndex {
+        val snapshot = songRepository.snapshot()
+        genreIndex?.takeIf { it.version == snapshot.version }?.let { return it }
+        synchronized(this) {
+            genreIndex?.takeIf { it.version == snapshot.version }?.let { return it }
+            return buildGenreIndex(snapshot).also { genreIndex = it }
+        }
+    }
+
+    private fun buildGenreIndex(snapshot: LibrarySnapshot): GenreIndex {
+        if (hasR()) {
+            // Since Android R the genre of each song is part of the library
+            // snapshot, so we just need to match the names with their IDs.
+            val memberIds = HashMap<Long, List<Long>>()
+            val genres = makeGenreCursor().use {
+                it.mapIfValid {
+                    val id = getLongSafe(Genres._ID)
+                    val name = getStringSafe(Genres.NAME) ?: ""
+                    val songs = snapshot.genres[name].orEmpty()
+                    memberIds[id] = songs.map { song -> song.id }
+                    Genre(id, name, songs.size)
+                }
+            }
+            return GenreIndex(snapshot.version, genres.filterValid(), memberIds)
+        }
+
+        // On older versions we let the MediaStore count the members of all
+        // genres in the same query, falling back to a query per genre if the
+        // projection is rejected.
+        val genres = try {
+            makeGenreCursor(projection = arrayOf(Genres._ID, Genres.NAME, GENRE_SONG_COUNT)).use {
+                it.mapIfValid { Genre(getLongSafe(Genres._ID), getStringSafe(Genres.NAME) ?: "", getInt(2)) }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Couldn't count the genre members in a single query", e)
+            makeGenreCursor().use {
+                it.mapIfValid {
+                    val id = getLongSafe(Genres._ID)
+                    Genre(id, getStringSafe(Genres.NAME) ?: "", getSongCount(id))
+                }
+            }
+        }
+        return GenreIndex(snapshot.version, genres.filterValid(), emptyMap())
+    }
+
+    private fun List<Genre>.filterValid() = filter { genre -> genre.id > -1 && genre.songCount > 0 }
+
     private fun getSongCount(genreId: Long): Int {
         contentResolver.query(
             Genres.Members.getContentUri(MediaStore.VOLUME_EXTERNAL, genreId),
-            null,
+            arrayOf(Genres.Members.AUDIO_ID),
             null,
             null,
             null
@@ -109,35 +187,22 @@ class RealGenreRepository(
         }
     }
 
-    private fun getGenreFromCursor(cursor: Cursor): Genre {
-        val id = cursor.getLongSafe(Genres._ID)
-        val name = cursor.getStringSafe(Genres.NAME)
-        val songCount = getSongCount(id)
-        return Genre(id, name ?: "", songCount)
-    }
-
     private fun getSongsWithNoGenre(): List<Song> {
         val selection = "${BaseColumns._ID} NOT IN (SELECT ${Genres.Members.AUDIO_ID} FROM audio_genres_map)"
         return songRepository.songs(songRepository.makeSongCursor(selection, null))
             .sortedSongs(SortOrder.genreSongSortOrder)
     }
 
-    private fun getGenresFromCursor(cursor: Cursor?): List<Genre> {
-        return cursor.use {
-            it.mapIfValid { getGenreFromCursor(this) }
-                .filter { genre -> genre.id > -1 && genre.songCount > 0 }
-        }
-    }
-
     private fun makeGenreCursor(
         uri: Uri = Genres.EXTERNAL_CONTENT_URI,
+        projection: Array<String> = arrayOf(Genres._ID, Genres.NAME),
         selection: String? = null,
         selectionValues: Array<String>? = null
     ): Cursor? {
         return try {
             contentResolver.query(
                 uri,
-                arrayOf(Genres._ID, Genres.NAME),
+                projection,
                 selection,
                 selectionValues,
                 Genres.DEFAULT_SORT_ORDER
@@ -164,4 +229,11 @@ class RealGenreRepository(
             return null
         }
     }
+
+    companion object {
+        private const val TAG = "GenreRepository"
+
+        private const val GENRE_SONG_COUNT =
+            "(SELECT COUNT(*) FROM audio_genres_map WHERE audio_genres_map.genre_id = audio_genres._id) AS song_count"
+    }
 }
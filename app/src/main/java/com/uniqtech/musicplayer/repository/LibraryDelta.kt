@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.repository
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.provider.MediaStore
+import com.uniqtech.musicplayer.extensions.hasR
+import com.uniqtech.musicplayer.model.Song
+
+/**
+ * Typed difference between two versions of the library. Songs in [updated] keep
+ * their IDs but carry new metadata.
+ */
+class LibraryDelta(
+    val added: List<Song>,
+    val updated: List<Song>,
+    val removedIds: Set<Long>
+) {
+
+    val updatedById: Map<Long, Song> by lazy {
+        updated.associateBy { it.id }
+    }
+
+    val isEmpty: Boolean
+        get() = added.isEmpty() && updated.isEmpty() && removedIds.isEmpty()
+
+    override fun toString(): String {
+        return "LibraryDelta{added=${added.size}, updated=${updated.size}, removed=${removedIds.size}}"
+    }
+}
+
+/**
+ * Changes published by [LibraryStore].
+ */
+sealed class LibraryChange {
+    /**
+     * The library was patched in place, the new snapshot is already available.
+     */
+    class Delta(val delta: LibraryDelta) : LibraryChange()
+
+    /**
+     * The library was invalidated as a whole and must be loaded again.
+     */
+    object Reload : LibraryChange()
+}
+
+/**
+ * The point in the MediaStore history a snapshot was loaded at. On Android R and
+ * later this is the generation of each external volume, on older versions only
+ * a [dateModified] watermark (in seconds) is available.
+ */
+class LibrarySyncToken(
+    val mediaStoreVersion: String?,
+    val generations: Map<String, Long>?,
+    val dateModified: Long
+) {
+    companion object {
+        @SuppressLint("NewApi")
+        fun capture(context: Context): LibrarySyncToken {
+            val dateModified = System.currentTimeMillis() / 1000
+            if (hasR()) {
+                return runCatching {
+                    val generations = MediaStore.getExternalVolumeNames(context).associateWith {
+                        MediaStore.getGeneration(context, it)
+                    }
+                    LibrarySyncToken(MediaStore.getVersion(context), generations, dateModified)
+                }.getOrElse {
+                    LibrarySyncToken(null, null, dateModified)
+                }
+            }
+            return LibrarySyncToken(null, null, dateModified)
+        }
+    }
+}
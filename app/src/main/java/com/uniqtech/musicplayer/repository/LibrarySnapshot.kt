@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.repository
+
+import com.uniqtech.musicplayer.model.Album
+import com.uniqtech.musicplayer.model.Artist
+import com.uniqtech.musicplayer.model.ReleaseYear
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.util.sort.SortOrder
+import com.uniqtech.musicplayer.util.sort.sortedAlbums
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Immutable view of the device library as loaded from the MediaStore at a given
+ * [version]. Groupings are computed at most once per snapshot and shared by every
+ * repository that reads from it, so switching between library tabs doesn't need
+ * to query and regroup the MediaStore again.
+ *
+ * Songs aren't kept in any particular order: they're loaded in the MediaStore
+ * default order, and songs added by a [LibraryDelta] are appended. Consumers sort
+ * them in the order they need.
+ */
+class LibrarySnapshot internal constructor(
+    val version: Long,
+    internal val filter: LibraryFilter,
+    internal val syncToken: LibrarySyncToken,
+    val songs: List<Song>
+) {
+
+    val songsById: Map<Long, Song> by lazy {
+        songs.associateBy { it.id }
+    }
+
+    val albums: List<Album> by lazy {
+        songs.groupBy { it.albumId }.map { Album(it.key, it.value) }
+    }
+
+    val albumsById: Map<Long, Album> by lazy {
+        albums.associateBy { it.id }
+    }
+
+    /**
+     * Artists, each one with its albums in the current album sort order.
+     */
+    val artists: List<Artist>
+        get() = sortedGrouping("artists") { albums ->
+            albums.groupBy { it.artistId }.map { Artist(it.key, it.value) }
+        }
+
+    val songsByArtist: Map<Long, List<Song>> by lazy {
+        songs.groupBy { it.artistId }
+    }
+
+    /**
+     * Album artists, each one with its albums in the current album sort order.
+     */
+    val albumArtists: List<Artist>
+        get() = sortedGrouping("album_artists") { albums ->
+            albums.groupBy { it.albumArtistName }
+                .filterKeys { !it.isNullOrEmpty() }
+                .map { (name, albums) ->
+                    if (name == Artist.VARIOUS_ARTISTS_DISPLAY_NAME) {
+                        Artist(Artist.VARIOUS_ARTISTS_ID, albums, true)
+                    } else {
+                        Artist(albums[0].artistId, albums, true)
+                    }
+                }
+        }
+
+    val songsByAlbumArtist: Map<String, List<Song>> by lazy {
+        songs.filterNot { it.albumArtistName.isNullOrEmpty() }.groupBy { it.albumArtistName!! }
+    }
+
+    /**
+     * Songs grouped by the value of their genre column. This is only populated
+     * on Android R and later, where MediaStore exposes the genre of each song.
+     */
+    val genres: Map<String, List<Song>> by lazy {
+        songs.filterNot { it.genreName.isNullOrEmpty() }.groupBy { it.genreName!! }
+    }
+
+    val years: List<ReleaseYear> by lazy {
+        songs.filter { it.year > 0 }.groupBy { it.year }.map { ReleaseYear(it.key, it.value) }
+    }
+
+    val yearsByValue: Map<Int, ReleaseYear> by lazy {
+        years.associateBy { it.year }
+    }
+
+    private val sortedGroupings = ConcurrentHashMap<String, List<Artist>>()
+
+    /**
+     * Groups the albums sorted by the current album sort order, so the albums of
+     * each group keep that order. The result is reused until the order changes.
+     */
+    private fun sortedGrouping(name: String, group: (List<Album>) -> List<Artist>): List<Artist> {
+        val sortOrder = SortOrder.albumSortOrder
+        val key = "$name:${sortOrder.value}:${sortOrder.isDescending}"
+        return sortedGroupings.getOrPut(key) { group(albums.sortedAlbums(sortOrder)) }
+    }
+
+    val isEmpty: Boolean
+        get() = songs.isEmpty()
+
+    /**
+     * Creates a new snapshot with the given [delta] applied. Updated songs keep their
+     * position, added songs are appended, since every consumer sorts the songs anyway.
+     */
+    internal fun applying(delta: LibraryDelta, version: Long, syncToken: LibrarySyncToken): LibrarySnapshot {
+        val updatedById = delta.updatedById
+        val newSongs = ArrayList<Song>(songs.size + delta.added.size)
+        for (song in songs) {
+            if (song.id in delta.removedIds)
+                continue
+
+            newSongs.add(updatedById[song.id] ?: song)
+        }
+        newSongs.addAll(delta.added)
+        return LibrarySnapshot(version, filter, syncToken, newSongs)
+    }
+}
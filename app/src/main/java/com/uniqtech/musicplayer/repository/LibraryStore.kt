@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.repository
+
+import android.content.Context
+import androidx.room.InvalidationTracker
+import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.util.Preferences
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Preference values that affect which songs are part of the library. A snapshot
+ * loaded with a different filter than the current one is considered stale.
+ */
+internal data class LibraryFilter(
+    val minimumSongDuration: Int,
+    val whitelistEnabled: Boolean,
+    val blacklistEnabled: Boolean
+) {
+    companion object {
+        fun current() = LibraryFilter(
+            Preferences.minimumSongDuration,
+            Preferences.whitelistEnabled,
+            Preferences.blacklistEnabled
+        )
+    }
+}
+
+/**
+ * Holds the current [LibrarySnapshot]. The library is loaded from the MediaStore
+ * once and kept until it's invalidated, either by a MediaStore change (see
+ * [com.uniqtech.musicplayer.service.MediaStoreObserver]) or by an edit to the
+ * blacklist/whitelist, which is detected through Room's invalidation tracker.
+ * MediaStore changes are usually applied in place as a [LibraryDelta] (see
+ * [com.uniqtech.musicplayer.providers.MediaStoreSyncer]).
+ *
+ * Every change is published through [changes].
+ */
+class LibraryStore(private val context: Context, database: BoomingDatabase) {
+
+    private val generation = AtomicLong()
+    private val lock = Any()
+
+    private val _changes = MutableSharedFlow<LibraryChange>(
+        extraBufferCapacity = 64,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+    val changes: SharedFlow<LibraryChange> = _changes.asSharedFlow()
+
+    @Volatile
+    private var current: LibrarySnapshot? = null
+
+    /**
+     * The version of the library as currently known. It changes every time
+     * the library is invalidated, even if no new snapshot has been loaded yet.
+     */
+    val version: Long
+        get() = generation.get()
+
+    init {
+        database.invalidationTracker.addObserver(object : InvalidationTracker.Observer("InclExclEntity") {
+            override fun onInvalidated(tables: Set<String>) {
+                invalidate()
+            }
+        })
+    }
+
+    /**
+     * Returns the current snapshot, loading a new one with [loader] if there
+     * isn't a valid one. Concurrent callers wait for a single load.
+     */
+    fun obtain(loader: () -> List<Song>): LibrarySnapshot {
+        current?.takeIf { isValid(it) }?.let { return it }
+        synchronized(lock) {
+            current?.takeIf { isValid(it) }?.let { return it }
+            // The version and the sync token are read before loading, so a change
+            // that happens while we are loading is not lost.
+            val version = generation.get()
+            val syncToken = LibrarySyncToken.capture(context)
+            val snapshot = LibrarySnapshot(version, LibraryFilter.current(), syncToken, loader())
+            // An empty library is cheap to load again, and it usually means
+            // that we don't have the storage permission yet.
+            current = snapshot.takeUnless { it.isEmpty }
+            return snapshot
+        }
+    }
+
+    /**
+     * Returns the current snapshot if it's still valid, without loading anything.
+     */
+    fun peek(): LibrarySnapshot? {
+        return current?.takeIf { isValid(it) }
+    }
+
+    /**
+     * Replaces [base] with a new snapshot that has [delta] applied. This fails if
+     * [base] is no longer the current snapshot, in which case the caller should
+     * fall back to [invalidate].
+     */
+    fun apply(base: LibrarySnapshot, delta: LibraryDelta, syncToken: LibrarySyncToken): Boolean {
+        synchronized(lock) {
+            if (current !== base || !isValid(base))
+                return false
+
+            // If nothing changed we keep the old token, the next
+            // sync will just look a little further back in time.
+            if (!delta.isEmpty) {
+                current = base.applying(delta, generation.incrementAndGet(), syncToken)
+                _changes.tryEmit(LibraryChange.Delta(delta))
+            }
+            return true
+        }
+    }
+
+    fun invalidate() {
+        generation.incrementAndGet()
+        _changes.tryEmit(LibraryChange.Reload)
+    }
+
+    private fun isValid(snapshot: LibrarySnapshot): Boolean {
+        return snapshot.version == generation.get() && snapshot.filter == LibraryFilter.current()
+    }
+}
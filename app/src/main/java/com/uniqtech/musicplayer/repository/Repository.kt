@@ -95,10 +95,8 @@ interface Repository {
     suspend fun playCountSongs(): List<PlayCountEntity>
     suspend fun playCountSongsFrom(songs: List<Song>): List<PlayCountEntity>
     suspend fun findSongInPlayCount(songId: Long): PlayCountEntity?
-    suspend fun upsertSongInPlayCount(playCountEntity: PlayCountEntity)
     suspend fun deleteSongInPlayCount(playCountEntity: PlayCountEntity)
     suspend fun clearPlayCount()
-    suspend fun upsertSongInHistory(currentSong: Song)
     suspend fun deleteSongInHistory(songId: Long)
     suspend fun clearSongHistory()
     fun historySongs(): List<HistoryEntity>
@@ -329,17 +327,11 @@ class RealRepository(
     override suspend fun findSongInPlayCount(songId: Long): PlayCountEntity? =
         smartRepository.findSongInPlayCount(songId)
 
-    override suspend fun upsertSongInPlayCount(playCountEntity: PlayCountEntity) =
-        smartRepository.upsertSongInPlayCount(playCountEntity)
-
     override suspend fun deleteSongInPlayCount(playCountEntity: PlayCountEntity) =
         smartRepository.deleteSongInPlayCount(playCountEntity)
 
     override suspend fun clearPlayCount() = smartRepository.clearPlayCount()
 
-    override suspend fun upsertSongInHistory(currentSong: Song) =
-        smartRepository.upsertSongInHistory(currentSong)
-
     override suspend fun deleteSongInHistory(songId: Long) =
         smartRepository.deleteSongInHistory(songId)
 
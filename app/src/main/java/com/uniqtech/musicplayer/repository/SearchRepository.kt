@@ -25,6 +25,7 @@ import com.uniqtech.musicplayer.model.Genre
 import com.uniqtech.musicplayer.model.ReleaseYear
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.search.SearchFilter
+import com.uniqtech.musicplayer.search.SearchIndex
 import com.uniqtech.musicplayer.search.SearchQuery
 import com.uniqtech.musicplayer.util.Preferences
 
@@ -36,9 +37,7 @@ interface SearchRepository {
 }
 
 class RealSearchRepository(
-    private val albumRepository: RealAlbumRepository,
-    private val songRepository: RealSongRepository,
-    private val artistRepository: RealArtistRepository,
+    private val searchIndex: SearchIndex,
     private val playlistRepository: RealPlaylistRepository,
     private val genreRepository: GenreRepository,
     private val specialRepository: SpecialRepository
@@ -90,15 +89,15 @@ class RealSearchRepository(
     override suspend fun searchYearSongs(year: ReleaseYear, query: String): List<Song> =
         specialRepository.songs(year.year, query)
 
-    private fun getSongs(query: String) = songRepository.songs(query)
-    private fun getAlbums(query: String) = albumRepository.albums(query)
-    private fun getArtists(query: String, isOnlyAlbumArtists: Boolean) =
+    private suspend fun getSongs(query: String) = searchIndex.songs(query)
+    private suspend fun getAlbums(query: String) = searchIndex.albums(query)
+    private suspend fun getArtists(query: String, isOnlyAlbumArtists: Boolean) =
         if (isOnlyAlbumArtists)
-            artistRepository.albumArtists(query)
-        else artistRepository.artists(query)
+            searchIndex.albumArtists(query)
+        else searchIndex.artists(query)
 
-    private suspend fun getGenres(query: String) = genreRepository.genres(query)
-    private suspend fun getPlaylists(query: String) = playlistRepository.searchPlaylists(query)
+    private suspend fun getGenres(query: String) = searchIndex.genres(query)
+    private suspend fun getPlaylists(query: String) = searchIndex.playlists(query)
 }
 
 internal fun MutableList<Any>.addTitled(results: List<Any>, header: String) {
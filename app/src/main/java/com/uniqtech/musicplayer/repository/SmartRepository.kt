@@ -17,21 +17,18 @@
 
 package com.uniqtech.musicplayer.repository
 
-import android.content.Context
 import android.database.Cursor
 import android.provider.MediaStore.Audio.AudioColumns
 import androidx.lifecycle.LiveData
-import com.uniqtech.musicplayer.database.*
+import com.uniqtech.musicplayer.database.HistoryEntity
+import com.uniqtech.musicplayer.database.PlayCountEntity
 import com.uniqtech.musicplayer.model.Album
 import com.uniqtech.musicplayer.model.Artist
 import com.uniqtech.musicplayer.model.ContentType
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.providers.MediaQueryDispatcher
-import com.uniqtech.musicplayer.providers.databases.HistoryStore
-import com.uniqtech.musicplayer.providers.databases.SongPlayCountStore
+import com.uniqtech.musicplayer.providers.PlayStatsStore
 import com.uniqtech.musicplayer.util.Preferences
-import com.uniqtech.musicplayer.util.cursor.SortedCursorUtil
-import com.uniqtech.musicplayer.util.cursor.SortedLongCursor
 
 interface SmartRepository {
     fun topPlayedSongs(): List<Song>
@@ -45,26 +42,25 @@ interface SmartRepository {
     suspend fun playCountSongs(): List<PlayCountEntity>
     suspend fun playCountEntities(songs: List<Song>): List<PlayCountEntity>
     suspend fun findSongInPlayCount(songId: Long): PlayCountEntity?
-    suspend fun upsertSongInPlayCount(playCountEntity: PlayCountEntity)
     suspend fun deleteSongInPlayCount(playCountEntity: PlayCountEntity)
     suspend fun clearPlayCount()
     fun historySongs(): List<HistoryEntity>
     fun historySongsObservable(): LiveData<List<HistoryEntity>>
-    suspend fun upsertSongInHistory(currentSong: Song)
     suspend fun deleteSongInHistory(songId: Long)
     suspend fun clearSongHistory()
 }
 
 class RealSmartRepository(
-    private val context: Context,
     private val songRepository: RealSongRepository,
     private val albumRepository: RealAlbumRepository,
     private val artistRepository: RealArtistRepository,
-    private val historyDao: HistoryDao,
-    private val playCountDao: PlayCountDao,
+    private val playStatsStore: PlayStatsStore
 ) : SmartRepository {
 
-    override fun topPlayedSongs(): List<Song> = songRepository.songs(makeTopTracksCursor(context))
+    override fun topPlayedSongs(): List<Song> {
+        val songsById = songRepository.snapshot().songsById
+        return playStatsStore.topPlayedIds(NUMBER_OF_TOP_TRACKS).mapNotNull { songsById[it] }
+    }
 
     override fun topAlbums(): List<Album> =
         albumRepository.splitIntoAlbums(topPlayedSongs(), sorted = false)
@@ -85,49 +81,43 @@ class RealSmartRepository(
         artistRepository.splitIntoAlbumArtists(recentAlbums())
 
     override fun notRecentlyPlayedSongs(): List<Song> {
-        val cursor = songRepository.makeSongCursor(null, null, AudioColumns.DATE_ADDED + " ASC")
-        val allSongs = songRepository.songs(cursor).toMutableList()
-        val playedSongs = songRepository.songs(makePlayedTracksCursor(context))
-        val notRecentlyPlayedSongs = songRepository.songs(makeNotRecentPlayedTracksCursor(context))
-        allSongs.removeAll(playedSongs)
+        val snapshot = songRepository.snapshot()
+        val allSongs = snapshot.songs.sortedBy { it.dateAdded }.toMutableList()
+        val playedIds = playStatsStore.historyIds().toHashSet()
+        val notRecentlyPlayedSongs = playStatsStore.historyIdsBefore(Preferences.getHistoryCutoff().interval)
+            .mapNotNull { snapshot.songsById[it] }
+        allSongs.removeAll { it.id in playedIds }
         allSongs.addAll(notRecentlyPlayedSongs)
         return allSongs
     }
 
     override suspend fun playCountSongs(): List<PlayCountEntity> =
-        playCountDao.playCountSongs()
+        playStatsStore.playCountSongs()
 
-    override suspend fun playCountEntities(songs: List<Song>): List<PlayCountEntity> = songs.map {
-        playCountDao.findSongExistInPlayCount(it.id) ?: it.toPlayCount()
-    }
+    override suspend fun playCountEntities(songs: List<Song>): List<PlayCountEntity> =
+        playStatsStore.playCounts(songs)
 
     override suspend fun findSongInPlayCount(songId: Long): PlayCountEntity? =
-        playCountDao.findSongExistInPlayCount(songId)
-
-    override suspend fun upsertSongInPlayCount(playCountEntity: PlayCountEntity) =
-        playCountDao.upsertSongInPlayCount(playCountEntity)
+        playStatsStore.playCount(songId)
 
     override suspend fun deleteSongInPlayCount(playCountEntity: PlayCountEntity) =
-        playCountDao.deleteSongInPlayCount(playCountEntity)
+        playStatsStore.deletePlayCount(playCountEntity)
 
     override suspend fun clearPlayCount() {
-        playCountDao.clearPlayCount()
+        playStatsStore.clearPlayCounts()
     }
 
-    override fun historySongs(): List<HistoryEntity> = historyDao.historySongs()
+    override fun historySongs(): List<HistoryEntity> = playStatsStore.historySongs()
 
     override fun historySongsObservable(): LiveData<List<HistoryEntity>> =
-        historyDao.observableHistorySongs()
-
-    override suspend fun upsertSongInHistory(currentSong: Song) =
-        historyDao.upsertSongInHistory(currentSong.toHistoryEntity(System.currentTimeMillis()))
+        playStatsStore.historySongsObservable()
 
     override suspend fun deleteSongInHistory(songId: Long) {
-        historyDao.deleteSongInHistory(songId)
+        playStatsStore.deleteFromHistory(songId)
     }
 
     override suspend fun clearSongHistory() {
-        historyDao.clearHistory()
+        playStatsStore.clearHistory()
     }
 
     private fun makeLastAddedCursor(query: String?, contentType: ContentType): Cursor? {
@@ -149,61 +139,7 @@ class RealSmartRepository(
         return songRepository.makeSongCursor(queryDispatcher)
     }
 
-    private fun makeTopTracksCursor(context: Context): Cursor? {
-        val cursor = makeCursorFromDatabase(
-            SongPlayCountStore.getInstance(context).getTopPlayedResults(
-                NUMBER_OF_TOP_TRACKS
-            ),
-            SongPlayCountStore.SongPlayCountColumns.ID
-        )
-        return makeCleanCursor(cursor) { missingId: Long ->
-            SongPlayCountStore.getInstance(context).removeItem(missingId)
-        }
-    }
-
-    private fun makeNotRecentPlayedTracksCursor(context: Context): Cursor? {
-        return makeRecentTracksCursorAndCleanUpDatabaseImpl(context, false, reverseOrder = true)
-    }
-
-    private fun makePlayedTracksCursor(context: Context): Cursor? {
-        return makeRecentTracksCursorAndCleanUpDatabaseImpl(context, true, reverseOrder = false)
-    }
-
-    private fun makeRecentTracksCursorAndCleanUpDatabaseImpl(
-        context: Context,
-        ignoreCutoffTime: Boolean,
-        reverseOrder: Boolean
-    ): Cursor? {
-        val cutoff = if (ignoreCutoffTime) 0 else Preferences.getHistoryCutoff().interval
-        val cursor = makeCursorFromDatabase(
-            HistoryStore.getInstance(context).queryRecentIds(cutoff * if (reverseOrder) -1 else 1),
-            HistoryStore.RecentStoreColumns.ID
-        )
-        return makeCleanCursor(cursor) { missingId: Long ->
-            HistoryStore.getInstance(context).removeSongId(missingId)
-        }
-    }
-
-    private fun makeCursorFromDatabase(query: Cursor?, idColumn: String): SortedLongCursor? {
-        query.use {
-            if (it != null) return SortedCursorUtil.makeSortedCursor(it, it.getColumnIndex(idColumn))
-        }
-        return null
-    }
-
-    private fun makeCleanCursor(retCursor: SortedLongCursor?, missingIdConsumer: (Long) -> Unit): SortedLongCursor? {
-        if (retCursor != null) {
-            val missingIds: List<Long> = retCursor.missingIds
-            if (missingIds.isNotEmpty()) {
-                for (missingId in missingIds) {
-                    missingIdConsumer(missingId)
-                }
-            }
-        }
-        return retCursor
-    }
-
     companion object {
         const val NUMBER_OF_TOP_TRACKS = 100
     }
-}
\ No newline at end of file
+}
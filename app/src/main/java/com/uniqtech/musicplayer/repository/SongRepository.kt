@@ -52,10 +52,21 @@ interface SongRepository {
  * @author Christians M. A. (mardous)
  */
 @SuppressLint("InlinedApi")
-class RealSongRepository(private val inclExclDao: InclExclDao) : SongRepository {
+class RealSongRepository(
+    private val inclExclDao: InclExclDao,
+    private val libraryStore: LibraryStore
+) : SongRepository {
+
+    /**
+     * Returns the current library snapshot, loading it from the MediaStore only
+     * if the library has changed since the last time it was loaded.
+     */
+    fun snapshot(): LibrarySnapshot {
+        return libraryStore.obtain { songs(makeSongCursor(null, null)) }
+    }
 
     override fun songs(): List<Song> {
-        return sortedSongs(makeSongCursor(null, null))
+        return snapshot().songs.sortedSongs(SortOrder.songSortOrder)
     }
 
     override fun songs(query: String): List<Song> {
@@ -33,20 +33,11 @@ interface SpecialRepository {
 class RealSpecialRepository(private val songRepository: RealSongRepository) : SpecialRepository {
 
     override suspend fun releaseYears(): List<ReleaseYear> {
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor("${AudioColumns.YEAR} > 0", null)
-        )
-        val grouped = songs.groupBy { it.year }
-        return grouped.map { ReleaseYear(it.key, it.value) }.sortedYears(SortOrder.yearSortOrder)
+        return songRepository.snapshot().years.sortedYears(SortOrder.yearSortOrder)
     }
 
     override suspend fun releaseYear(year: Int): ReleaseYear {
-        val songs = songRepository.songs(
-            songRepository.makeSongCursor(
-                selection = "${AudioColumns.YEAR}=?",
-                selectionValues = arrayOf(year.toString())
-            )
-        )
+        val songs = songRepository.snapshot().yearsByValue[year]?.songs.orEmpty()
         return ReleaseYear(year, songs.sortedSongs(SortOrder.yearSongSortOrder))
     }
 
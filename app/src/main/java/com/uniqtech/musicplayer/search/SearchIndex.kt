@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.search
+
+import android.util.Log
+import androidx.room.InvalidationTracker
+import com.uniqtech.musicplayer.database.BoomingDatabase
+import com.uniqtech.musicplayer.database.PlaylistWithSongs
+import com.uniqtech.musicplayer.database.SearchIndexEntity
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_ALBUM
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_ALBUM_ARTIST
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_ARTIST
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_GENRE
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_PLAYLIST
+import com.uniqtech.musicplayer.database.SearchIndexEntity.Companion.KIND_SONG
+import com.uniqtech.musicplayer.model.Album
+import com.uniqtech.musicplayer.model.Artist
+import com.uniqtech.musicplayer.model.Genre
+import com.uniqtech.musicplayer.model.Song
+import com.uniqtech.musicplayer.repository.GenreRepository
+import com.uniqtech.musicplayer.repository.LibrarySnapshot
+import com.uniqtech.musicplayer.repository.LibraryStore
+import com.uniqtech.musicplayer.repository.RealSongRepository
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.text.Normalizer
+
+/**
+ * Full-text index of the library, used to search songs, albums, artists, genres
+ * and playlists by prefix of any of their words, ignoring case and diacritics.
+ * Results are ranked: items whose text starts with the query come first, then the
+ * ones where the query starts a word, and shorter texts before longer ones.
+ *
+ * The index is kept in the database and brought up to date with the library
+ * snapshot before searching, and in background every time the library changes.
+ * Only the songs that changed since the index was last updated are rewritten;
+ * the other groupings are small and are written again as a whole.
+ */
+class SearchIndex(
+    private val database: BoomingDatabase,
+    private val libraryStore: LibraryStore,
+    private val songRepository: RealSongRepository,
+    private val genreRepository: GenreRepository
+) {
+
+    private val searchIndexDao = database.searchIndexDao()
+    private val playlistDao = database.playlistDao()
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val mutex = Mutex()
+
+    // Terms of every song in the index, by song ID. Loaded from the index itself the
+    // first time it's updated, so a process restart doesn't need to rebuild it.
+    private var indexedSongs: MutableMap<Long, String>? = null
+    private var indexedVersion = -1L
+
+    @Volatile
+    private var playlistsChanged = true
+
+    init {
+        database.invalidationTracker.addObserver(object : InvalidationTracker.Observer("PlaylistEntity") {
+            override fun onInvalidated(tables: Set<String>) {
+                playlistsChanged = true
+            }
+        })
+        scope.launch {
+            libraryStore.changes.collect {
+                // Don't force a library load from here, the next search will do it if needed.
+                libraryStore.peek()?.let { snapshot -> update(snapshot) }
+            }
+        }
+    }
+
+    suspend fun songs(query: String): List<Song> {
+        val snapshot = updatedSnapshot()
+        return search(query, KIND_SONG).mapNotNull { snapshot.songsById[it.toLong()] }
+    }
+
+    suspend fun albums(query: String): List<Album> {
+        val snapshot = updatedSnapshot()
+        return search(query, KIND_ALBUM).mapNotNull { snapshot.albumsById[it.toLong()] }
+    }
+
+    suspend fun artists(query: String): List<Artist> {
+        val snapshot = updatedSnapshot()
+        val refIds = search(query, KIND_ARTIST)
+        if (refIds.isEmpty()) return emptyList()
+        val artistsById = snapshot.artists.associateBy { it.id.toString() }
+        return refIds.mapNotNull { artistsById[it] }
+    }
+
+    suspend fun albumArtists(query: String): List<Artist> {
+        val snapshot = updatedSnapshot()
+        val refIds = search(query, KIND_ALBUM_ARTIST)
+        if (refIds.isEmpty()) return emptyList()
+        val artistsByName = snapshot.albumArtists.associateBy { it.name }
+        return refIds.mapNotNull { artistsByName[it] }
+    }
+
+    suspend fun genres(query: String): List<Genre> {
+        updatedSnapshot()
+        val refIds = search(query, KIND_GENRE)
+        if (refIds.isEmpty()) return emptyList()
+        val genresByName = genreRepository.genres().associateBy { it.name }
+        return refIds.mapNotNull { genresByName[it] }
+    }
+
+    suspend fun playlists(query: String): List<PlaylistWithSongs> {
+        updatedSnapshot()
+        val refIds = search(query, KIND_PLAYLIST).map { it.toLong() }
+        if (refIds.isEmpty()) return emptyList()
+        val playlistsById = playlistDao.playlistsWithSongs(refIds).associateBy { it.playlistEntity.playListId }
+        return refIds.mapNotNull { playlistsById[it] }
+    }
+
+    private suspend fun updatedSnapshot(): LibrarySnapshot {
+        return songRepository.snapshot().also { update(it) }
+    }
+
+    private suspend fun update(snapshot: LibrarySnapshot) = mutex.withLock {
+        val libraryChanged = snapshot.version != indexedVersion
+        val playlistsChanged = this.playlistsChanged
+        if (!libraryChanged && !playlistsChanged) {
+            return@withLock
+        }
+        // Cleared before reading, so an edit made while we update is not lost.
+        this.playlistsChanged = false
+        try {
+            val genres = if (libraryChanged) genreRepository.genres() else null
+            val playlists = if (playlistsChanged) playlistDao.playlists() else null
+            database.runInTransaction {
+                if (libraryChanged) {
+                    updateSongs(snapshot)
+                    replaceEntries(KIND_ALBUM, snapshot.albums) { it.id.toString() to it.name }
+                    replaceEntries(KIND_ARTIST, snapshot.artists) { it.id.toString() to it.name }
+                    replaceEntries(KIND_ALBUM_ARTIST, snapshot.albumArtists) { it.name to it.name }
+                    replaceEntries(KIND_GENRE, genres!!) { it.name to it.name }
+                }
+                if (playlists != null) {
+                    replaceEntries(KIND_PLAYLIST, playlists) { it.playListId.toString() to it.playlistName }
+                }
+            }
+            indexedVersion = snapshot.version
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't update the search index", e)
+            // Compare against the index contents again next time.
+            indexedSongs = null
+            indexedVersion = -1
+            this.playlistsChanged = true
+        }
+    }
+
+    private fun updateSongs(snapshot: LibrarySnapshot) {
+        val indexed = indexedSongs ?: searchIndexDao.entries(KIND_SONG)
+            .associateTo(HashMap()) { it.refId.toLong() to it.terms }
+        // Cleared until the transaction succeeds, since it could be rolled back.
+        indexedSongs = null
+
+        val staleIds = indexed.keys.filterTo(ArrayList()) { it !in snapshot.songsById }
+        val newEntries = ArrayList<SearchIndexEntity>()
+        for (song in snapshot.songs) {
+            val terms = song.searchTerms()
+            val indexedTerms = indexed[song.id]
+            if (indexedTerms != terms) {
+                if (indexedTerms != null) staleIds.add(song.id)
+                newEntries.add(SearchIndexEntity(KIND_SONG, song.id.toString(), terms))
+            }
+        }
+        staleIds.map { it.toString() }.chunked(MAX_BIND_ARGS).forEach {
+            searchIndexDao.deleteEntries(KIND_SONG, it)
+        }
+        searchIndexDao.insertEntries(newEntries)
+
+        staleIds.forEach { indexed.remove(it) }
+        newEntries.forEach { indexed[it.refId.toLong()] = it.terms }
+        indexedSongs = indexed
+    }
+
+    private fun <T> replaceEntries(kind: String, items: List<T>, entry: (T) -> Pair<String, String?>) {
+        searchIndexDao.deleteEntries(kind)
+        searchIndexDao.insertEntries(items.mapNotNull {
+            val (refId, terms) = entry(it)
+            if (terms.isNullOrBlank()) null else SearchIndexEntity(kind, refId, terms)
+        })
+    }
+
+    /**
+     * Returns the IDs of the items of the given kind that match every word in the
+     * query (as a prefix), ranked by relevance.
+     */
+    private fun search(query: String, kind: String): List<String> {
+        val tokens = TOKEN_REGEX.findAll(query.lowercase()).map { it.value }.toList()
+        if (tokens.isEmpty()) {
+            return emptyList()
+        }
+        // Every token is a plain word, so they can't be mistaken for operators
+        // once lowercased (FTS operators are uppercase).
+        val match = tokens.joinToString(" ") { "$it*" }
+        val normalizedQuery = tokens.joinToString(" ") { it.normalized() }
+        return searchIndexDao.search(match, kind)
+            .map { entry ->
+                val terms = entry.terms.normalized()
+                val rank = when {
+                    terms.startsWith(normalizedQuery) -> 0
+                    terms.contains(" $normalizedQuery") -> 1
+                    else -> 2
+                }
+                Triple(entry.refId, rank, terms.length)
+            }
+            .sortedWith(compareBy({ it.second }, { it.third }))
+            .map { it.first }
+            .distinct()
+    }
+
+    private fun Song.searchTerms(): String {
+        return listOfNotNull(title, artistName, albumArtistName)
+            .filter { it.isNotBlank() }
+            .distinct()
+            .joinToString(" ")
+    }
+
+    private fun String.normalized(): String {
+        return Normalizer.normalize(this, Normalizer.Form.NFD)
+            .replace(DIACRITICS_REGEX, "")
+            .lowercase()
+    }
+
+    companion object {
+        private const val TAG = "SearchIndex"
+        private const val MAX_BIND_ARGS = 500
+
+        private val TOKEN_REGEX = Regex("[\\p{L}\\p{N}]+")
+        private val DIACRITICS_REGEX = Regex("\\p{Mn}+")
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.uniqtech.musicplayer.service
+
+import android.content.Context
+import android.media.MediaPlayer
+import android.os.PowerManager
+import android.util.Log
+import androidx.annotation.WorkerThread
+
+/**
+ * Keeps a few idle [MediaPlayer] instances around so they can be reused instead of
+ * allocating (and later tearing down) the native player for every track.
+ */
+class MediaPlayerPool(private val context: Context) {
+
+    private val idlePlayers = ArrayDeque<MediaPlayer>(MAX_IDLE_PLAYERS)
+
+    /**
+     * Returns an idle player, in the [MediaPlayer] idle state and ready to take a data source.
+     */
+    fun acquire(): MediaPlayer {
+        synchronized(idlePlayers) {
+            idlePlayers.removeLastOrNull()?.let { return it }
+        }
+        return MediaPlayer().apply {
+            setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK)
+        }
+    }
+
+    /**
+     * Resets the given player and keeps it for later use, or releases it if there
+     * are enough idle players already.
+     */
+    @WorkerThread
+    fun recycle(player: MediaPlayer) {
+        try {
+            player.reset()
+            player.setOnPreparedListener(null)
+            player.setOnCompletionListener(null)
+            player.setOnErrorListener(null)
+        } catch (e: IllegalStateException) {
+            Log.w(TAG, "Couldn't reset the player, releasing it", e)
+            player.release()
+            return
+        }
+        synchronized(idlePlayers) {
+            if (idlePlayers.size < MAX_IDLE_PLAYERS) {
+                idlePlayers.addLast(player)
+                return
+            }
+        }
+        player.release()
+    }
+
+    @WorkerThread
+    fun clear() {
+        val players = synchronized(idlePlayers) {
+            idlePlayers.toList().also { idlePlayers.clear() }
+        }
+        players.forEach { it.release() }
+    }
+
+    companion object {
+        private const val TAG = "MediaPlayerPool"
+        private const val MAX_IDLE_PLAYERS = 2
+    }
+}
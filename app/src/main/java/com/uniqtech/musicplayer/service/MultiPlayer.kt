@@ -24,7 +24,10 @@ import android.media.MediaPlayer
 import android.media.audiofx.AudioEffect
 import android.media.audiofx.DynamicsProcessing
 import android.os.Build
-import android.os.PowerManager
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 import androidx.annotation.FloatRange
 import androidx.annotation.RequiresApi
@@ -35,7 +38,10 @@ import com.uniqtech.musicplayer.extensions.hasPie
 import com.uniqtech.musicplayer.extensions.showToast
 import com.uniqtech.musicplayer.recordException
 import com.uniqtech.musicplayer.service.playback.Playback
+import com.uniqtech.musicplayer.service.playback.PrepareMetrics
 import com.uniqtech.musicplayer.util.Preferences
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.pow
@@ -45,13 +51,29 @@ open class MultiPlayer(private val context: Context) : Playback,
     MediaPlayer.OnCompletionListener {
 
     private var mCallbacks: Playback.PlaybackCallbacks? = null
-    private var mCurrentMediaPlayer = MediaPlayer()
+    private val mPlayerPool = MediaPlayerPool(context)
+    private var mCurrentMediaPlayer = mPlayerPool.acquire()
     private var mNextMediaPlayer: MediaPlayer? = null
 
+    // Every player joins the session of the first one, so the audio effects attached
+    // to it keep working when we move to another player (e.g. during gapless playback)
+    // instead of being torn down and created again for a new session.
+    private val mAudioSessionId = mCurrentMediaPlayer.audioSessionId
+
+    // Players prepared ahead for upcoming tracks, by path
+    private val mWarmPlayers = LinkedHashMap<String, MediaPlayer>()
+
     private var mDynamicsProcessing: DynamicsProcessing? = null
 
     private var mIsInitialized = false
 
+    // Players are reset, configured and released here, so none of that blocks the
+    // caller, and stale requests are skipped when tracks are changed quickly.
+    private val mPrepareThread = HandlerThread("MultiPlayer.Prepare").apply { start() }
+    private val mPrepareHandler = Handler(mPrepareThread.looper)
+    private val mMainHandler = Handler(Looper.getMainLooper())
+    private val mPrepareRequests = ConcurrentHashMap<MediaPlayer, PrepareRequest>()
+
     // Store balance values here:
     // Index 0 = left volume.
     // Index 1 = right volume.
@@ -61,13 +83,23 @@ open class MultiPlayer(private val context: Context) : Playback,
 
     override fun setDataSource(path: String, completion: (success: Boolean) -> Unit) {
         mIsInitialized = false
-        setDataSourceImpl(mCurrentMediaPlayer, path) { success ->
+        val onPrepared: (Boolean) -> Unit = { success ->
             mIsInitialized = success
             if (mIsInitialized) {
                 setNextDataSource(null)
             }
             completion(mIsInitialized)
         }
+        val preparedPlayer = takeNextPlayer(path) ?: takeWarmPlayer(path)
+        if (preparedPlayer != null) {
+            // This track is already prepared (or being prepared), just switch to it.
+            val previousPlayer = mCurrentMediaPlayer
+            mCurrentMediaPlayer = preparedPlayer
+            recyclePlayer(previousPlayer)
+            mPrepareRequests[preparedPlayer]?.redirect(onPrepared, mMainHandler)
+        } else {
+            setDataSourceImpl(mCurrentMediaPlayer, path, onPrepared)
+        }
     }
 
     /**
@@ -77,6 +109,13 @@ open class MultiPlayer(private val context: Context) : Playback,
      * you want to play
      */
     override fun setNextDataSource(path: String?) {
+        val currentNextPlayer = mNextMediaPlayer
+        if (path != null && currentNextPlayer != null && Preferences.gaplessPlayback &&
+            mPrepareRequests[currentNextPlayer]?.path == path
+        ) {
+            // The queue changed, but the next track is still the same one.
+            return
+        }
         try {
             mCurrentMediaPlayer.setNextMediaPlayer(null)
         } catch (e: IllegalArgumentException) {
@@ -85,60 +124,155 @@ open class MultiPlayer(private val context: Context) : Playback,
             Log.e(TAG, "Media player not initialized!")
             return
         }
-        if (mNextMediaPlayer != null) {
-            mNextMediaPlayer?.release()
+        if (currentNextPlayer != null) {
+            parkPlayer(currentNextPlayer)
             mNextMediaPlayer = null
         }
         if (path == null) {
             return
         }
         if (Preferences.gaplessPlayback) {
-            mNextMediaPlayer = MediaPlayer()
-            mNextMediaPlayer?.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK)
-            mNextMediaPlayer?.audioSessionId = getAudioSessionId()
-            setDataSourceImpl(mNextMediaPlayer!!, path) { success ->
-                if (success) {
+            val onPrepared: (MediaPlayer, Boolean) -> Unit = { nextMediaPlayer, success ->
+                if (success && mNextMediaPlayer === nextMediaPlayer) {
                     try {
-                        mCurrentMediaPlayer.setNextMediaPlayer(mNextMediaPlayer)
+                        mCurrentMediaPlayer.setNextMediaPlayer(nextMediaPlayer)
                     } catch (e: IllegalArgumentException) {
                         Log.e(TAG, "setNextDataSource: setNextMediaPlayer()", e)
-                        if (mNextMediaPlayer != null) {
-                            mNextMediaPlayer?.release()
-                            mNextMediaPlayer = null
-                        }
+                        recyclePlayer(nextMediaPlayer)
+                        mNextMediaPlayer = null
                     } catch (e: IllegalStateException) {
                         Log.e(TAG, "setNextDataSource: setNextMediaPlayer()", e)
-                        if (mNextMediaPlayer != null) {
-                            mNextMediaPlayer?.release()
-                            mNextMediaPlayer = null
-                        }
-                    }
-                } else {
-                    if (mNextMediaPlayer != null) {
-                        mNextMediaPlayer?.release()
+                        recyclePlayer(nextMediaPlayer)
                         mNextMediaPlayer = null
                     }
+                } else if (mNextMediaPlayer === nextMediaPlayer) {
+                    recyclePlayer(nextMediaPlayer)
+                    mNextMediaPlayer = null
+                }
+            }
+            val warmPlayer = takeWarmPlayer(path)
+            if (warmPlayer != null) {
+                mNextMediaPlayer = warmPlayer
+                mPrepareRequests[warmPlayer]?.redirect({ onPrepared(warmPlayer, it) }, mMainHandler)
+            } else {
+                val nextMediaPlayer = acquirePlayer()
+                mNextMediaPlayer = nextMediaPlayer
+                setDataSourceImpl(nextMediaPlayer, path) { onPrepared(nextMediaPlayer, it) }
+            }
+        }
+    }
+
+    /**
+     * Keeps players prepared for the given upcoming tracks (as many as the user allows),
+     * so playing any of them doesn't need a fresh prepare. Players prepared for tracks
+     * that are no longer upcoming are recycled.
+     */
+    override fun prewarm(paths: List<String>) {
+        val wantedPaths = paths.take(Preferences.prepareUpcomingTracks)
+        val nextPath = mNextMediaPlayer?.let { mPrepareRequests[it]?.path }
+        val stalePlayers = ArrayList<MediaPlayer>()
+        synchronized(mWarmPlayers) {
+            val iterator = mWarmPlayers.entries.iterator()
+            while (iterator.hasNext()) {
+                val (path, player) = iterator.next()
+                if (path !in wantedPaths || path == nextPath || mPrepareRequests[player]?.isUsable != true) {
+                    stalePlayers.add(player)
+                    iterator.remove()
+                }
+            }
+            for (path in wantedPaths) {
+                if (path == nextPath || mWarmPlayers.containsKey(path)) continue
+                val player = acquirePlayer()
+                mWarmPlayers[path] = player
+                setDataSourceImpl(player, path) { }
+            }
+        }
+        stalePlayers.forEach { recyclePlayer(it) }
+    }
+
+    /**
+     * Takes a player from the pool, attached to our audio session.
+     */
+    private fun acquirePlayer(): MediaPlayer {
+        val player = mPlayerPool.acquire()
+        try {
+            player.audioSessionId = mAudioSessionId
+        } catch (e: IllegalStateException) {
+            Log.e(TAG, "Couldn't attach the player to audio session $mAudioSessionId", e)
+        }
+        return player
+    }
+
+    private fun takeNextPlayer(path: String): MediaPlayer? {
+        val nextPlayer = mNextMediaPlayer ?: return null
+        if (mPrepareRequests[nextPlayer]?.takeIf { it.isUsable }?.path != path) {
+            return null
+        }
+        mNextMediaPlayer = null
+        return nextPlayer
+    }
+
+    private fun takeWarmPlayer(path: String): MediaPlayer? {
+        val warmPlayer = synchronized(mWarmPlayers) {
+            mWarmPlayers.remove(path)
+        } ?: return null
+        if (mPrepareRequests[warmPlayer]?.isUsable != true) {
+            recyclePlayer(warmPlayer)
+            return null
+        }
+        return warmPlayer
+    }
+
+    /**
+     * Keeps the given player among the prepared ones if upcoming tracks are being
+     * prepared, since it may still be needed, or recycles it otherwise.
+     */
+    private fun parkPlayer(player: MediaPlayer) {
+        val request = mPrepareRequests[player]
+        if (request != null && request.isUsable && Preferences.prepareUpcomingTracks > 0) {
+            synchronized(mWarmPlayers) {
+                if (!mWarmPlayers.containsKey(request.path)) {
+                    request.redirect({ }, mMainHandler)
+                    mWarmPlayers[request.path] = player
+                    return
                 }
             }
         }
+        recyclePlayer(player)
     }
 
     /**
+     * Prepares the given [player] asynchronously on the prepare thread. If another
+     * data source is set on the same player before this one is ready, this request
+     * is cancelled and its [completion] is never called.
+     *
      * @param player The [MediaPlayer] to use
      * @param path The path of the file, or the http/rtsp URL of the stream you want to play
-     * @return True if the <code>player</code> has been prepared and is ready to play, false otherwise
+     * @param completion Called on the main thread with `true` if the player has been
+     * prepared and is ready to play, or `false` otherwise
      */
     private fun setDataSourceImpl(
         player: MediaPlayer,
         path: String,
         completion: (success: Boolean) -> Unit,
     ) {
-        player.reset()
+        val request = PrepareRequest(player, path, completion)
+        mPrepareRequests.put(player, request)?.cancel()
+        mPrepareHandler.post { prepare(request) }
+    }
+
+    private fun prepare(request: PrepareRequest) {
+        if (request.isCancelled) {
+            // A newer request for this player is already queued, don't waste time on this one.
+            return
+        }
+        val player = request.player
         try {
-            if (path.startsWith("content://")) {
-                player.setDataSource(context, path.toUri())
+            player.reset()
+            if (request.path.startsWith("content://")) {
+                player.setDataSource(context, request.path.toUri())
             } else {
-                player.setDataSource(path)
+                player.setDataSource(request.path)
             }
             player.setAudioAttributes(
                 AudioAttributes.Builder()
@@ -148,15 +282,40 @@ open class MultiPlayer(private val context: Context) : Playback,
             )
             player.setOnPreparedListener {
                 player.setOnPreparedListener(null)
-                completion(true)
+                finishPrepare(request, true)
             }
-            player.prepare()
+            player.setOnCompletionListener(this)
+            player.setOnErrorListener(this)
+            request.startTime = SystemClock.elapsedRealtime()
+            player.prepareAsync()
         } catch (e: Exception) {
-            completion(false)
-            e.printStackTrace()
+            Log.e(TAG, "Couldn't prepare ${request.path}", e)
+            finishPrepare(request, false)
+        }
+    }
+
+    private fun finishPrepare(request: PrepareRequest, success: Boolean) {
+        if (request.isCancelled || !request.finish(success)) return
+        if (success) {
+            PrepareMetrics.record(request.path, SystemClock.elapsedRealtime() - request.startTime)
         }
-        player.setOnCompletionListener(this)
-        player.setOnErrorListener(this)
+        mMainHandler.post { request.deliver() }
+    }
+
+    /**
+     * Resets the given player once the prepare thread is done with it, so it can be reused.
+     */
+    private fun recyclePlayer(player: MediaPlayer) {
+        mPrepareRequests.remove(player)?.cancel()
+        mPrepareHandler.post { mPlayerPool.recycle(player) }
+    }
+
+    /**
+     * Releases the given player once the prepare thread is done with it.
+     */
+    private fun releasePlayer(player: MediaPlayer) {
+        mPrepareRequests.remove(player)?.cancel()
+        mPrepareHandler.post { player.release() }
     }
 
     override fun getCallbacks(): Playback.PlaybackCallbacks? {
@@ -193,7 +352,15 @@ open class MultiPlayer(private val context: Context) : Playback,
      * Resets the MediaPlayer to its uninitialized state.
      */
     override fun stop() {
-        mCurrentMediaPlayer.reset()
+        val player = mCurrentMediaPlayer
+        val request = mPrepareRequests.remove(player)
+        request?.cancel()
+        if (request == null || request.isFinished) {
+            // The prepare thread is done with it, so it can be silenced right away
+            player.execSafe { pause() }
+        }
+        // Reset after any prepare in flight on this player, never concurrently with it
+        mPrepareHandler.post { player.reset() }
         mIsInitialized = false
     }
 
@@ -202,8 +369,15 @@ open class MultiPlayer(private val context: Context) : Playback,
      */
     override fun release() {
         stop()
-        mCurrentMediaPlayer.release()
-        mNextMediaPlayer?.release()
+        releasePlayer(mCurrentMediaPlayer)
+        mNextMediaPlayer?.let { releasePlayer(it) }
+        mNextMediaPlayer = null
+        synchronized(mWarmPlayers) {
+            mWarmPlayers.values.forEach { releasePlayer(it) }
+            mWarmPlayers.clear()
+        }
+        mPrepareHandler.post { mPlayerPool.clear() }
+        mPrepareThread.quitSafely()
         mDynamicsProcessing?.release()
         mDynamicsProcessing = null
     }
@@ -375,10 +549,24 @@ open class MultiPlayer(private val context: Context) : Playback,
      * {@inheritDoc}
      */
     override fun onError(mp: MediaPlayer, what: Int, extra: Int): Boolean {
+        val prepareRequest = mPrepareRequests[mp]
+        if (prepareRequest != null && !prepareRequest.isFinished) {
+            // The player failed while preparing, the request takes care of it
+            Log.e(TAG, "Couldn't prepare ${prepareRequest.path} ($what, $extra)")
+            finishPrepare(prepareRequest, false)
+            return true
+        }
+        val isWarmPlayer = synchronized(mWarmPlayers) {
+            mWarmPlayers.values.remove(mp)
+        }
+        if (isWarmPlayer) {
+            releasePlayer(mp)
+            return true
+        }
         if (mp === mCurrentMediaPlayer) {
             context.showToast(R.string.unplayable_file)
             mIsInitialized = false
-            mCurrentMediaPlayer.release()
+            releasePlayer(mCurrentMediaPlayer)
             if (mNextMediaPlayer != null) {
                 mCurrentMediaPlayer = mNextMediaPlayer!!
                 mIsInitialized = true
@@ -386,14 +574,12 @@ open class MultiPlayer(private val context: Context) : Playback,
 
                 mCallbacks?.onTrackWentToNext()
             } else {
-                mCurrentMediaPlayer = MediaPlayer()
-                mCurrentMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK)
+                mCurrentMediaPlayer = acquirePlayer()
             }
         } else {
             mIsInitialized = false
-            mCurrentMediaPlayer.release()
-            mCurrentMediaPlayer = MediaPlayer()
-            mCurrentMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK)
+            releasePlayer(mCurrentMediaPlayer)
+            mCurrentMediaPlayer = acquirePlayer()
             context.showToast(R.string.unplayable_file)
         }
         return false
@@ -405,7 +591,7 @@ open class MultiPlayer(private val context: Context) : Playback,
     override fun onCompletion(mp: MediaPlayer) {
         if (mp === mCurrentMediaPlayer && mNextMediaPlayer != null) {
             mIsInitialized = false
-            mCurrentMediaPlayer.release()
+            recyclePlayer(mCurrentMediaPlayer)
             mCurrentMediaPlayer = mNextMediaPlayer!!
             mIsInitialized = true
             mNextMediaPlayer = null
@@ -415,14 +601,67 @@ open class MultiPlayer(private val context: Context) : Playback,
         }
     }
 
+    private class PrepareRequest(
+        val player: MediaPlayer,
+        val path: String,
+        private var completion: (success: Boolean) -> Unit
+    ) {
+        @Volatile
+        var startTime = 0L
+
+        @Volatile
+        var isCancelled = false
+            private set
+        private val finished = AtomicBoolean()
+        @Volatile
+        private var isPrepared = false
+        private var isDelivered = false
+
+        val isFinished: Boolean
+            get() = finished.get()
+
+        /**
+         * Whether the player is prepared, or still preparing, for [path].
+         */
+        val isUsable: Boolean
+            get() = !isCancelled && (!isFinished || isPrepared)
+
+        fun cancel() {
+            isCancelled = true
+        }
+
+        fun finish(success: Boolean): Boolean {
+            if (!finished.compareAndSet(false, true)) return false
+            isPrepared = success
+            return true
+        }
+
+        fun deliver() {
+            val target = synchronized(this) {
+                if (isCancelled) return
+                isDelivered = true
+                completion
+            }
+            target(isPrepared)
+        }
+
+        /**
+         * Sends the result of this request to a different [completion]; right away
+         * (on the given handler) if it was already delivered.
+         */
+        fun redirect(completion: (success: Boolean) -> Unit, handler: Handler) {
+            synchronized(this) {
+                this.completion = completion
+                if (!isDelivered) return
+            }
+            handler.post { if (!isCancelled) completion(isPrepared) }
+        }
+    }
+
     companion object {
         private val TAG = MultiPlayer::class.java.simpleName
     }
 
     /**
      * Constructor of `MultiPlayer`
-     */
-    init {
-        mCurrentMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK)
-    }
-}
\ No newline at end of file
+     */}
\ No newline at end of file
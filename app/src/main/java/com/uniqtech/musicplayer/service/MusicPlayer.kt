@@ -231,14 +231,14 @@ object MusicPlayer : KoinComponent {
         }
     }
 
-    fun enqueue(songs: List<Song>) {
+    fun enqueue(songs: List<Song>, showToast: Boolean = true) {
         if (musicService != null) {
             if (playingQueue.isNotEmpty()) {
                 musicService!!.addSongs(songs)
             } else {
                 openQueue(songs, startPlaying = false)
             }
-            musicService?.showToast(
+            if (showToast) musicService?.showToast(
                 if (songs.size == 1)
                     musicService!!.getString(R.string.added_title_to_playing_queue)
                 else musicService!!.getString(R.string.added_x_titles_to_playing_queue, songs.size)
@@ -55,21 +55,21 @@ import com.uniqtech.musicplayer.androidauto.PackageValidator
 import com.uniqtech.musicplayer.appwidgets.AppWidgetBig
 import com.uniqtech.musicplayer.appwidgets.AppWidgetSimple
 import com.uniqtech.musicplayer.appwidgets.AppWidgetSmall
-import com.uniqtech.musicplayer.database.toPlayCount
 import com.uniqtech.musicplayer.extensions.*
 import com.uniqtech.musicplayer.extensions.glide.getSongGlideModel
 import com.uniqtech.musicplayer.extensions.glide.songOptions
-import com.uniqtech.musicplayer.extensions.media.asQueueItems
 import com.uniqtech.musicplayer.extensions.media.displayArtistName
 import com.uniqtech.musicplayer.extensions.media.durationStr
 import com.uniqtech.musicplayer.extensions.media.isArtistNameUnknown
 import com.uniqtech.musicplayer.extensions.utilities.buildInfoString
 import com.uniqtech.musicplayer.glide.transformation.BlurTransformation
-import com.uniqtech.musicplayer.misc.ReplayGainTagExtractor
+import com.uniqtech.musicplayer.http.HttpMetrics
 import com.uniqtech.musicplayer.model.Playlist
 import com.uniqtech.musicplayer.model.Song
-import com.uniqtech.musicplayer.providers.databases.HistoryStore
-import com.uniqtech.musicplayer.providers.databases.SongPlayCountStore
+import com.uniqtech.musicplayer.providers.MediaStoreSyncer
+import com.uniqtech.musicplayer.providers.PlayStatsStore
+import com.uniqtech.musicplayer.providers.ReplayGainStore
+import com.uniqtech.musicplayer.repository.LibraryDelta
 import com.uniqtech.musicplayer.repository.Repository
 import com.uniqtech.musicplayer.service.constants.ServiceAction
 import com.uniqtech.musicplayer.service.constants.ServiceEvent
@@ -80,6 +80,8 @@ import com.uniqtech.musicplayer.service.notification.PlayingNotificationImpl24
 import com.uniqtech.musicplayer.service.playback.Playback
 import com.uniqtech.musicplayer.service.playback.Playback.PlaybackCallbacks
 import com.uniqtech.musicplayer.service.playback.PlaybackManager
+import com.uniqtech.musicplayer.service.playback.PrepareMetrics
+import com.uniqtech.musicplayer.service.queue.MediaSessionQueuePublisher
 import com.uniqtech.musicplayer.service.queue.SmartPlayingQueue
 import com.uniqtech.musicplayer.util.*
 import kotlinx.coroutines.*
@@ -87,6 +89,8 @@ import kotlinx.coroutines.Dispatchers.IO
 import kotlinx.coroutines.Dispatchers.Main
 import org.koin.android.ext.android.inject
 import org.koin.java.KoinJavaComponent.get
+import java.io.FileDescriptor
+import java.io.PrintWriter
 import kotlin.math.log10
 import kotlin.math.min
 import kotlin.random.Random.Default.nextInt
@@ -97,17 +101,23 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
 
     private val serviceScope = CoroutineScope(Job() + Main)
     private val repository by inject<Repository>()
+    private val mediaStoreSyncer by inject<MediaStoreSyncer>()
+    private val playStatsStore by inject<PlayStatsStore>()
+    private val replayGainStore by inject<ReplayGainStore>()
 
     private val appWidgetBig = AppWidgetBig.instance
     private val appWidgetSimple = AppWidgetSimple.instance
     private val appWidgetSmall = AppWidgetSmall.instance
 
+    private val serviceEvents = ServiceEventBus()
+
     private lateinit var playingQueue: SmartPlayingQueue
 
     private val sharedPreferences: SharedPreferences by inject()
     private val equalizerManager: EqualizerManager by inject()
     private lateinit var playbackManager: PlaybackManager
     private var mediaSession: MediaSessionCompat? = null
+    private var queuePublisher: MediaSessionQueuePublisher? = null
     private var playingNotification: PlayingNotification? = null
     private var notificationManager: NotificationManager? = null
     private var playerHandler: Handler? = null
@@ -190,6 +200,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         sessionToken = mediaSession?.sessionToken
         notificationManager = getSystemService()
         initNotification()
+        startEventConsumers()
 
         mediaStoreObserver = MediaStoreObserver(this, playerHandler!!)
         throttledSeekHandler = ThrottledSeekHandler(this, playerHandler!!)
@@ -306,6 +317,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         mediaSession?.isActive = false
         quit()
         releaseResources()
+        playStatsStore.requestFlush()
         serviceScope.cancel()
         contentResolver.unregisterContentObserver(mediaStoreObserver)
         wakeLock?.release()
@@ -314,6 +326,15 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
             .sendBroadcast(Intent("${ServiceEvent.BOOMING_PACKAGE_NAME}.BOOMING_MUSIC_SERVICE_DESTROYED"))
     }
 
+    override fun dump(fd: FileDescriptor?, writer: PrintWriter?, args: Array<out String>?) {
+        writer?.let {
+            PrepareMetrics.dump(this, it)
+            playbackManager.dump(it)
+            serviceEvents.dump(it)
+            HttpMetrics.dump(it)
+        }
+    }
+
     private fun playFromPlaylist(intent: Intent) {
         val playlist =
             IntentCompat.getParcelableExtra(intent, ServiceAction.Extras.EXTRA_PLAYLIST, Playlist::class.java)
@@ -403,7 +424,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
 
         sendChangeInternal(ServiceEvent.QUEUE_CHANGED)
         mediaSession?.setQueueTitle(getString(R.string.playing_queue_label))
-        mediaSession?.setQueue(playingQueue.playingQueue.asQueueItems())
+        publishQueue()
     }
 
     fun toggleFavorite() {
@@ -509,12 +530,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         if (force && !bumpPlayCount()) {
             val currentSong = songPlayCountHelper.song
             if (currentSong != Song.emptySong) {
-                serviceScope.launch(IO) {
-                    val playCountEntity = repository.findSongInPlayCount(currentSong.id)
-                        ?.apply { skipCount += 1 } ?: currentSong.toPlayCount(skipCount = 1)
-
-                    repository.upsertSongInPlayCount(playCountEntity)
-                }
+                playStatsStore.recordSkip(currentSong)
             }
         }
         playSongOrSetPositionAt(getNextPosition(force), !force)
@@ -552,10 +568,28 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
                 playbackManager.setNextDataSource(getTrackUri(getSongAt(nextPosition)))
             }
             playingQueue.nextPosition = nextPosition
+            playbackManager.prewarm(getUpcomingSongs(nextPosition, Preferences.prepareUpcomingTracks).map(::getTrackUri))
+            if (Preferences.replayGainSourceMode != ReplayGainSourceMode.MODE_NONE) {
+                replayGainStore.prescan(getUpcomingSongs(nextPosition, REPLAYGAIN_PRESCAN_COUNT))
+            }
         } catch (_: Exception) {
         }
     }
 
+    private fun getUpcomingSongs(nextPosition: Int, count: Int): List<Song> {
+        if (count <= 0 || nextPosition == getPosition()) {
+            return emptyList()
+        }
+        val queueSize = getPlayingQueue().size
+        val songs = ArrayList<Song>(count)
+        var position = nextPosition
+        while (songs.size < count && position < queueSize && position != playingQueue.stopPosition) {
+            songs.add(getSongAt(position))
+            position++
+        }
+        return songs
+    }
+
     private fun initNotification() {
         playingNotification = if (Preferences.classicNotification) {
             PlayingNotificationClassic.from(this, notificationManager!!)
@@ -572,6 +606,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
                 getSongProgressMillis().toLong(),
                 playbackSpeed
             )
+            .setActiveQueueItemId(getPosition() + 1L)
         setCustomAction(stateBuilder)
         mediaSession?.setPlaybackState(stateBuilder.build())
     }
@@ -607,7 +642,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
                 .load(song.getSongGlideModel())
 
             if (Preferences.blurredAlbumArtAllowed) {
-                request.transform(BlurTransformation.Builder(this).build())
+                request.transform(BlurTransformation.Builder().build())
             }
             runOnUiThread {
                 request.into(object : CustomTarget<Bitmap?>(SIZE_ORIGINAL, SIZE_ORIGINAL) {
@@ -910,9 +945,21 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
 
     private fun sendChangeInternal(what: String) {
         LocalBroadcastManager.getInstance(this).sendBroadcast(Intent(what))
-        appWidgetBig.notifyChange(this, what)
-        appWidgetSimple.notifyChange(this, what)
-        appWidgetSmall.notifyChange(this, what)
+        serviceEvents.emit(what)
+    }
+
+    private fun startEventConsumers() {
+        val isPlaybackEvent = { what: String ->
+            what == ServiceEvent.META_CHANGED || what == ServiceEvent.PLAY_STATE_CHANGED
+        }
+        serviceEvents.consume(serviceScope, "notification", NOTIFICATION_UPDATE_WINDOW, isPlaybackEvent) {
+            playingNotification?.update(getCurrentSong(), isPlaying) { startForegroundOrNotify() }
+        }
+        serviceEvents.consume(serviceScope, "widgets", WIDGETS_UPDATE_WINDOW, isPlaybackEvent) { events ->
+            appWidgetBig.notifyChange(this, events)
+            appWidgetSimple.notifyChange(this, events)
+            appWidgetSmall.notifyChange(this, events)
+        }
     }
 
     private fun handleChangeInternal(what: String) {
@@ -926,23 +973,21 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
                     }
                 }
                 songPlayCountHelper.notifyPlayStateChanged(isPlaying)
-                playingNotification?.update(getCurrentSong(), isPlaying) { startForegroundOrNotify() }
             }
 
             ServiceEvent.META_CHANGED -> {
                 if (playingQueue.stopPosition < getPosition()) {
                     setStopPosition(-1)
                 }
-                playingNotification?.update(getCurrentSong(), isPlaying) { startForegroundOrNotify() }
                 // We must call updateMediaSessionPlaybackState after the load of album art is completed
                 // if we are loading it, or it won't be updated in the notification
                 updateMediaSessionMetadata(::updateMediaSessionPlaybackState)
+                publishQueue() // the published window may have to follow the new position
                 savePosition()
                 savePositionInTrack()
+                val currentSong = getCurrentSong()
+                playStatsStore.recordHistory(currentSong)
                 serviceScope.launch(IO) {
-                    val currentSong = getCurrentSong()
-                    HistoryStore.getInstance(this@MusicService).addSongId(currentSong.id)
-                    repository.upsertSongInHistory(currentSong)
                     songPlayCountHelper.notifySongChanged(currentSong, isPlaying)
                     applyReplayGain(currentSong)
                 }
@@ -951,7 +996,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
             ServiceEvent.QUEUE_CHANGED -> {
                 playingQueue.stopPosition = -1
                 mediaSession?.setQueueTitle(getString(R.string.playing_queue_label))
-                mediaSession?.setQueue(playingQueue.playingQueue.asQueueItems())
+                publishQueue()
                 updateMediaSessionMetadata(::updateMediaSessionPlaybackState) // because playing queue size might have changed
                 saveState()
                 if (playingQueue.playingQueue.isNotEmpty()) {
@@ -963,10 +1008,39 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         }
     }
 
+    /**
+     * Syncs the library with the MediaStore off the player thread and then applies
+     * the changes to the queue, before they're broadcast to the UI.
+     */
+    internal fun onMediaStoreChanged() {
+        serviceScope.launch {
+            val delta = withContext(IO) { mediaStoreSyncer.sync() }
+            if (delta != null && !delta.isEmpty) {
+                applyLibraryDelta(delta)
+            }
+            handleAndSendChangeInternal(ServiceEvent.MEDIA_STORE_CHANGED)
+        }
+    }
+
+    private fun applyLibraryDelta(delta: LibraryDelta) {
+        val currentSongId = getCurrentSong().id
+        if (playingQueue.applyLibraryDelta(delta)) {
+            notifyChange(ServiceEvent.QUEUE_CHANGED)
+            if (delta.updatedById.containsKey(currentSongId)) {
+                notifyChange(ServiceEvent.META_CHANGED)
+            }
+        }
+    }
+
     private fun setupMediaSession() {
         mediaSession = MediaSessionCompat(this, BuildConfig.APPLICATION_ID)
         mediaSession!!.isActive = true
         mediaSession!!.setCallback(MediaSessionCallback(this, serviceScope))
+        queuePublisher = MediaSessionQueuePublisher(mediaSession!!)
+    }
+
+    private fun publishQueue() {
+        queuePublisher?.publish(playingQueue.playingQueue, getPosition(), Preferences.mediaSessionQueueSize)
     }
 
     private fun setCustomAction(stateBuilder: PlaybackStateCompat.Builder) {
@@ -995,16 +1069,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         if (songPlayCountHelper.shouldBumpPlayCount()) {
             val lastSong = songPlayCountHelper.song
             if (lastSong != Song.emptySong) {
-                val currentTime = System.currentTimeMillis()
-                serviceScope.launch(IO) {
-                    val playCountEntity = repository.findSongInPlayCount(lastSong.id)?.apply {
-                        timePlayed = currentTime
-                        playCount += 1
-                    } ?: lastSong.toPlayCount(timePlayed = currentTime, playCount = 1)
-
-                    repository.upsertSongInPlayCount(playCountEntity)
-                }
-                SongPlayCountStore.getInstance(this).bumpPlayCount(lastSong.id)
+                playStatsStore.recordPlay(lastSong)
             }
             return true
         }
@@ -1021,7 +1086,7 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
     private fun applyReplayGain(song: Song) {
         val mode = Preferences.replayGainSourceMode
         if (mode != ReplayGainSourceMode.MODE_NONE) {
-            val gainValues = ReplayGainTagExtractor.getReplayGain(song)
+            val gainValues = replayGainStore.getReplayGain(song)
             var adjustDB = 0.0f
             var peak = 1.0f
 
@@ -1078,6 +1143,8 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
                 updateMediaSessionPlaybackState()
             }
 
+            PREPARE_UPCOMING_TRACKS -> prepareNext()
+
             GAPLESS_PLAYBACK -> {
                 playbackManager.isGaplessPlayback = Preferences.gaplessPlayback
                 if (playbackManager.isGaplessPlayback) {
@@ -1109,6 +1176,8 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
             NOTIFICATION_PRIORITY -> {
                 playingNotification?.update(getCurrentSong(), isPlaying) { startForegroundOrNotify() }
             }
+
+            MEDIA_SESSION_QUEUE_SIZE -> publishQueue()
         }
     }
 
@@ -1204,6 +1273,11 @@ class MusicService : MediaBrowserServiceCompat(), PlaybackCallbacks, OnSharedPre
         internal const val TOGGLE_FAVORITE = ServiceEvent.BOOMING_PACKAGE_NAME + ".togglefavorite"
 
         private const val REWIND_INSTEAD_PREVIOUS_MILLIS = 5000
+        private const val REPLAYGAIN_PRESCAN_COUNT = 5
+
+        // Changes are collected within these windows, so bursts of them are rendered once
+        private const val NOTIFICATION_UPDATE_WINDOW = 150L
+        private const val WIDGETS_UPDATE_WINDOW = 300L
 
         private const val MEDIA_SESSION_ACTIONS = (PlaybackStateCompat.ACTION_PLAY
                 or PlaybackStateCompat.ACTION_PAUSE
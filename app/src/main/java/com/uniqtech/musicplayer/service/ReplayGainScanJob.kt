@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service
+
+import android.app.job.JobInfo
+import android.app.job.JobParameters
+import android.app.job.JobScheduler
+import android.app.job.JobService
+import android.content.ComponentName
+import android.content.Context
+import androidx.core.content.getSystemService
+import com.uniqtech.musicplayer.providers.ReplayGainStore
+import com.uniqtech.musicplayer.util.Preferences
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.koin.android.ext.android.inject
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reads the ReplayGain values of the whole library while the device is idle and
+ * charging, see [ReplayGainStore.scanLibrary].
+ */
+class ReplayGainScanJob : JobService() {
+
+    private val replayGainStore: ReplayGainStore by inject()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var scanJob: Job? = null
+
+    override fun onStartJob(params: JobParameters): Boolean {
+        scanJob = scope.launch {
+            val finished = replayGainStore.scanLibrary { !isActive }
+            if (isActive) {
+                jobFinished(params, !finished)
+            }
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean {
+        scanJob?.cancel()
+        // The device is no longer idle or charging, try again next time
+        return true
+    }
+
+    override fun onDestroy() {
+        scope.cancel()
+        super.onDestroy()
+    }
+
+    companion object {
+        private const val JOB_ID = 1001
+
+        /**
+         * Schedules or cancels the library scan according to [Preferences.replayGainLibraryScan].
+         */
+        fun update(context: Context) {
+            val jobScheduler = context.getSystemService<JobScheduler>() ?: return
+            if (Preferences.replayGainLibraryScan) {
+                if (jobScheduler.getPendingJob(JOB_ID) != null) return
+                val jobInfo = JobInfo.Builder(JOB_ID, ComponentName(context, ReplayGainScanJob::class.java))
+                    .setRequiresCharging(true)
+                    .setRequiresDeviceIdle(true)
+                    .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                    .build()
+                jobScheduler.schedule(jobInfo)
+            } else {
+                jobScheduler.cancel(JOB_ID)
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.produceIn
+import kotlinx.coroutines.launch
+import java.io.PrintWriter
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Delivers the [service events][com.uniqtech.musicplayer.service.constants.ServiceEvent]
+ * to consumers that are expensive to refresh, like widgets and the notification.
+ *
+ * Each consumer has a conflation window: the events it receives within that window
+ * are collected and handed to it at once, so a burst of changes (e.g. skipping several
+ * tracks in a row, which fires meta, play state and queue changes for each one)
+ * results in a single render.
+ */
+class ServiceEventBus {
+
+    private val events = MutableSharedFlow<String>(
+        extraBufferCapacity = 64,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    val flow: SharedFlow<String> = events.asSharedFlow()
+
+    private val emitted = ConcurrentHashMap<String, AtomicInteger>()
+    private val consumers = ArrayList<Consumer>()
+
+    fun emit(what: String) {
+        emitted.getOrPut(what) { AtomicInteger() }.incrementAndGet()
+        events.tryEmit(what)
+    }
+
+    /**
+     * Starts delivering the accepted events to [render] in [scope], collected
+     * within windows of [windowMillis].
+     */
+    fun consume(
+        scope: CoroutineScope,
+        name: String,
+        windowMillis: Long,
+        accepts: (String) -> Boolean,
+        render: (events: Set<String>) -> Unit
+    ): Job {
+        val consumer = Consumer(name)
+        synchronized(consumers) {
+            consumers.add(consumer)
+        }
+        return scope.launch {
+            val channel = flow.filter(accepts).produceIn(this)
+            for (first in channel) {
+                val batch = linkedSetOf(first)
+                delay(windowMillis)
+                while (true) {
+                    batch.add(channel.tryReceive().getOrNull() ?: break)
+                }
+                consumer.received.addAndGet(batch.size)
+                consumer.rendered.incrementAndGet()
+                render(batch)
+            }
+        }
+    }
+
+    fun dump(writer: PrintWriter) {
+        writer.println("Service events (emitted):")
+        for ((what, count) in emitted) {
+            writer.println("  ${what.substringAfterLast('.')}: $count")
+        }
+        writer.println("Service event consumers (distinct events received, renders):")
+        synchronized(consumers) {
+            for (consumer in consumers) {
+                writer.println("  ${consumer.name}: ${consumer.received}, ${consumer.rendered}")
+            }
+        }
+    }
+
+    private class Consumer(val name: String) {
+        val received = AtomicInteger()
+        val rendered = AtomicInteger()
+    }
+}
@@ -32,12 +32,22 @@ import com.uniqtech.musicplayer.model.EQPreset.Companion.getEmptyPreset
 import com.uniqtech.musicplayer.service.MusicPlayer
 import com.uniqtech.musicplayer.util.PLAYBACK_PITCH
 import com.uniqtech.musicplayer.util.PLAYBACK_SPEED
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import java.util.Locale
 import java.util.UUID
 
 /**
+ * Holds the equalizer state. Presets are parsed once and then kept in memory, where
+ * the UI changes them; changes to the current and custom presets (and to the loudness
+ * gain) are written to the preferences in background, at most once every
+ * [PERSIST_DELAY] milliseconds, so dragging a slider doesn't serialize and write the
+ * whole preset on every step.
+ *
  * @author Christians M. A. (mardous)
  */
 class EqualizerManager internal constructor(context: Context) {
@@ -47,6 +57,12 @@ class EqualizerManager internal constructor(context: Context) {
     private val boundInterfaces = ArrayList<IEQInterface?>()
     private var presets: MutableList<EQPreset>? = null
     private var eqPreset: EQPreset? = null
+    private var customPreset: EQPreset? = null
+
+    private val persistScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var persistJob: Job? = null
+    private var hasPendingState = false
+    private var pendingLoudnessGain: Int? = null
 
     var isEqualizerSupported = false
         private set
@@ -91,6 +107,9 @@ class EqualizerManager internal constructor(context: Context) {
 
     @Synchronized
     fun resetConfiguration() {
+        hasPendingState = false
+        pendingLoudnessGain = null
+        customPreset = null
         mPreferences.edit {
             putBoolean(Keys.IS_INITIALIZED, false)
             putBoolean(Keys.GLOBAL_ENABLED, false)
@@ -313,67 +332,116 @@ class EqualizerManager internal constructor(context: Context) {
 
     @Synchronized
     fun setCurrentPreset(eqPreset: EQPreset) {
-        callInterfaces { it.eqPresetChanged(this.eqPreset, eqPreset) }
-        this.eqPreset = eqPreset
-        mPreferences.edit {
-            putString(Keys.PRESET, GSON.toJson(eqPreset))
+        // A new copy of the custom preset is set on every step of its sliders,
+        // there's nothing new to tell in that case.
+        val isCustomEdit = eqPreset.isCustom && this.eqPreset?.isCustom == true
+        if (this.eqPreset !== eqPreset && !isCustomEdit) {
+            callInterfaces { it.eqPresetChanged(this.eqPreset, eqPreset) }
         }
+        this.eqPreset = eqPreset
+        schedulePersist()
     }
 
     @Synchronized
-    private fun getCustomPreset(): EQPreset =
-        mPreferences.getString(Keys.CUSTOM_PRESET, null).let { json ->
-            if (json == null || json.trim().isEmpty()) {
-                getEmptyPreset(CUSTOM_PRESET_NAME, true, numberOfBands).also { emptyPreset ->
-                    setCustomPreset(emptyPreset, false)
-                }
-            } else GSON.fromJson(json, EQPreset::class.java)
+    private fun getCustomPreset(): EQPreset {
+        if (customPreset == null) {
+            customPreset = mPreferences.getString(Keys.CUSTOM_PRESET, null).let { json ->
+                if (json == null || json.trim().isEmpty()) {
+                    getEmptyPreset(CUSTOM_PRESET_NAME, true, numberOfBands).also {
+                        schedulePersist()
+                    }
+                } else GSON.fromJson(json, EQPreset::class.java)
+            }
         }
+        return customPreset!!
+    }
 
     @Synchronized
     private fun setCustomPreset(preset: EQPreset, usePreset: Boolean = true) {
         if (preset.isCustom) {
+            customPreset = preset
             if (usePreset) {
                 setCurrentPreset(preset)
+            } else {
+                schedulePersist()
             }
-            mPreferences.edit()
-                .putString(Keys.CUSTOM_PRESET, GSON.toJson(preset))
-                .apply()
+        }
+    }
+
+    @Synchronized
+    private fun schedulePersist() {
+        hasPendingState = true
+        if (persistJob?.isActive == true)
+            return
+
+        persistJob = persistScope.launch {
+            delay(PERSIST_DELAY)
+            persistPendingState()
         }
     }
 
+    /**
+     * Writes the pending changes right away instead of waiting for [PERSIST_DELAY],
+     * e.g. when the playback is being released.
+     */
+    @Synchronized
+    fun flush() {
+        persistJob?.cancel()
+        persistJob = null
+        persistPendingState()
+    }
+
+    @Synchronized
+    private fun persistPendingState() {
+        if (!hasPendingState)
+            return
+
+        hasPendingState = false
+        mPreferences.edit {
+            eqPreset?.let { putString(Keys.PRESET, GSON.toJson(it)) }
+            customPreset?.let { putString(Keys.CUSTOM_PRESET, GSON.toJson(it)) }
+            pendingLoudnessGain?.let { putInt(Keys.LOUDNESS_GAIN, it) }
+        }
+        pendingLoudnessGain = null
+    }
+
     /**
      * Copies the current preset to a "Custom" configuration
      * and sets the band level on it
      */
-    suspend fun setCustomPresetBandLevel(band: Int, level: Int) {
-        var currentPreset = getCurrentPreset()
-        if (currentPreset == null || !currentPreset.isCustom) {
-            currentPreset = withContext(Dispatchers.Default) {
-                getCustomPresetFromCurrent()
-            }
-        }
-        currentPreset.setBandLevel(band, level)
-        setCustomPreset(currentPreset)
+    fun setCustomPresetBandLevel(band: Int, level: Int) {
+        editCustomPreset { it.setBandLevel(band, level) }
     }
 
     /**
      * Copies the current preset to a "Custom" configuration
      * and sets the effect value on it
      */
-    suspend fun setCustomPresetEffect(effect: String, value: Float) {
-        var currentPreset = getCurrentPreset()
-        if (currentPreset == null || !currentPreset.isCustom) {
-            currentPreset = withContext(Dispatchers.Default) {
-                getCustomPresetFromCurrent()
+    fun setCustomPresetEffect(effect: String, value: Float) {
+        editCustomPreset {
+            if (value == 0f) { // zero means "disabled", we must remove disabled effects
+                it.removeEffect(effect)
+            } else {
+                it.setEffect(effect, value)
             }
         }
-        if (value == 0f) { // zero means "disabled", we must remove disabled effects
-            currentPreset.removeEffect(effect)
+    }
+
+    /**
+     * Makes the given change on a new copy of the custom preset and publishes it.
+     * Presets are never changed once published, since the DSP thread and the
+     * background writes may be reading them at the same time.
+     */
+    @Synchronized
+    private fun editCustomPreset(edit: (EQPreset) -> Unit) {
+        val currentPreset = getCurrentPreset()
+        val preset = if (currentPreset != null && currentPreset.isCustom) {
+            EQPreset(currentPreset, currentPreset.name, true)
         } else {
-            currentPreset.setEffect(effect, value)
+            getCustomPresetFromCurrent()
         }
-        setCustomPreset(currentPreset)
+        edit(preset)
+        setCustomPreset(preset)
     }
 
     var isPresetReverbEnabled: Boolean
@@ -395,9 +463,12 @@ class EqualizerManager internal constructor(context: Context) {
         }
 
     var loudnessGain: Int
-        get() = mPreferences.getInt(Keys.LOUDNESS_GAIN, OpenSLESConstants.MINIMUM_LOUDNESS_GAIN)
-        set(loudnessGain) = mPreferences.edit {
-            putInt(Keys.LOUDNESS_GAIN, loudnessGain)
+        @Synchronized
+        get() = pendingLoudnessGain ?: mPreferences.getInt(Keys.LOUDNESS_GAIN, OpenSLESConstants.MINIMUM_LOUDNESS_GAIN)
+        @Synchronized
+        set(loudnessGain) {
+            pendingLoudnessGain = loudnessGain
+            schedulePersist()
         }
 
     val isBassBoostEnabled: Boolean
@@ -584,6 +655,7 @@ class EqualizerManager internal constructor(context: Context) {
             .create()
 
         const val PREFERENCES_NAME = "BoomingAudioFX"
+        private const val PERSIST_DELAY = 500L
         private const val CUSTOM_PRESET_NAME = "Custom"
         private const val DEFAULT_DELIMITER = ";"
     }
@@ -17,21 +17,25 @@
 
 package com.uniqtech.musicplayer.service.equalizer;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.media.audiofx.AudioEffect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
 
 import com.uniqtech.musicplayer.model.EQPreset;
 import com.uniqtech.musicplayer.service.playback.Playback;
 
+import java.io.PrintWriter;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>This calls listen to events that affect DSP function and responds to them.</p>
@@ -40,6 +44,13 @@ import java.util.concurrent.ConcurrentHashMap;
  * <li>headset plug / unplug events</li>
  * <li>preference update events.</li>
  * </ol>
+ * <p>The {@link EffectSet} of an audio session is created once and kept alive until the
+ * session is closed or replaced, so pausing and resuming playback doesn't tear down and
+ * rebuild the native effects.</p>
+ * <p>Effects are created, updated and released on a dedicated thread. Calls to
+ * {@link #update()} are coalesced, so a slider being dragged pushes the
+ * configuration to the audio stack at most once every {@value #DSP_UPDATE_INTERVAL}
+ * milliseconds (roughly an audio buffer period) instead of once per touch event.</p>
  *
  * @author alankila
  */
@@ -48,25 +59,33 @@ public class PlaybackEQ {
 
     private final Context context;
 
-    /**
-     * Send this action if you want to open an internal equalizer session.
-     */
-    private static final String ACTION_OPEN_EQUALIZER_SESSION = "com.mardous.booming.audiofx.OPEN_SESSION";
-    /**
-     * Send this action if you want to close an internal equalizer session.
-     */
-    private static final String ACTION_CLOSE_EQUALIZER_SESSION = "com.mardous.booming.audiofx.CLOSE_SESSION";
+    private static final long DSP_UPDATE_INTERVAL = 20;
+
+    private final EqualizerManager equalizerManager;
 
-    private EqualizerManager equalizerManager;
+    private final HandlerThread dspThread;
+    private final Handler dspHandler;
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    private long lastUpdateTime;
+
+    // Effect sets created and released, and internal sessions that were already open
+    private final AtomicInteger effectSetsCreated = new AtomicInteger();
+    private final AtomicInteger effectSetsReleased = new AtomicInteger();
+    private final AtomicInteger sessionsReused = new AtomicInteger();
+
+    private final Runnable updateRunnable = () -> {
+        updatePending.set(false);
+        lastUpdateTime = SystemClock.uptimeMillis();
+        applyUpdate();
+    };
 
     public PlaybackEQ(@NonNull Context context, @NonNull EqualizerManager equalizerManager) {
         this.context = context;
         this.equalizerManager = equalizerManager;
 
-        IntentFilter audioFilter = new IntentFilter();
-        audioFilter.addAction(ACTION_OPEN_EQUALIZER_SESSION);
-        audioFilter.addAction(ACTION_CLOSE_EQUALIZER_SESSION);
-        ContextCompat.registerReceiver(context, mAudioSessionReceiver, audioFilter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        dspThread = new HandlerThread("PlaybackEQ.DSP");
+        dspThread.start();
+        dspHandler = new Handler(dspThread.getLooper());
 
         saveDefaults();
     }
@@ -77,17 +96,24 @@ public class PlaybackEQ {
     }
 
     public void release() {
-        releaseEffects();
-
-        context.unregisterReceiver(mAudioSessionReceiver);
-        equalizerManager = null;
+        // The last changes may still be waiting to be written
+        equalizerManager.flush();
+        dspHandler.removeCallbacks(updateRunnable);
+        dspHandler.post(this::releaseEffects);
+        dspThread.quitSafely();
     }
 
     private void releaseEffects() {
         for (EffectSet effectSet : mAudioSessions.values()) {
-            if (effectSet != null) {
-                effectSet.release();
-            }
+            releaseEffectSet(effectSet);
+        }
+        mAudioSessions.clear();
+    }
+
+    private void releaseEffectSet(EffectSet effectSet) {
+        if (effectSet != null) {
+            effectSet.release();
+            effectSetsReleased.incrementAndGet();
         }
     }
 
@@ -115,39 +141,42 @@ public class PlaybackEQ {
     private final Map<Integer, EffectSet> mAudioSessions = new ConcurrentHashMap<>();
 
     /**
-     * Receive new broadcast intents for adding DSP to session
+     * Attaches the effects to the given audio session. This runs on the DSP thread.
+     * An already open session keeps its effects; if the player moved to another
+     * session, the effects of the previous one are released, since nothing plays
+     * through it anymore.
      */
-    private final BroadcastReceiver mAudioSessionReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, @NonNull Intent intent) {
-            String action = intent.getAction();
-            if (action == null) return;
-
-            int sessionId = intent.getIntExtra(AudioEffect.EXTRA_AUDIO_SESSION, 0);
-            if (action.equals(ACTION_OPEN_EQUALIZER_SESSION)) {
-                if (!mAudioSessions.containsKey(sessionId)) {
-                    try {
-                        EffectSet effectSet = new EffectSet(sessionId);
-                        mAudioSessions.put(sessionId, effectSet);
-                    } catch (Exception | ExceptionInInitializerError e) {
-                        Log.e(TAG, "Failed to open EQ session.. EffectSet error ", e);
-                    }
-                }
+    private void openSession(int sessionId) {
+        if (mAudioSessions.containsKey(sessionId)) {
+            sessionsReused.incrementAndGet();
+        } else {
+            Iterator<EffectSet> iterator = mAudioSessions.values().iterator();
+            while (iterator.hasNext()) {
+                releaseEffectSet(iterator.next());
+                iterator.remove();
             }
-            if (action.equals(ACTION_CLOSE_EQUALIZER_SESSION)) {
-                EffectSet gone = mAudioSessions.remove(sessionId);
-                if (gone != null) {
-                    gone.release();
-                }
+            try {
+                mAudioSessions.put(sessionId, new EffectSet(sessionId));
+                effectSetsCreated.incrementAndGet();
+            } catch (Exception | ExceptionInInitializerError e) {
+                Log.e(TAG, "Failed to open EQ session.. EffectSet error ", e);
             }
-            update();
         }
-    };
+        applyUpdate();
+    }
+
+    /**
+     * Releases the effects of the given audio session. This runs on the DSP thread.
+     */
+    private void closeSession(int sessionId) {
+        releaseEffectSet(mAudioSessions.remove(sessionId));
+    }
 
     private void saveDefaults() {
         EffectSet temp;
         try {
             temp = new EffectSet(0);
+            effectSetsCreated.incrementAndGet();
         } catch (Exception | ExceptionInInitializerError | UnsatisfiedLinkError e) {
             releaseEffects();
             return;
@@ -161,13 +190,21 @@ public class PlaybackEQ {
             equalizerManager.setInitialized(true);
         }
 
-        temp.release();
+        releaseEffectSet(temp);
     }
 
     /**
-     * Push new configuration to audio stack.
+     * Push new configuration to audio stack. Several calls made within
+     * {@value #DSP_UPDATE_INTERVAL} milliseconds are applied only once.
      */
-    public synchronized void update() {
+    public void update() {
+        if (updatePending.compareAndSet(false, true)) {
+            long updateTime = Math.max(SystemClock.uptimeMillis(), lastUpdateTime + DSP_UPDATE_INTERVAL);
+            dspHandler.postAtTime(updateRunnable, updateTime);
+        }
+    }
+
+    private void applyUpdate() {
         try {
             for (Integer sessionId : mAudioSessions.keySet()) {
                 updateDsp(mAudioSessions.get(sessionId));
@@ -255,18 +292,15 @@ public class PlaybackEQ {
     }
 
     /**
-     * Sends a broadcast to close any existing audio effect sessions
+     * Closes the internal audio effect session, or sends a broadcast to close
+     * any existing external audio effect sessions
      */
     public void closeEqualizerSessions(boolean internal, int audioSessionId) {
-        Intent intent;
         if (internal) {
             //Close the internal audio session
-            intent = new Intent(ACTION_CLOSE_EQUALIZER_SESSION);
-            intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, audioSessionId);
-            intent.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, context.getPackageName());
-            intent.setPackage(context.getPackageName());
+            dspHandler.post(() -> closeSession(audioSessionId));
         } else {
-            intent = new Intent(AudioEffect.ACTION_CLOSE_AUDIO_EFFECT_CONTROL_SESSION);
+            Intent intent = new Intent(AudioEffect.ACTION_CLOSE_AUDIO_EFFECT_CONTROL_SESSION);
             intent.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, context.getPackageName());
             intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, audioSessionId);
             context.sendBroadcast(intent);
@@ -275,18 +309,26 @@ public class PlaybackEQ {
             intent = new Intent(AudioEffect.ACTION_CLOSE_AUDIO_EFFECT_CONTROL_SESSION);
             intent.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, context.getPackageName());
             intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, 0);
+            context.sendBroadcast(intent);
         }
-        context.sendBroadcast(intent);
     }
 
     public void openEqualizerSession(boolean internal, int audioSessionId) {
-        final Intent intent = new Intent(internal ? ACTION_OPEN_EQUALIZER_SESSION : AudioEffect.ACTION_OPEN_AUDIO_EFFECT_CONTROL_SESSION);
         if (internal) {
-            intent.setPackage(context.getPackageName());
+            dspHandler.post(() -> openSession(audioSessionId));
+            return;
         }
+        final Intent intent = new Intent(AudioEffect.ACTION_OPEN_AUDIO_EFFECT_CONTROL_SESSION);
         intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, audioSessionId);
         intent.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, context.getPackageName());
         intent.putExtra(AudioEffect.EXTRA_CONTENT_TYPE, AudioEffect.CONTENT_TYPE_MUSIC);
         context.sendBroadcast(intent);
     }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Audio effects:");
+        writer.println("  open sessions: " + mAudioSessions.keySet());
+        writer.println("  effect sets created: " + effectSetsCreated.get() + ", released: " + effectSetsReleased.get());
+        writer.println("  sessions reused: " + sessionsReused.get());
+    }
 }
@@ -48,6 +48,7 @@ interface Playback {
 
     fun setDataSource(path: String, completion: (success: Boolean) -> Unit)
     fun setNextDataSource(path: String?)
+    fun prewarm(paths: List<String>)
     fun getCallbacks(): PlaybackCallbacks?
     fun setCallbacks(callbacks: PlaybackCallbacks)
     fun isInitialized(): Boolean
@@ -39,6 +39,7 @@ import com.uniqtech.musicplayer.service.constants.ServiceAction
 import com.uniqtech.musicplayer.service.equalizer.EqualizerManager
 import com.uniqtech.musicplayer.service.equalizer.PlaybackEQ
 import com.uniqtech.musicplayer.util.Preferences
+import java.io.PrintWriter
 
 class PlaybackManager(val context: Context, equalizerManager: EqualizerManager) : AudioManager.OnAudioFocusChangeListener {
 
@@ -75,6 +76,11 @@ class PlaybackManager(val context: Context, equalizerManager: EqualizerManager)
     private var equalizer: PlaybackEQ? = null
     private var equalizerEnabled: Boolean = false
 
+    // The session announced to external equalizers. We don't know whether a
+    // previous instance left one open, so it's assumed to be at first.
+    private var externalSessionId = AudioEffect.ERROR_BAD_VALUE
+    private var externalSessionOpen = true
+
     init {
         playback = MultiPlayer(context)
         equalizer = PlaybackEQ(context, equalizerManager)
@@ -133,7 +139,6 @@ class PlaybackManager(val context: Context, equalizerManager: EqualizerManager)
         if (playback != null && playback!!.isPlaying()) {
             playback?.pause()
             unregisterBecomingNoisyReceiver()
-            closeAudioEffectSession(false)
             onPause()
         }
     }
@@ -150,16 +155,37 @@ class PlaybackManager(val context: Context, equalizerManager: EqualizerManager)
         playback?.setNextDataSource(path)
     }
 
+    fun prewarm(paths: List<String>) {
+        playback?.prewarm(paths)
+    }
+
     fun setReplayGain(rg: Float) {
         playback?.setReplayGain(rg)
     }
 
+    /**
+     * Opens the internal audio effect session (which does nothing if it's already open),
+     * or announces our session to external equalizers if it hasn't been announced yet.
+     */
     fun openAudioEffectSession(internal: Boolean) {
-        equalizer?.openEqualizerSession(internal, getAudioSessionId())
+        val audioSessionId = getAudioSessionId()
+        equalizerEnabled = internal
+        if (internal) {
+            equalizer?.openEqualizerSession(true, audioSessionId)
+        } else if (!externalSessionOpen || externalSessionId != audioSessionId) {
+            equalizer?.openEqualizerSession(false, audioSessionId)
+            externalSessionId = audioSessionId
+            externalSessionOpen = true
+        }
     }
 
     fun closeAudioEffectSession(internal: Boolean) {
-        equalizer?.closeEqualizerSessions(internal, getAudioSessionId())
+        if (internal) {
+            equalizer?.closeEqualizerSessions(true, getAudioSessionId())
+        } else if (externalSessionOpen) {
+            equalizer?.closeEqualizerSessions(false, getAudioSessionId())
+            externalSessionOpen = false
+        }
     }
 
     fun resetEqualizer() {
@@ -178,13 +204,19 @@ class PlaybackManager(val context: Context, equalizerManager: EqualizerManager)
         playback?.let { equalizer?.updateTempo(it) }
     }
 
+    fun dump(writer: PrintWriter) {
+        equalizer?.dump(writer)
+    }
+
     fun release() {
+        // Effect sessions stay open across pauses, this is where they're closed
+        closeAudioEffectSession(false)
+        closeAudioEffectSession(true)
         equalizer?.release()
         playback?.release()
         playback = null
         abandonFocus()
         unregisterBecomingNoisyReceiver()
-        closeAudioEffectSession(true)
     }
 
     private fun unregisterBecomingNoisyReceiver() {
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.uniqtech.musicplayer.service.playback
+
+import android.content.Context
+import android.os.storage.StorageManager
+import android.provider.MediaStore.Audio.AudioColumns
+import android.webkit.MimeTypeMap
+import androidx.core.content.getSystemService
+import androidx.core.net.toUri
+import java.io.File
+import java.io.PrintWriter
+
+/**
+ * Keeps track of how long it takes to prepare each track, grouped by codec (MIME type)
+ * and storage volume, so slow sources can be told apart. The collected values can be
+ * printed with `adb shell dumpsys activity service MusicService`.
+ *
+ * Latencies are recorded per path, which is cheap enough to do while preparing; the
+ * codec and the volume of each path are only resolved when the values are dumped.
+ */
+object PrepareMetrics {
+
+    // Paths that haven't been prepared for a while are forgotten
+    private const val MAX_PATHS = 500
+
+    private val stats = object : LinkedHashMap<String, Stats>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Stats>?): Boolean =
+            size > MAX_PATHS
+    }
+
+    /**
+     * Describes the codec and the storage volume of the given path. This may query the
+     * MediaStore, so it shouldn't be called from the main thread.
+     */
+    fun describeSource(context: Context, path: String): String {
+        var mimeType: String? = null
+        var file: File? = null
+        if (path.startsWith("content://")) {
+            runCatching {
+                context.contentResolver.query(
+                    path.toUri(), arrayOf(AudioColumns.DATA, AudioColumns.MIME_TYPE), null, null, null
+                )?.use { cursor ->
+                    if (cursor.moveToFirst()) {
+                        file = cursor.getString(0)?.let { File(it) }
+                        mimeType = cursor.getString(1)
+                    }
+                }
+            }
+        } else {
+            file = File(path)
+        }
+        if (mimeType == null) {
+            mimeType = file?.extension?.let { MimeTypeMap.getSingleton().getMimeTypeFromExtension(it.lowercase()) }
+        }
+        val volume = file?.let { runCatching { context.getSystemService<StorageManager>()?.getStorageVolume(it) }.getOrNull() }
+        val volumeName = when {
+            volume == null -> "unknown"
+            volume.isPrimary -> "primary"
+            else -> volume.uuid ?: "unknown"
+        }
+        return "${mimeType ?: "unknown"} @ $volumeName"
+    }
+
+    fun record(path: String, latencyMillis: Long) {
+        synchronized(stats) {
+            stats.getOrPut(path) { Stats() }.add(latencyMillis)
+        }
+    }
+
+    fun dump(context: Context, writer: PrintWriter) {
+        val statsByPath = synchronized(stats) {
+            stats.map { (path, pathStats) -> path to pathStats.copy() }
+        }
+        val statsBySource = LinkedHashMap<String, Stats>()
+        for ((path, pathStats) in statsByPath) {
+            statsBySource.getOrPut(describeSource(context, path)) { Stats() }.add(pathStats)
+        }
+        writer.println("Prepare latency (count, average, max):")
+        for ((source, sourceStats) in statsBySource) {
+            writer.println("  $source: ${sourceStats.count}, ${sourceStats.average} ms, ${sourceStats.max} ms")
+        }
+    }
+
+    private class Stats {
+        var count = 0
+            private set
+        var max = 0L
+            private set
+        private var total = 0L
+
+        val average: Long
+            get() = if (count > 0) total / count else 0
+
+        fun add(latencyMillis: Long) {
+            count++
+            total += latencyMillis
+            max = maxOf(max, latencyMillis)
+        }
+
+        fun add(other: Stats) {
+            count += other.count
+            total += other.total
+            max = maxOf(max, other.max)
+        }
+
+        fun copy() = Stats().also { it.add(this) }
+    }
+}
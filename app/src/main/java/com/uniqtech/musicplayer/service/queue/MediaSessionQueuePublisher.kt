@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service.queue
+
+import android.support.v4.media.session.MediaSessionCompat
+import com.uniqtech.musicplayer.extensions.media.asQueueItem
+import com.uniqtech.musicplayer.model.Song
+
+/**
+ * Publishes the playing queue to the [MediaSessionCompat] (and so to Android Auto and
+ * other controllers). Only a window of the queue around the current position is
+ * published, so huge queues don't have to be marshalled across binder in full, and it
+ * is published again only if the window moves or its contents change.
+ *
+ * The window stays in place while the current position moves through it, and is
+ * moved once the position gets close to its end (or out of it).
+ */
+class MediaSessionQueuePublisher(private val mediaSession: MediaSessionCompat) {
+
+    private var windowStart = -1
+    private var publishedSongs = emptyList<Song>()
+
+    fun publish(queue: List<Song>, position: Int, windowSize: Int) {
+        val size = windowSize.coerceAtLeast(MIN_WINDOW_SIZE)
+        val lastStart = (queue.size - size).coerceAtLeast(0)
+        val safePosition = position.coerceIn(0, (queue.size - 1).coerceAtLeast(0))
+
+        var start = windowStart
+        if (start < 0 || start > lastStart || safePosition < start || safePosition >= start + size - size / 4) {
+            // Most of the window is kept ahead of the current position
+            start = (safePosition - size / 4).coerceIn(0, lastStart)
+        }
+        val end = (start + size).coerceAtMost(queue.size)
+
+        // Songs are compared by value, so songs updated by a library change (which
+        // keep their IDs) are published again with their new metadata
+        val songs = ArrayList(queue.subList(start, end))
+        if (start == windowStart && songs == publishedSongs) {
+            return
+        }
+        windowStart = start
+        publishedSongs = songs
+        // Item IDs are the positions in the whole queue (starting at 1), not in the window
+        mediaSession.setQueue(songs.mapIndexed { index, song ->
+            song.asQueueItem(start + index + 1L)
+        })
+    }
+
+    companion object {
+        private const val MIN_WINDOW_SIZE = 10
+    }
+}
@@ -39,8 +39,7 @@ class QueueSong(
     override val artistId: Long,
     override val artistName: String,
     override val albumArtistName: String?,
-    override val genreName: String?,
-    var isUpcoming: Boolean
+    override val genreName: String?
 ) : Song(
     id,
     data,
@@ -59,7 +58,7 @@ class QueueSong(
     genreName
 ) {
 
-    constructor(song: Song, isUpcoming: Boolean) : this(
+    constructor(song: Song) : this(
         song.id,
         song.data,
         song.title,
@@ -74,7 +73,6 @@ class QueueSong(
         song.artistId,
         song.artistName,
         song.albumArtistName,
-        song.genreName,
-        isUpcoming
+        song.genreName
     )
 }
\ No newline at end of file
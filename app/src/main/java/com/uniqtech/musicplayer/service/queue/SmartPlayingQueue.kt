@@ -22,6 +22,7 @@ import androidx.core.content.edit
 import com.uniqtech.musicplayer.helper.ShuffleHelper
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.providers.databases.PlaybackQueueStore
+import com.uniqtech.musicplayer.repository.LibraryDelta
 import com.uniqtech.musicplayer.service.MusicService
 import com.uniqtech.musicplayer.service.constants.ServiceEvent
 import com.uniqtech.musicplayer.service.playback.Playback
@@ -55,8 +56,7 @@ class SmartPlayingQueue(
     private var originalPlayingQueue: MutableList<QueueSong> = ArrayList()
     private var queuesRestored = false
 
-    private val lastUpcomingPosition: Int
-        get() = playingQueue.indexOfLast { it.isUpcoming }
+    private val upcomingRange = UpcomingRange()
 
     val currentSong: Song
         get() = getSongAt(position)
@@ -74,16 +74,16 @@ class SmartPlayingQueue(
         }
     }
 
-    private fun Song.toQueueSong(upcoming: Boolean = false) = QueueSong(this, upcoming)
+    private fun Song.toQueueSong() = QueueSong(this)
 
-    private fun List<Song>.toQueueSongs(upcoming: Boolean = false) =
-        map { QueueSong(it, upcoming) }
+    private fun List<Song>.toQueueSongs() = map { QueueSong(it) }
 
     fun open(queue: List<Song>, startPosition: Int, onCompleted: (position: Int) -> Unit) {
         if (queue.isNotEmpty() && startPosition >= 0 && startPosition < queue.size) {
             // it is important to copy the playing queue here first as we might add/remove songs later
             this.originalPlayingQueue = ArrayList(queue.toQueueSongs())
             this.playingQueue = ArrayList(originalPlayingQueue)
+            this.upcomingRange.clear()
             var position = startPosition
             if (shuffleMode == Playback.ShuffleMode.ON) {
                 ShuffleHelper.makeShuffleList(playingQueue, startPosition)
@@ -157,24 +157,11 @@ class SmartPlayingQueue(
         if (!isSequentialQueue) {
             addSong(position + 1, song)
         } else {
-            val queueSong = song.toQueueSong(true)
-            if (position == playingQueue.lastIndex) {
-                playingQueue.add(queueSong)
-                originalPlayingQueue.add(queueSong)
-            } else for (i in (position + 1) until playingQueue.size) {
-                val item = playingQueue[i]
-                if (item.isUpcoming) {
-                    if (i == playingQueue.lastIndex) {
-                        playingQueue.add(queueSong)
-                        originalPlayingQueue.add(queueSong)
-                        break
-                    }
-                } else {
-                    playingQueue.add(i, queueSong)
-                    originalPlayingQueue.add(i, queueSong)
-                    break
-                }
-            }
+            val index = upcomingRange.nextPosition(position)
+            val queueSong = song.toQueueSong()
+            playingQueue.add(index, queueSong)
+            originalPlayingQueue.add(index.coerceAtMost(originalPlayingQueue.size), queueSong)
+            upcomingRange.last = index
         }
     }
 
@@ -182,32 +169,20 @@ class SmartPlayingQueue(
         if (!isSequentialQueue) {
             addSongs(position + 1, songs)
         } else {
-            val queueSong = songs.toQueueSongs(true)
-            if (position == playingQueue.lastIndex) {
-                playingQueue.addAll(queueSong)
-                originalPlayingQueue.addAll(queueSong)
-            } else for (i in (position + 1) until playingQueue.size) {
-                val item = playingQueue[i]
-                if (item.isUpcoming) {
-                    if (i == playingQueue.lastIndex) {
-                        playingQueue.addAll(queueSong)
-                        originalPlayingQueue.addAll(queueSong)
-                        break
-                    }
-                } else {
-                    playingQueue.addAll(i, queueSong)
-                    originalPlayingQueue.addAll(i, queueSong)
-                    break
-                }
-            }
+            if (songs.isEmpty()) return
+            val index = upcomingRange.nextPosition(position)
+            val queueSongs = songs.toQueueSongs()
+            playingQueue.addAll(index, queueSongs)
+            originalPlayingQueue.addAll(index.coerceAtMost(originalPlayingQueue.size), queueSongs)
+            upcomingRange.last = index + queueSongs.size - 1
         }
     }
 
     fun addSong(position: Int, song: Song) {
-        val isUpcomingRange = isInUpcomingRange(position)
-        val queueSong = song.toQueueSong(isUpcomingRange)
+        val queueSong = song.toQueueSong()
         playingQueue.add(position, queueSong)
         originalPlayingQueue.add(position, queueSong)
+        upcomingRange.onInserted(position, 1)
     }
 
     fun addSong(song: Song) {
@@ -217,10 +192,10 @@ class SmartPlayingQueue(
     }
 
     fun addSongs(position: Int, songs: List<Song>) {
-        val isUpcomingRange = isInUpcomingRange(position)
-        val queueSongs = songs.toQueueSongs(isUpcomingRange)
+        val queueSongs = songs.toQueueSongs()
         playingQueue.addAll(position, queueSongs)
         originalPlayingQueue.addAll(position, queueSongs)
+        upcomingRange.onInserted(position, queueSongs.size)
     }
 
     fun addSongs(songs: List<Song>) {
@@ -233,15 +208,16 @@ class SmartPlayingQueue(
         if (from == to)
             return
 
-        val lastUpcomingIndex = lastUpcomingPosition
+        val lastUpcomingIndex = upcomingRange.last
         val currPosition = this.position
+        val isUpcoming = isInUpcomingRange(to)
         val songToMove = playingQueue.removeAt(from)
-        songToMove.isUpcoming = isInUpcomingRange(to)
         playingQueue.add(to, songToMove)
         if (shuffleMode == Playback.RepeatMode.OFF) {
             val tmpSong = originalPlayingQueue.removeAt(from)
             originalPlayingQueue.add(to, tmpSong)
         }
+        upcomingRange.onMoved(from, to, isUpcoming)
         when {
             currPosition in to until from -> position = currPosition + 1
             currPosition in (from + 1)..to -> position = currPosition - 1
@@ -254,6 +230,7 @@ class SmartPlayingQueue(
                 }
             }
         }
+        upcomingRange.realign(position)
     }
 
     fun removeSong(position: Int) {
@@ -263,31 +240,94 @@ class SmartPlayingQueue(
         } else {
             originalPlayingQueue.remove(playingQueue.removeAt(position))
         }
+        upcomingRange.onRemoved(position, this.position)
         rePosition(position)
     }
 
     fun removeSong(song: Song) {
-        removeSongImpl(song)
+        removeSongs(listOf(song))
     }
 
+    /**
+     * Removes the first occurrence of each given song (as many occurrences as times
+     * the song is given) from both queues, going through each queue only once.
+     */
     fun removeSongs(songs: List<Song>) {
+        if (songs.isEmpty())
+            return
+
+        val counts = HashMap<Song, Int>(songs.size)
         for (song in songs) {
-            removeSongImpl(song)
+            counts[song] = (counts[song] ?: 0) + 1
+        }
+        originalPlayingQueue.removeOccurrences(HashMap(counts))
+        val removedIndices = playingQueue.removeOccurrences(counts)
+        if (removedIndices.isNotEmpty()) {
+            onSongsRemoved(removedIndices)
         }
     }
 
-    private fun removeSongImpl(song: Song) {
-        val deletePosition = playingQueue.indexOf(song)
-        if (deletePosition != -1) {
-            playingQueue.removeAt(deletePosition)
-            rePosition(deletePosition)
+    /**
+     * Moves the position and the upcoming range to account for the songs that were
+     * removed from the playing queue at the given (ascending) [removedIndices].
+     */
+    private fun onSongsRemoved(removedIndices: List<Int>) {
+        val currentPosition = this.position
+        var removedBefore = 0
+        var isCurrentRemoved = false
+        for (index in removedIndices) {
+            if (index < currentPosition) removedBefore++
+            if (index == currentPosition) isCurrentRemoved = true
         }
+        position = currentPosition - removedBefore
+        upcomingRange.onRemoved(removedIndices, position)
+        if (isCurrentRemoved) {
+            // The next remaining song took the place of the current one
+            if (playingQueue.size > position) {
+                musicService.setPosition(position)
+            } else {
+                musicService.setPosition(position - 1)
+            }
+        }
+    }
 
-        val originalDeletePosition = originalPlayingQueue.indexOf(song)
-        if (originalDeletePosition != -1) {
-            originalPlayingQueue.removeAt(originalDeletePosition)
-            rePosition(originalDeletePosition)
+    /**
+     * Brings the queue up to date with the given library [delta]: songs that were
+     * updated get their new metadata (keeping their position in both queues)
+     * and songs that were removed from the library are removed from the queue.
+     *
+     * @return whether the queue has been changed.
+     */
+    fun applyLibraryDelta(delta: LibraryDelta): Boolean {
+        var changed = false
+        if (delta.updated.isNotEmpty()) {
+            // The queues don't necessarily share instances (e.g. after being restored),
+            // so both of them are matched by ID. Each updated song gets a single new
+            // instance though, so both queues keep finding it by equality.
+            val replacements = HashMap<Long, QueueSong>()
+            val updatedById = delta.updatedById
+            for (queue in arrayOf(playingQueue, originalPlayingQueue)) {
+                for (i in queue.indices) {
+                    val updatedSong = updatedById[queue[i].id] ?: continue
+                    queue[i] = replacements.getOrPut(updatedSong.id) { updatedSong.toQueueSong() }
+                }
+            }
+            if (replacements.isNotEmpty()) {
+                changed = true
+            }
+        }
+        if (delta.removedIds.isNotEmpty()) {
+            val removedIds = delta.removedIds
+            if (originalPlayingQueue.removeAll { it.id in removedIds }) {
+                changed = true
+            }
+            val removedIndices = playingQueue.removeMatching { it.id in removedIds }
+            if (removedIndices.isNotEmpty()) {
+                onSongsRemoved(removedIndices)
+                changed = true
+            }
         }
+        return changed
     }
 
     private fun rePosition(deletedPosition: Int) {
@@ -303,50 +343,38 @@ class SmartPlayingQueue(
         }
     }
 
-    private fun isInUpcomingRange(index: Int, firstIndex: Int = position, lastIndex: Int = lastUpcomingPosition): Boolean {
+    private fun isInUpcomingRange(index: Int, firstIndex: Int = position, lastIndex: Int = upcomingRange.last): Boolean {
         if (!isSequentialQueue)
             return false
 
-        if (lastIndex == -1) return false
-        return index in (firstIndex + 1)..lastIndex
+        return upcomingRange.contains(index, firstIndex, lastIndex)
     }
 
     /**
-     * Keeps the status of the upcoming tracks consistent. Basically it removes the
-     * value from those tracks that are out of range (which starts from the position
-     * immediately following the current one, and ends at the last track that has
-     * been added).
+     * Keeps the range of the upcoming tracks consistent. The range starts from the
+     * position immediately following the current one, and ends at the last track
+     * that has been added.
      *
      * It is valid to specify a different range depending on the need of the situation.
      */
-    private fun realignUpcomingRange(firstIndex: Int = position, lastIndex: Int = lastUpcomingPosition) {
+    private fun realignUpcomingRange(firstIndex: Int = position, lastIndex: Int = upcomingRange.last) {
         if (!isSequentialQueue)
             return
 
-        if (lastIndex == -1) return // there is nothing to realign
-        if (lastIndex == firstIndex) {
-            playingQueue[firstIndex].isUpcoming = false
-            return
-        }
-        for ((i, song) in playingQueue.withIndex()) {
-            song.isUpcoming = !(i <= firstIndex || i > lastIndex)
-        }
+        upcomingRange.realign(firstIndex, lastIndex)
     }
 
     /**
      * Remove all upcoming tracks. However, this does not actually remove the items
-     * from the list, it just removes the [QueueSong.isUpcoming] value from them.
+     * from the list, they just stop being considered upcoming.
      */
     private fun removeAllRanges() {
-        if (!isSequentialQueue)
-            return
-
-        playingQueue.forEach { it.isUpcoming = false }
+        upcomingRange.clear()
     }
 
     fun setPositionTo(newPosition: Int) {
         val oldPosition = this.position
-        val lastUpcomingPosition = this.lastUpcomingPosition
+        val lastUpcomingPosition = upcomingRange.last
         this.position = newPosition
         if (newPosition < oldPosition || isInUpcomingRange(newPosition, firstIndex = oldPosition, lastIndex = lastUpcomingPosition)) {
             // First we check if the new position is further back than the
@@ -386,6 +414,7 @@ class SmartPlayingQueue(
     fun clearQueue() {
         playingQueue.clear()
         originalPlayingQueue.clear()
+        upcomingRange.clear()
     }
 
     fun setRepeatMode(mode: Int, onCompleted: () -> Unit) {
@@ -420,13 +449,7 @@ class SmartPlayingQueue(
             Playback.ShuffleMode.OFF -> {
                 val currentSongId = currentSong.id
                 playingQueue = ArrayList(originalPlayingQueue)
-                var newPosition = 0
-                for (song in playingQueue) {
-                    if (song.id == currentSongId) {
-                        newPosition = playingQueue.indexOf(song)
-                    }
-                }
-                position = newPosition
+                position = playingQueue.indexOfFirst { it.id == currentSongId }.coerceAtLeast(0)
             }
         }
         removeAllRanges()
@@ -434,9 +457,10 @@ class SmartPlayingQueue(
     }
 
     internal fun saveQueues() {
+        val queueStore = PlaybackQueueStore.getInstance(musicService)
+        queueStore.saveQueues(playingQueue, originalPlayingQueue)
         coroutineScope.launch(Dispatchers.IO) {
-            PlaybackQueueStore.getInstance(musicService)
-                .saveQueues(playingQueue, originalPlayingQueue)
+            queueStore.writePendingQueues()
         }
     }
 
@@ -453,14 +477,18 @@ class SmartPlayingQueue(
     internal suspend fun restoreQueuesAndPositionIfNecessary(onRestored: (positionInTrack: Int) -> Unit) {
         if (!queuesRestored && playingQueue.isEmpty()) {
             withContext(Dispatchers.IO) {
-                val restoredQueue = PlaybackQueueStore.getInstance(musicService).savedPlayingQueue
-                val restoredOriginalQueue =
-                    PlaybackQueueStore.getInstance(musicService).savedOriginalPlayingQueue
-                val restoredPosition = sharedPreferences.getInt(SAVED_QUEUE_POSITION, -1)
+                val savedPosition = sharedPreferences.getInt(SAVED_QUEUE_POSITION, -1)
+                val restoredQueues = PlaybackQueueStore.getInstance(musicService).restoreQueues(savedPosition)
+                val restoredQueue = restoredQueues.playingQueue
+                val restoredOriginalQueue = restoredQueues.originalPlayingQueue
+                val restoredPosition = restoredQueues.position
                 val restoredPositionInTrack = sharedPreferences.getInt(SAVED_POSITION_IN_TRACK, -1)
-                if (restoredQueue.isNotEmpty() && restoredQueue.size == restoredOriginalQueue.size && restoredPosition != -1) {
+                if (restoredQueue.isNotEmpty() && restoredQueue.size == restoredOriginalQueue.size &&
+                    restoredPosition in restoredQueue.indices
+                ) {
                     originalPlayingQueue = ArrayList(restoredOriginalQueue.toQueueSongs())
                     playingQueue = ArrayList(restoredQueue.toQueueSongs())
+                    upcomingRange.clear()
                     position = restoredPosition
                     onRestored(restoredPositionInTrack)
                 }
@@ -468,4 +496,57 @@ class SmartPlayingQueue(
             queuesRestored = true
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Removes every item matching the given [predicate] in a single pass.
+ *
+ * @return The indices the removed items had in this list, in ascending order
+ */
+internal inline fun <T> MutableList<T>.removeMatching(predicate: (T) -> Boolean): List<Int> {
+    val removedIndices = ArrayList<Int>()
+    var writeIndex = 0
+    for (readIndex in indices) {
+        val item = this[readIndex]
+        if (predicate(item)) {
+            removedIndices.add(readIndex)
+        } else {
+            if (writeIndex != readIndex) {
+                this[writeIndex] = item
+            }
+            writeIndex++
+        }
+    }
+    if (writeIndex < size) {
+        subList(writeIndex, size).clear()
+    }
+    return removedIndices
+}
+
+/**
+ * Removes the items found in [counts] in a single pass, decreasing their
+ * count each time one of them is removed.
+ *
+ * @return The indices the removed items had in this list, in ascending order
+ */
+internal fun <K, T : K> MutableList<T>.removeOccurrences(counts: MutableMap<K, Int>): List<Int> {
+    val removedIndices = ArrayList<Int>()
+    var writeIndex = 0
+    for (readIndex in indices) {
+        val item = this[readIndex]
+        val count = counts[item] ?: 0
+        if (count > 0) {
+            counts[item] = count - 1
+            removedIndices.add(readIndex)
+        } else {
+            if (writeIndex != readIndex) {
+                this[writeIndex] = item
+            }
+            writeIndex++
+        }
+    }
+    if (writeIndex < size) {
+        subList(writeIndex, size).clear()
+    }
+    return removedIndices
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service.queue
+
+/**
+ * The upcoming tracks of a queue. They're always a range that starts right after the
+ * current position and ends at [last], so they can be tracked without looking at (or
+ * updating) every song of the queue.
+ */
+internal class UpcomingRange {
+
+    /**
+     * The position of the last upcoming track, -1 if there are no upcoming tracks.
+     */
+    var last = -1
+
+    fun clear() {
+        last = -1
+    }
+
+    fun contains(index: Int, position: Int, last: Int = this.last): Boolean {
+        if (last == -1) return false
+        return index in (position + 1)..last
+    }
+
+    /**
+     * Returns the position where new upcoming tracks must be added, right after
+     * the current upcoming tracks, or after the current one if there are none.
+     */
+    fun nextPosition(position: Int): Int =
+        if (last > position) last + 1 else position + 1
+
+    /**
+     * Makes the range start after the given [position] and end at [last], discarding
+     * it if it would be empty.
+     */
+    fun realign(position: Int, last: Int = this.last) {
+        if (last == -1) return // there is nothing to realign
+        this.last = if (last > position) last else -1
+    }
+
+    fun onInserted(index: Int, count: Int) {
+        if (last != -1 && index <= last) {
+            last += count
+        }
+    }
+
+    /**
+     * @param position The current position, before it's updated for the removal
+     */
+    fun onRemoved(index: Int, position: Int) {
+        if (last != -1 && index <= last) {
+            last--
+            if (index < position) {
+                // The current position will be moved back as well, the range stays the same
+                return
+            }
+            if (last <= position) {
+                last = -1
+            }
+        }
+    }
+
+    /**
+     * @param removedIndices The indices the removed tracks had, in ascending order
+     * @param position The current position, already updated for the removal
+     */
+    fun onRemoved(removedIndices: List<Int>, position: Int) {
+        if (last == -1) return
+        var removedUpcoming = 0
+        for (index in removedIndices) {
+            if (index > last) break
+            removedUpcoming++
+        }
+        last = (last - removedUpcoming).takeIf { it > position } ?: -1
+    }
+
+    /**
+     * The range loses the moved track if it was part of it, and takes it back if it
+     * was dropped into the range (or before it, shifting it).
+     *
+     * @param isUpcoming Whether [to] was part of the range before moving the track
+     */
+    fun onMoved(from: Int, to: Int, isUpcoming: Boolean) {
+        if (last == -1) return
+        var last = this.last
+        if (from <= last) last--
+        if (isUpcoming || to <= last) last++
+        this.last = last
+    }
+}
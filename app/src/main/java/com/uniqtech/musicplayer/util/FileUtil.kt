@@ -24,6 +24,13 @@ import com.uniqtech.musicplayer.extensions.files.getCanonicalPathSafe
 import com.uniqtech.musicplayer.model.Song
 import com.uniqtech.musicplayer.repository.RealSongRepository
 import com.uniqtech.musicplayer.util.cursor.SortedCursor
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import org.koin.core.component.KoinComponent
 import org.koin.core.component.get
 import java.io.File
@@ -38,6 +45,14 @@ object FileUtil : KoinComponent {
     private const val CUSTOM_ARTIST_IMAGES_DIRECTORY_NAME = "/custom_artist_images/"
     private const val THUMBS_DIRECTORY_NAME = "Thumbs"
 
+    // SQLite allows up to 999 arguments per query, this leaves room for the ones
+    // added by the library filters (whitelist and blacklist)
+    private const val MATCH_CHUNK_SIZE = 500
+    private const val MATCH_PARALLELISM = 4
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val matchDispatcher = Dispatchers.IO.limitedParallelism(MATCH_PARALLELISM)
+
     fun externalStorageDirectory(dirType: String? = null): File {
         return if (dirType == null) {
             Environment.getExternalStorageDirectory()
@@ -72,25 +87,39 @@ object FileUtil : KoinComponent {
         }
     }
 
-    fun matchFilesWithMediaStore(files: List<File>): List<Song> {
-        var selection: String? = null
-        val paths: Array<String> = Array(files.size) {
-            files[it].getCanonicalPathSafe()
-        }
-        if (files.size in 1..998) { // 999 is the max amount Androids SQL implementation can handle.
-            selection = AudioColumns.DATA + " IN (" + makePlaceholders(files.size) + ")"
-        }
+    /**
+     * Finds the songs of the given files in the MediaStore, in the same order as [files].
+     * Files that aren't part of the library are skipped.
+     */
+    suspend fun matchFilesWithMediaStore(files: List<File>): List<Song> {
+        val songs = ArrayList<Song>(files.size)
+        matchFilesWithMediaStoreChunked(files).collect { songs.addAll(it) }
+        return songs
+    }
+
+    /**
+     * Same as [matchFilesWithMediaStore], but the songs are emitted in chunks, in order,
+     * as soon as each chunk is matched. Chunks are small enough to be queried with a
+     * `DATA IN (...)` selection, and several of them are queried in parallel.
+     */
+    fun matchFilesWithMediaStoreChunked(files: List<File>): Flow<List<Song>> = flow {
         val songRepository = get<RealSongRepository>()
-        val songCursor = songRepository.makeSongCursor(selection, if (selection == null) null else paths)
-        return when {
-            songCursor != null -> songRepository.songs(
-                SortedCursor(
-                    songCursor,
-                    paths,
-                    AudioColumns.DATA
-                )
-            )
-            else -> ArrayList()
+        coroutineScope {
+            val chunks = files.chunked(MATCH_CHUNK_SIZE).map { chunk ->
+                async(matchDispatcher) { matchChunk(songRepository, chunk) }
+            }
+            for (chunk in chunks) {
+                emit(chunk.await())
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+
+    private fun matchChunk(songRepository: RealSongRepository, files: List<File>): List<Song> {
+        val paths = Array(files.size) { files[it].getCanonicalPathSafe() }
+        val selection = AudioColumns.DATA + " IN (" + makePlaceholders(paths.size) + ")"
+        val songCursor = songRepository.makeSongCursor(selection, paths) ?: return emptyList()
+        return songCursor.use {
+            songRepository.songs(SortedCursor(it, paths, AudioColumns.DATA))
         }
     }
 
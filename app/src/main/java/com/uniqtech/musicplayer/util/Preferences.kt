@@ -208,6 +208,12 @@ object Preferences : KoinComponent {
     val gaplessPlayback: Boolean
         get() = preferences.getBoolean(GAPLESS_PLAYBACK, false)
 
+    val prepareUpcomingTracks: Int
+        get() = preferences.requireString(PREPARE_UPCOMING_TRACKS, "0").toIntOrNull() ?: 0
+
+    val mediaSessionQueueSize: Int
+        get() = preferences.requireString(MEDIA_SESSION_QUEUE_SIZE, "100").toIntOrNull() ?: 100
+
     val autoPlayOnSkip: Boolean
         get() = preferences.getBoolean(AUTO_PLAY_ON_SKIP, true)
 
@@ -232,6 +238,9 @@ object Preferences : KoinComponent {
         else -> preferences.getFloat(REPLAYGAIN_PREAMP_WITHOUT_TAG, 0f)
     }
 
+    val replayGainLibraryScan: Boolean
+        get() = preferences.getBoolean(REPLAYGAIN_LIBRARY_SCAN, false)
+
     val audioDucking: Boolean
         get() = preferences.getBoolean(AUDIO_DUCKING, true)
 
@@ -560,6 +569,8 @@ const val PREFER_ALBUM_ARTIST_NAME = "prefer_album_artist_name_on_np"
 const val PLAYBACK_SPEED = "playback_speed"
 const val PLAYBACK_PITCH = "playback_pitch"
 const val GAPLESS_PLAYBACK = "gapless_playback"
+const val PREPARE_UPCOMING_TRACKS = "prepare_upcoming_tracks"
+const val MEDIA_SESSION_QUEUE_SIZE = "media_session_queue_size"
 const val AUTO_PLAY_ON_SKIP = "auto_play_on_skip"
 const val REWIND_WITH_BACK = "rewind_with_back"
 const val FAST_FORWARD = "fast_forward"
@@ -568,6 +579,7 @@ const val REPLAYGAIN_SOURCE_MODE = "replaygain_source_mode"
 const val REPLAYGAIN_PREAMP = "replaygain_preamp"
 const val REPLAYGAIN_PREAMP_WITH_TAG = "replaygain_preamp_with_tag"
 const val REPLAYGAIN_PREAMP_WITHOUT_TAG = "replaygain_preamp_without_tag"
+const val REPLAYGAIN_LIBRARY_SCAN = "replaygain_library_scan"
 const val QUEUE_NEXT_MODE = "queue_next_mode"
 const val REMEMBER_SHUFFLE_MODE = "remember_shuffle_mode"
 const val ALBUM_SHUFFLE_MODE = "album_shuffle_mode"
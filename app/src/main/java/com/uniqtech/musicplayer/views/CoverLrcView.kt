@@ -41,7 +41,6 @@ import com.uniqtech.musicplayer.extensions.resources.getDrawableCompat
 import com.uniqtech.musicplayer.lyrics.LrcEntry
 import com.uniqtech.musicplayer.lyrics.LrcLyrics
 import com.uniqtech.musicplayer.lyrics.LrcUtils
-import kotlin.math.abs
 
 /**
  * 歌词 Created by wcy on 2015/11/9.
@@ -54,6 +53,8 @@ class CoverLrcView @JvmOverloads constructor(
 ) : View(context, attrs, defStyleAttr) {
 
     private val mLrcEntryList: MutableList<LrcEntry> = ArrayList()
+    private val mLinePositions = LrcLinePositions()
+    private var mLayoutWidth = 0
     private val mLrcPaint = TextPaint()
     private val mTimePaint = TextPaint()
     private var mTimeFontMetrics: Paint.FontMetrics? = null
@@ -316,11 +317,11 @@ class CoverLrcView @JvmOverloads constructor(
             canvas.drawText(timeText, timeX, timeY, mTimePaint)
         }
         canvas.translate(0f, mOffset)
-        var y = 0f
-        for (i in mLrcEntryList.indices) {
-            if (i > 0) {
-                y += ((mLrcEntryList[i - 1].height + mLrcEntryList[i].height shr 1) + mDividerHeight)
-            }
+        // Only the lines that are (at least partially) visible are drawn
+        val firstLine = (mLinePositions.nearestLine(-mOffset) - 1).coerceAtLeast(0)
+        val lastLine = (mLinePositions.nearestLine(height - mOffset) + 1).coerceAtMost(mLinePositions.size - 1)
+        for (i in firstLine..lastLine) {
+            val y = mLinePositions[i]
             if (i == mCurrentLine) {
                 mLrcPaint.textSize = mCurrentTextSize
                 mLrcPaint.color = mCurrentTextColor
@@ -398,8 +399,15 @@ class CoverLrcView @JvmOverloads constructor(
         if (!hasLrc() || width == 0) {
             return
         }
-        for (lrcEntry in mLrcEntryList) {
-            lrcEntry.init(mLrcPaint, lrcWidth.toInt(), mTextGravity)
+        // The layouts only depend on the width, there's no need
+        // to rebuild them when just the height or position changes
+        val lrcWidth = lrcWidth.toInt()
+        if (lrcWidth != mLayoutWidth) {
+            for (lrcEntry in mLrcEntryList) {
+                lrcEntry.init(mLrcPaint, lrcWidth, mTextGravity)
+            }
+            mLinePositions.update(mLrcEntryList, mDividerHeight)
+            mLayoutWidth = lrcWidth
         }
         mOffset = (height / 2).toFloat()
     }
@@ -412,6 +420,8 @@ class CoverLrcView @JvmOverloads constructor(
         isFling = false
         removeCallbacks(hideTimelineRunnable)
         mLrcEntryList.clear()
+        mLinePositions.clear()
+        mLayoutWidth = 0
         mOffset = 0f
         mCurrentLine = 0
         invalidate()
@@ -460,29 +470,14 @@ class CoverLrcView @JvmOverloads constructor(
     }
 
     private val centerLine: Int
-        get() {
-            var centerLine = 0
-            var minDistance = Float.MAX_VALUE
-            for (i in mLrcEntryList.indices) {
-                if (abs(mOffset - getOffset(i)) < minDistance) {
-                    minDistance = abs(mOffset - getOffset(i))
-                    centerLine = i
-                }
-            }
-            return centerLine
-        }
+        get() = mLinePositions.nearestLine((height / 2).toFloat() - mOffset)
 
     private fun getOffset(line: Int): Float {
         if (mLrcEntryList.isEmpty()) return 0F
-        if (mLrcEntryList[line].offset == Float.MIN_VALUE) {
-            var offset = (height / 2).toFloat()
-            for (i in 1..line) {
-                offset -= ((mLrcEntryList[i - 1].height + mLrcEntryList[i].height shr 1)
-                        + mDividerHeight)
-            }
-            mLrcEntryList[line].offset = offset
+        if (line !in 0 until mLinePositions.size) {
+            return (height / 2).toFloat()
         }
-        return mLrcEntryList[line].offset
+        return (height / 2).toFloat() - mLinePositions[line]
     }
 
     private val lrcWidth: Float
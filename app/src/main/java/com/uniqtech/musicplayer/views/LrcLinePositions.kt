@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.views
+
+import com.uniqtech.musicplayer.lyrics.LrcEntry
+
+/**
+ * Keeps the vertical position of the center of each lyrics line, relative to the first
+ * one, as a prefix sum of the line heights. This way the offset of any line, and the line
+ * closest to a given position, can be found without going through all the lines.
+ */
+class LrcLinePositions {
+
+    private var positions = FloatArray(0)
+
+    val size: Int
+        get() = positions.size
+
+    /**
+     * Recomputes the positions of the given lines, whose layouts must be already built.
+     */
+    fun update(entries: List<LrcEntry>, dividerHeight: Float) {
+        update(IntArray(entries.size) { entries[it].height }, dividerHeight)
+    }
+
+    internal fun update(heights: IntArray, dividerHeight: Float) {
+        val positions = FloatArray(heights.size)
+        for (i in 1 until heights.size) {
+            positions[i] = positions[i - 1] + ((heights[i - 1] + heights[i]) shr 1) + dividerHeight
+        }
+        this.positions = positions
+    }
+
+    fun clear() {
+        positions = FloatArray(0)
+    }
+
+    operator fun get(line: Int): Float = positions[line]
+
+    /**
+     * Returns the line whose center is closest to the given position (the first one
+     * in case of a tie), or 0 if there are no lines.
+     */
+    fun nearestLine(y: Float): Int {
+        val positions = positions
+        if (positions.isEmpty()) return 0
+        var low = 0
+        var high = positions.size - 1
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (positions[middle] < y) {
+                low = middle + 1
+            } else {
+                high = middle
+            }
+        }
+        if (low > 0 && y - positions[low - 1] <= positions[low] - y) {
+            return low - 1
+        }
+        return low
+    }
+}
@@ -59,6 +59,8 @@ public class LrcView extends View {
     private static final long TIMELINE_KEEP_TIME = 4 * DateUtils.SECOND_IN_MILLIS;
 
     private final List<LrcEntry> mLrcEntryList = new ArrayList<>();
+    private final LrcLinePositions mLinePositions = new LrcLinePositions();
+    private int mLayoutWidth;
     private final TextPaint mLrcPaint = new TextPaint();
     private final TextPaint mTimePaint = new TextPaint();
     private Paint.FontMetrics mTimeFontMetrics;
@@ -342,11 +344,11 @@ public class LrcView extends View {
 
         canvas.translate(0, mOffset);
 
-        float y = 0;
-        for (int i = 0; i < mLrcEntryList.size(); i++) {
-            if (i > 0) {
-                y += ((mLrcEntryList.get(i - 1).getHeight() + mLrcEntryList.get(i).getHeight()) >> 1) + mDividerHeight;
-            }
+        // Only the lines that are (at least partially) visible are drawn
+        int firstLine = Math.max(0, mLinePositions.nearestLine(-mOffset) - 1);
+        int lastLine = Math.min(mLinePositions.getSize() - 1, mLinePositions.nearestLine(getHeight() - mOffset) + 1);
+        for (int i = firstLine; i <= lastLine; i++) {
+            float y = mLinePositions.get(i);
             if (i == mCurrentLine) {
                 mLrcPaint.setTextSize(mCurrentTextSize);
                 mLrcPaint.setColor(mCurrentTextColor);
@@ -422,8 +424,15 @@ public class LrcView extends View {
             return;
         }
 
-        for (LrcEntry lrcEntry : mLrcEntryList) {
-            lrcEntry.init(mLrcPaint, (int) getLrcWidth(), mTextGravity);
+        // The layouts only depend on the width, there's no need
+        // to rebuild them when just the height or position changes
+        int lrcWidth = (int) getLrcWidth();
+        if (lrcWidth != mLayoutWidth) {
+            for (LrcEntry lrcEntry : mLrcEntryList) {
+                lrcEntry.init(mLrcPaint, lrcWidth, mTextGravity);
+            }
+            mLinePositions.update(mLrcEntryList, mDividerHeight);
+            mLayoutWidth = lrcWidth;
         }
 
         mOffset = getHeight() / 2F;
@@ -437,6 +446,8 @@ public class LrcView extends View {
         isFling = false;
         removeCallbacks(hideTimelineRunnable);
         mLrcEntryList.clear();
+        mLinePositions.clear();
+        mLayoutWidth = 0;
         mOffset = 0;
         mCurrentLine = 0;
         //invalidate();
@@ -493,26 +504,14 @@ public class LrcView extends View {
     }
 
     private int getCenterLine() {
-        int centerLine = 0;
-        float minDistance = Float.MAX_VALUE;
-        for (int i = 0; i < mLrcEntryList.size(); i++) {
-            if (Math.abs(mOffset - getOffset(i)) < minDistance) {
-                minDistance = Math.abs(mOffset - getOffset(i));
-                centerLine = i;
-            }
-        }
-        return centerLine;
+        return mLinePositions.nearestLine(getHeight() / 2F - mOffset);
     }
 
     private float getOffset(int line) {
-        if (mLrcEntryList.get(line).offset == Float.MIN_VALUE) {
-            float offset = getHeight() / 2F;
-            for (int i = 1; i <= line; i++) {
-                offset -= ((mLrcEntryList.get(i - 1).getHeight() + mLrcEntryList.get(i).getHeight()) >> 1) + mDividerHeight;
-            }
-            mLrcEntryList.get(line).offset = offset;
+        if (line < 0 || line >= mLinePositions.getSize()) {
+            return getHeight() / 2F;
         }
-        return mLrcEntryList.get(line).offset;
+        return getHeight() / 2F - mLinePositions.get(line);
     }
 
     private float getLrcWidth() {
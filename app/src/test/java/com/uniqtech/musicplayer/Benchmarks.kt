@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer
+
+import org.junit.Assert.assertTrue
+import kotlin.system.measureNanoTime
+
+/**
+ * Runs [block] [warmupRuns] times so the JIT compiles it, then [runs] more times.
+ *
+ * @return The median of the measured runs, in nanoseconds
+ */
+internal inline fun medianNanos(runs: Int, warmupRuns: Int = 1, block: () -> Unit): Long {
+    repeat(warmupRuns) { block() }
+    val nanos = LongArray(runs) { measureNanoTime(block) }
+    return nanos.sorted()[runs / 2]
+}
+
+/**
+ * Fails when [nanos] isn't below [baselineNanos], with both timings in the message.
+ */
+internal fun assertFasterThanBaseline(name: String, nanos: Long, baselineNanos: Long) {
+    assertTrue(
+        "$name took ${nanos / 1000} us, the baseline ${baselineNanos / 1000} us",
+        nanos < baselineNanos
+    )
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.http
+
+import android.content.ContextWrapper
+import okhttp3.Cache
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.net.HttpURLConnection
+
+/**
+ * Checks that the client built by [provideOkHttp] reuses its connections and that
+ * [HttpMetrics] tells apart the responses served by the cache.
+ */
+class SharedHttpClientTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val context = object : ContextWrapper(null) {
+        override fun getPackageName() = "com.uniqtech.musicplayer.test"
+    }
+
+    private lateinit var server: MockWebServer
+    private lateinit var cache: Cache
+    private lateinit var client: OkHttpClient
+
+    @Before
+    fun setUp() {
+        server = MockWebServer().apply { start() }
+        cache = Cache(temporaryFolder.newFolder("okhttp-cache"), 1024 * 1024)
+        client = provideOkHttp(context, cache)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+        cache.close()
+    }
+
+    @Test
+    fun reusesConnections() {
+        repeat(3) { server.enqueue(MockResponse().setBody("song $it")) }
+        repeat(3) { assertEquals("song $it", get("/reuse/$it")) }
+        // The index of each request on its connection: a single connection was used
+        assertEquals(listOf(0, 1, 2), List(3) { server.takeRequest().sequenceNumber })
+    }
+
+    @Test
+    fun countsCacheHits() {
+        server.enqueue(MockResponse().setHeader("Cache-Control", "max-age=60").setBody("lyrics"))
+        assertEquals("lyrics", get("/hit/1"))
+        assertEquals("lyrics", get("/hit/1"))
+
+        assertEquals(1, server.requestCount)
+        val stats = HttpMetrics.stats("${server.url("/").host}/hit")!!
+        assertEquals(2, stats.count)
+        assertEquals(1, stats.hits)
+        assertEquals(0, stats.conditionalHits)
+    }
+
+    @Test
+    fun countsConditionalHits() {
+        server.enqueue(
+            MockResponse()
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("ETag", "\"v1\"")
+                .setBody("cover")
+        )
+        server.enqueue(MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED))
+        assertEquals("cover", get("/conditional/1"))
+        assertEquals("cover", get("/conditional/1"))
+
+        server.takeRequest()
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"))
+        val stats = HttpMetrics.stats("${server.url("/").host}/conditional")!!
+        assertEquals(2, stats.count)
+        assertEquals(0, stats.hits)
+        assertEquals(1, stats.conditionalHits)
+    }
+
+    private fun get(path: String): String {
+        val request = Request.Builder().url(server.url(path)).build()
+        return client.newCall(request).execute().use { it.body!!.string() }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.http.lyrics
+
+import com.uniqtech.musicplayer.model.DownloadedLyrics
+import com.uniqtech.musicplayer.model.Song
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+
+/**
+ * Runs [LyricsService] over stub providers on virtual time, so each test can tell
+ * exactly when every provider was started.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class LyricsServiceTest {
+
+    private val song = Song(1, "/music/song.mp3", "Song", 1, 2000, 0, 180_000, 0, 0, 1, "Album", 1, "Artist", null, null)
+
+    // Name and virtual time at which each provider was started, in order
+    private val calls = ArrayList<Pair<String, Long>>()
+
+    private inner class StubApi(
+        private val scope: TestScope,
+        val name: String,
+        private val delayMillis: Long = 0,
+        private val result: () -> DownloadedLyrics?
+    ) : LyricsApi {
+
+        var isCancelled = false
+            private set
+
+        override suspend fun songLyrics(song: Song, title: String, artist: String): DownloadedLyrics? {
+            calls.add(name to scope.currentTime)
+            try {
+                delay(delayMillis)
+            } catch (e: CancellationException) {
+                isCancelled = true
+                throw e
+            }
+            return result()
+        }
+    }
+
+    private fun lyrics(title: String, plain: String? = null, synced: String? = null) =
+        DownloadedLyrics(1, title, "Artist", "Album", 180.0, plain, synced)
+
+    private fun service(vararg apis: StubApi) =
+        LyricsService(apis.map { LyricsService.Provider(it.name, it) }, HEDGE_DELAY)
+
+    private suspend fun LyricsService.lyricsOf(song: Song) = getLyrics(song, song.title, song.artistName)
+
+    @Test
+    fun startsNextProviderWhenTheRunningOneIsSlow() = runTest {
+        val slow = StubApi(this, "slow", delayMillis = 1000) { lyrics("slow", synced = SYNCED) }
+        val fast = StubApi(this, "fast", delayMillis = 50) { lyrics("fast", plain = PLAIN) }
+        val result = service(slow, fast).lyricsOf(song)
+
+        assertEquals(listOf("slow" to 0L, "fast" to HEDGE_DELAY), calls)
+        // The plain lyrics alone aren't complete, so the slow provider was awaited
+        assertEquals(1000L, currentTime)
+        assertEquals(SYNCED, result.syncedLyrics)
+        assertEquals(PLAIN, result.plainLyrics)
+    }
+
+    @Test
+    fun cancelsTheProvidersThatLost() = runTest {
+        val slow = StubApi(this, "slow", delayMillis = 1000) { lyrics("slow", plain = PLAIN) }
+        val fast = StubApi(this, "fast", delayMillis = 50) { lyrics("fast", PLAIN, SYNCED) }
+        val unused = StubApi(this, "unused") { lyrics("unused", PLAIN, SYNCED) }
+        val result = service(slow, fast, unused).lyricsOf(song)
+
+        assertEquals(HEDGE_DELAY + 50, currentTime)
+        assertEquals(listOf("slow" to 0L, "fast" to HEDGE_DELAY), calls)
+        assertTrue(slow.isCancelled)
+        assertEquals("fast", result.title)
+    }
+
+    @Test
+    fun stopsAsSoonAsTheLyricsAreComplete() = runTest {
+        val first = StubApi(this, "first") { lyrics("first", PLAIN, SYNCED) }
+        val second = StubApi(this, "second") { lyrics("second", PLAIN, SYNCED) }
+        service(first, second).lyricsOf(song)
+
+        assertEquals(listOf("first" to 0L), calls)
+    }
+
+    @Test
+    fun mergesByRank() = runTest {
+        val plainOnly = StubApi(this, "plain") { lyrics("plain", plain = "first plain") }
+        val both = StubApi(this, "both") { lyrics("both", "second plain", SYNCED) }
+        val result = service(plainOnly, both).lyricsOf(song)
+
+        // Plain lyrics of the best ranked provider, synced lyrics and metadata from the one that had them
+        assertEquals("first plain", result.plainLyrics)
+        assertEquals(SYNCED, result.syncedLyrics)
+        assertEquals("both", result.title)
+    }
+
+    @Test
+    fun ranksProvidersByHowOftenTheyAnswer() = runTest {
+        val empty = StubApi(this, "empty") { null }
+        val good = StubApi(this, "good") { lyrics("good", PLAIN, SYNCED) }
+        val service = service(empty, good)
+        service.lyricsOf(song)
+        service.lyricsOf(song)
+
+        assertEquals(listOf("empty", "good", "good"), calls.map { it.first })
+    }
+
+    @Test
+    fun ignoresHedgeTimeoutsOfFinishedProviders() = runTest {
+        val failing = StubApi(this, "failing", delayMillis = 10) { throw IOException("failing") }
+        val slow = StubApi(this, "slow", delayMillis = 1000) { lyrics("slow", plain = PLAIN) }
+        val last = StubApi(this, "last") { lyrics("last", PLAIN, SYNCED) }
+        service(failing, slow, last).lyricsOf(song)
+
+        // The timeout scheduled along with the first provider fired when the second one
+        // had just been started, so the last one waited for its own timeout
+        assertEquals(listOf("failing" to 0L, "slow" to 10L, "last" to 10 + HEDGE_DELAY), calls)
+        assertTrue(slow.isCancelled)
+    }
+
+    @Test
+    fun returnsSongWhenNoProviderHasLyrics() = runTest {
+        val result = service(StubApi(this, "empty") { null }).lyricsOf(song)
+
+        assertEquals(song.title, result.title)
+        assertNull(result.plainLyrics)
+        assertFalse(result.isSynced)
+    }
+
+    @Test
+    fun rethrowsErrorOfBestRankedProvider() = runTest {
+        val first = StubApi(this, "first", delayMillis = 500) { throw IOException("first") }
+        val second = StubApi(this, "second") { throw IllegalStateException("second") }
+        val third = StubApi(this, "third") { throw IllegalStateException("third") }
+        try {
+            service(first, second, third).lyricsOf(song)
+            fail("Every provider failed, an exception was expected")
+        } catch (e: IOException) {
+            assertEquals("first", e.message)
+        }
+        assertEquals(3, calls.size)
+    }
+
+    companion object {
+        private const val HEDGE_DELAY = 100L
+        private const val PLAIN = "Plain lyrics"
+        private const val SYNCED = "[00:01.00]Synced lyrics"
+    }
+}
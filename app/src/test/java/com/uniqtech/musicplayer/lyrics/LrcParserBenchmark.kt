@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.lyrics
+
+import com.uniqtech.musicplayer.assertFasterThanBaseline
+import com.uniqtech.musicplayer.medianNanos
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.util.regex.Pattern
+
+/**
+ * Compares [LrcUtils.parse] against the regular expressions it replaced, over a synthetic
+ * file of [LINE_COUNT] lines. Ignored by default as its timings depend on the machine.
+ */
+@Ignore("Benchmark, run it on demand")
+class LrcParserBenchmark {
+
+    private val content = buildString {
+        appendLine("[ti:Benchmark]")
+        appendLine("[ar:Artist]")
+        for (i in 0 until LINE_COUNT) {
+            val time = i * 1500L
+            appendLine("[%02d:%02d.%02d]Line number %d of the synthetic lyrics".format(time / 60000, time / 1000 % 60, time % 1000 / 10, i))
+        }
+    }
+
+    @Test
+    fun parse() {
+        assertEquals(legacyParse(content).map { it.time }, LrcUtils.parse(content).lines.map { it.time })
+
+        val parserNanos = medianNanos(RUNS, warmupRuns = RUNS) { LrcUtils.parse(content) }
+        val regexNanos = medianNanos(RUNS, warmupRuns = RUNS) { legacyParse(content) }
+        assertFasterThanBaseline("LrcUtils.parse", parserNanos, regexNanos)
+    }
+
+    /**
+     * The parser LrcUtils used before, kept here as the baseline.
+     */
+    private fun legacyParse(content: String): List<LrcEntry> {
+        val lines = ArrayList<LrcEntry>()
+        for (line in content.lineSequence()) {
+            if (line.isBlank()) continue
+            val attrMatcher = LRC_ATTRIBUTE_PATTERN.matcher(line)
+            if (attrMatcher.find()) continue
+            val matcher = LRC_LINE_PATTERN.matcher(line)
+            if (matcher.find()) {
+                val time = matcher.group(1)!!.trim()
+                val text = matcher.group(2)!!.trim()
+                val timeMatcher = LRC_TIME_PATTERN.matcher(time)
+                while (timeMatcher.find()) {
+                    val m = timeMatcher.group(1)!!.toInt()
+                    val s = timeMatcher.group(2)!!.toFloat()
+                    lines.add(LrcEntry((s * 1000f).toLong() + m * 60_000L, text))
+                }
+            }
+        }
+        return lines
+    }
+
+    companion object {
+        private const val LINE_COUNT = 5_000
+        private const val RUNS = 9
+
+        private val LRC_LINE_PATTERN = Pattern.compile("((?:\\[.*?])+)(.*)")
+        private val LRC_TIME_PATTERN = Pattern.compile("\\[(\\d+):(\\d{2}(?:\\.\\d+)?)]")
+        private val LRC_ATTRIBUTE_PATTERN = Pattern.compile("\\[(\\D+):(.+)]")
+    }
+}
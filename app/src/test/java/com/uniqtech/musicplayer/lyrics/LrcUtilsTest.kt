@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.lyrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LrcUtilsTest {
+
+    private fun LrcLyrics.times() = lines.map { it.time }
+
+    private fun LrcLyrics.texts() = lines.map { it.text }
+
+    @Test
+    fun parsesSimpleLines() {
+        val lyrics = LrcUtils.parse("[00:01.00]First\n[00:02.50]Second\n[01:03.123]Third")
+        assertEquals(listOf(1000L, 2500L, 63123L), lyrics.times())
+        assertEquals(listOf("First", "Second", "Third"), lyrics.texts())
+    }
+
+    @Test
+    fun repeatsLinesWithSeveralTimestamps() {
+        val lyrics = LrcUtils.parse("[00:12.00][01:30.50]Chorus\n[00:20.00]Verse")
+        assertEquals(listOf(12000L, 20000L, 90500L), lyrics.times())
+        assertEquals(listOf("Chorus", "Verse", "Chorus"), lyrics.texts())
+    }
+
+    @Test
+    fun keepsOrderOfLinesSharingTimestamp() {
+        val lyrics = LrcUtils.parse("[00:05.00]Later\n[00:01.00]First\n[00:01.00]Second")
+        assertEquals(listOf("First", "Second", "Later"), lyrics.texts())
+    }
+
+    @Test
+    fun appliesOffset() {
+        val lyrics = LrcUtils.parse("[ar:Artist]\n[offset:500]\n[00:00.20]Clamped\n[00:10.00]Sooner")
+        assertEquals(500L, lyrics.offset)
+        assertEquals(listOf(0L, 9500L), lyrics.times())
+
+        val delayed = LrcUtils.parse("[offset:-250]\n[00:10.00]Later")
+        assertEquals(listOf(10250L), delayed.times())
+    }
+
+    @Test
+    fun skipsAttributes() {
+        val lyrics = LrcUtils.parse("[ti:Title]\n[ar:Artist]\n[length: 03:20]\n[00:01.00]Line")
+        assertEquals(listOf("Line"), lyrics.texts())
+    }
+
+    @Test
+    fun stripsWordTimestamps() {
+        val lyrics = LrcUtils.parse("[00:10.00]<00:10.00>Hello <00:10.50>world<00:11.00>")
+        assertEquals(listOf("Hello world"), lyrics.texts())
+    }
+
+    @Test
+    fun keepsAngleBracketsThatAreNotTimestamps() {
+        val lyrics = LrcUtils.parse("[00:01.00]I <3 you <b>")
+        assertEquals(listOf("I <3 you <b>"), lyrics.texts())
+    }
+
+    @Test
+    fun acceptsSingleDigitSeconds() {
+        val lyrics = LrcUtils.parse("[0:5.1]One\n[00:7]Two\n[1:02:50]Three")
+        assertEquals(listOf(5100L, 7000L, 62500L), lyrics.times())
+    }
+
+    @Test
+    fun rejectsMalformedTimestamps() {
+        val lyrics = LrcUtils.parse("[00:123.00]Seconds\n[aa:10.00]Minutes\n[00:10.]Fraction\n[00:10.00 Unclosed")
+        assertEquals(emptyList<Long>(), lyrics.times())
+    }
+
+    @Test
+    fun keepsEmptyLines() {
+        val lyrics = LrcUtils.parse("[00:01.00]Line\n[00:02.00]\n\n   \n[00:03.00]  Trimmed  ")
+        assertEquals(listOf("Line", "", "Trimmed"), lyrics.texts())
+    }
+}
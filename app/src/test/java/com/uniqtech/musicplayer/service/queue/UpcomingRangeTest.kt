@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.service.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Every test starts from a queue playing position [POSITION] with the upcoming
+ * tracks 3, 4 and 5.
+ */
+class UpcomingRangeTest {
+
+    private fun range(last: Int = LAST) = UpcomingRange().apply { this.last = last }
+
+    @Test
+    fun nextPositionFollowsTheRange() {
+        assertEquals(6, range().nextPosition(POSITION))
+        assertEquals(3, range(-1).nextPosition(POSITION))
+        // A range left behind by the current position doesn't count
+        assertEquals(3, range(POSITION).nextPosition(POSITION))
+    }
+
+    @Test
+    fun containsOnlyTracksAfterThePosition() {
+        val range = range()
+        assertFalse(range.contains(POSITION, POSITION))
+        assertTrue(range.contains(3, POSITION))
+        assertTrue(range.contains(5, POSITION))
+        assertFalse(range.contains(6, POSITION))
+        assertFalse(range(-1).contains(3, POSITION))
+    }
+
+    @Test
+    fun insertionsShiftTheEndOfTheRange() {
+        assertEquals(7, range().apply { onInserted(4, 2) }.last)
+        assertEquals(6, range().apply { onInserted(0, 1) }.last)
+        // Tracks added right after the range aren't upcoming
+        assertEquals(5, range().apply { onInserted(6, 1) }.last)
+        assertEquals(-1, range(-1).apply { onInserted(0, 1) }.last)
+    }
+
+    @Test
+    fun removingUpcomingTrackShrinksTheRange() {
+        assertEquals(4, range().apply { onRemoved(4, POSITION) }.last)
+        assertEquals(5, range().apply { onRemoved(7, POSITION) }.last)
+    }
+
+    @Test
+    fun removingTrackBeforeThePositionShiftsTheRange() {
+        // The position moves back too, so the range keeps its three tracks
+        assertEquals(4, range().apply { onRemoved(0, POSITION) }.last)
+    }
+
+    @Test
+    fun removingTheOnlyUpcomingTrackDiscardsTheRange() {
+        assertEquals(-1, range(3).apply { onRemoved(3, POSITION) }.last)
+    }
+
+    @Test
+    fun bulkRemovalCountsOnlyTracksUpToTheRangeEnd() {
+        // 0 was before the current track, which is now at position 1
+        assertEquals(3, range().apply { onRemoved(listOf(0, 3, 7), 1) }.last)
+        assertEquals(-1, range().apply { onRemoved(listOf(3, 4, 5), POSITION) }.last)
+        assertEquals(5, range().apply { onRemoved(listOf(6, 7), POSITION) }.last)
+        assertEquals(-1, range(-1).apply { onRemoved(listOf(0, 3), 1) }.last)
+    }
+
+    @Test
+    fun movingUpcomingTrackOutOfTheRange() {
+        assertEquals(4, range().apply { onMoved(4, 8, isUpcoming = false) }.last)
+        // Dropped right after the range
+        assertEquals(4, range().apply { onMoved(3, 6, isUpcoming = false) }.last)
+    }
+
+    @Test
+    fun movingTrackIntoTheRange() {
+        assertEquals(6, range().apply { onMoved(8, 4, isUpcoming = true) }.last)
+        // Dropped right after the range
+        assertEquals(5, range().apply { onMoved(8, 6, isUpcoming = false) }.last)
+    }
+
+    @Test
+    fun movingTrackWithinTheRange() {
+        assertEquals(5, range().apply { onMoved(3, 5, isUpcoming = true) }.last)
+        assertEquals(5, range().apply { onMoved(5, 3, isUpcoming = true) }.last)
+    }
+
+    @Test
+    fun movingTrackAcrossTheRangeShiftsIt() {
+        assertEquals(4, range().apply { onMoved(0, 8, isUpcoming = false) }.last)
+        assertEquals(6, range().apply { onMoved(8, 0, isUpcoming = false) }.last)
+    }
+
+    @Test
+    fun realignDiscardsEmptyRanges() {
+        assertEquals(5, range().apply { realign(4) }.last)
+        assertEquals(-1, range().apply { realign(5) }.last)
+        assertEquals(7, range().apply { realign(POSITION, last = 7) }.last)
+        assertEquals(-1, range(-1).apply { realign(0) }.last)
+    }
+
+    @Test
+    fun removeOccurrencesRemovesAsManyAsCounted() {
+        val queue = mutableListOf("a", "b", "a", "c", "a", "b")
+        val counts = hashMapOf("a" to 2, "b" to 1, "d" to 1)
+        val removedIndices = queue.removeOccurrences(counts)
+        assertEquals(listOf(0, 1, 2), removedIndices)
+        assertEquals(listOf("c", "a", "b"), queue)
+        assertEquals(mapOf("a" to 0, "b" to 0, "d" to 1), counts)
+    }
+
+    @Test
+    fun removeOccurrencesKeepsTheOrderOfTheRest() {
+        val queue = (0 until 10).toMutableList()
+        val removedIndices = queue.removeOccurrences(hashMapOf(9 to 1, 4 to 1, 0 to 1))
+        assertEquals(listOf(0, 4, 9), removedIndices)
+        assertEquals(listOf(1, 2, 3, 5, 6, 7, 8), queue)
+        assertTrue(mutableListOf(1, 2).removeOccurrences(hashMapOf(3 to 1)).isEmpty())
+    }
+
+    @Test
+    fun removeMatchingRemovesEveryMatch() {
+        val queue = mutableListOf("a", "b", "a", "c", "a", "b")
+        val removedIndices = queue.removeMatching { it == "a" || it == "c" }
+        assertEquals(listOf(0, 2, 3, 4), removedIndices)
+        assertEquals(listOf("b", "b"), queue)
+        assertTrue(queue.removeMatching { it == "d" }.isEmpty())
+    }
+
+    companion object {
+        private const val POSITION = 2
+        private const val LAST = 5
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.views
+
+import com.uniqtech.musicplayer.assertFasterThanBaseline
+import com.uniqtech.musicplayer.medianNanos
+import com.uniqtech.musicplayer.views.LrcLinePositionsTest.Companion.nearestLineByScan
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Scrolls through a synthetic file of [LINE_COUNT] lines, looking for the line at the
+ * center of the view on every frame as LrcView does, and compares it against going
+ * through every line. It's ignored by default, since how long it takes depends on the
+ * machine running it.
+ */
+@Ignore("Benchmark, run it on demand")
+class LrcLinePositionsBenchmark {
+
+    private val positions = LrcLinePositions().apply {
+        val random = Random(42)
+        update(IntArray(LINE_COUNT) { random.nextInt(40, 160) }, 24f)
+    }
+
+    private val step = positions[LINE_COUNT - 1] / FRAMES
+
+    @Test
+    fun scroll() {
+        assertEquals(scroll { nearestLineByScan(positions, it) }, scroll { positions.nearestLine(it) })
+
+        val searchNanos = medianNanos(RUNS) { scroll { positions.nearestLine(it) } }
+        val scanNanos = medianNanos(RUNS) { scroll { nearestLineByScan(positions, it) } }
+        assertFasterThanBaseline("nearestLine", searchNanos, scanNanos)
+    }
+
+    /**
+     * @return The sum of the lines found, so the work can't be optimized away
+     */
+    private inline fun scroll(nearestLine: (Float) -> Int): Long {
+        var sum = 0L
+        for (frame in 0..FRAMES) {
+            sum += nearestLine(frame * step)
+        }
+        return sum
+    }
+
+    companion object {
+        private const val LINE_COUNT = 5_000
+        private const val FRAMES = 10_000
+        private const val RUNS = 5
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2024 Christians Martínez Alvarado
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.uniqtech.musicplayer.views
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.random.Random
+
+class LrcLinePositionsTest {
+
+    private fun positions(vararg heights: Int, dividerHeight: Float = 5f) =
+        LrcLinePositions().apply { update(heights, dividerHeight) }
+
+    @Test
+    fun emptyLyricsHaveNoLines() {
+        val positions = positions()
+        assertEquals(0, positions.size)
+        assertEquals(0, positions.nearestLine(0f))
+        assertEquals(0, positions.nearestLine(-100f))
+        assertEquals(0, positions.nearestLine(100f))
+    }
+
+    @Test
+    fun accumulatesHalfOfEachPairOfHeights() {
+        val positions = positions(10, 20, 30)
+        assertEquals(3, positions.size)
+        assertEquals(0f, positions[0], 0f)
+        assertEquals(20f, positions[1], 0f)
+        assertEquals(50f, positions[2], 0f)
+    }
+
+    @Test
+    fun roundsUnevenHeightsDown() {
+        val positions = positions(11, 12, 7, dividerHeight = 0f)
+        assertEquals(11f, positions[1], 0f)
+        assertEquals(20f, positions[2], 0f)
+    }
+
+    @Test
+    fun findsNearestLine() {
+        val positions = positions(10, 20, 30)
+        assertEquals(0, positions.nearestLine(9f))
+        assertEquals(1, positions.nearestLine(11f))
+        assertEquals(1, positions.nearestLine(20f))
+        assertEquals(2, positions.nearestLine(36f))
+    }
+
+    @Test
+    fun prefersFirstLineOnTies() {
+        val positions = positions(10, 20, 30)
+        assertEquals(0, positions.nearestLine(10f))
+        assertEquals(1, positions.nearestLine(35f))
+    }
+
+    @Test
+    fun clampsPositionsOutsideTheLyrics() {
+        val positions = positions(10, 20, 30)
+        assertEquals(0, positions.nearestLine(-1000f))
+        assertEquals(2, positions.nearestLine(1000f))
+        assertEquals(0, positions(40).nearestLine(1000f))
+    }
+
+    @Test
+    fun clearForgetsTheLines() {
+        val positions = positions(10, 20)
+        positions.clear()
+        assertEquals(0, positions.size)
+        assertEquals(0, positions.nearestLine(20f))
+    }
+
+    @Test
+    fun matchesLinearScan() {
+        val random = Random(42)
+        val positions = LrcLinePositions()
+        positions.update(IntArray(500) { random.nextInt(0, 200) }, 12f)
+        repeat(2_000) {
+            val y = random.nextFloat() * (positions[positions.size - 1] + 400f) - 200f
+            assertEquals("y = $y", nearestLineByScan(positions, y), positions.nearestLine(y))
+        }
+    }
+
+    companion object {
+
+        /**
+         * The way the nearest line was found before, going through every line.
+         */
+        fun nearestLineByScan(positions: LrcLinePositions, y: Float): Int {
+            var nearestLine = 0
+            var minDistance = Float.MAX_VALUE
+            for (i in 0 until positions.size) {
+                val distance = abs(y - positions[i])
+                if (distance < minDistance) {
+                    minDistance = distance
+                    nearestLine = i
+                }
+            }
+            return nearestLine
+        }
+    }
+}